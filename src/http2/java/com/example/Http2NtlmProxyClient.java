@@ -0,0 +1,327 @@
+package com.example;
+
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.NTCredentials;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.ProtocolVersion;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP/2 counterpart of {@link AsyncNtlmProxyClient}, built on Apache HttpClient 5. Requests to
+ * https origins go through an NTLM-authenticated CONNECT tunnel, and h2 is offered via ALPN in the
+ * TLS handshake inside it. When the origin selects h2, concurrent requests to that origin are sent
+ * as streams of the same tunnel (up to {@code app.http.h2-max-concurrent-streams} each); when it
+ * does not, the origin gets up to {@code app.http.max-per-route} HTTP/1.1 tunnels with one request
+ * each, like the other engines.
+ *
+ * <p>Only built with the {@code http2} Maven profile; {@link App} loads it by name.
+ */
+public class Http2NtlmProxyClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Http2NtlmProxyClient.class);
+
+    private static final ConcurrentMap<String, Http2NtlmProxyClient> SHARED = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Http2NtlmProxyClient::closeAll, "h2-ntlm-client-shutdown"));
+    }
+
+    private final PoolingAsyncClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient httpClient;
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder http1Responses = new LongAdder();
+    private final ConcurrentMap<String, StreamPermits> streamPermits = new ConcurrentHashMap<>();
+    private final int streamsPerOrigin;
+    private final int http1PerOrigin;
+
+    public Http2NtlmProxyClient(String proxyHost, int proxyPort, String username, String password, String domain,
+                                HttpClientConfig config) {
+        HttpHost proxy = new HttpHost(proxyHost, proxyPort);
+        this.streamsPerOrigin = Math.max(1, config.getH2MaxConcurrentStreams()) * Math.max(1, config.getH2TunnelsPerOrigin());
+        this.http1PerOrigin = Math.max(config.getMaxPerRoute(), config.getH2TunnelsPerOrigin());
+        BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        // Same DOMAIN\\username handling and workstation name as the HttpClient 4 engines
+        org.apache.http.auth.NTCredentials legacy = NtlmProxyClient.ntCredentials(username, password, domain);
+        credentialsProvider.setCredentials(new AuthScope(proxy),
+            new NTCredentials(legacy.getUserName(), password == null ? null : password.toCharArray(),
+                              legacy.getWorkstation(), legacy.getDomain()));
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(Timeout.ofMilliseconds(config.getConnectTimeoutMs()))
+            .setResponseTimeout(Timeout.ofMilliseconds(config.getSocketTimeoutMs()))
+            .setConnectionRequestTimeout(Timeout.ofMilliseconds(config.getConnectionRequestTimeoutMs()))
+            .build();
+
+        // One tunnel per origin by default: concurrency comes from streams, not connections. Origins
+        // that answer with HTTP/1.1 get app.http.max-per-route once the first response shows it
+        this.connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+            .setTlsStrategy(ClientTlsStrategyBuilder.create()
+                .setSslContext(SslContextFactory.getDefault().getContext())
+                .build())
+            .setDnsResolver(new ProxyDnsResolver())
+            .setMaxConnPerRoute(config.getH2TunnelsPerOrigin())
+            .setMaxConnTotal(config.getMaxTotal())
+            .setConnectionTimeToLive(TimeValue.ofSeconds(config.getTimeToLiveSeconds()))
+            .setValidateAfterInactivity(TimeValue.ofMilliseconds(config.getValidateAfterInactivityMs()))
+            .build();
+
+        int ioThreads = config.getIoThreads() > 0
+            ? config.getIoThreads()
+            : Runtime.getRuntime().availableProcessors();
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+            .setIoThreadCount(ioThreads)
+            .setSoTimeout(Timeout.ofMilliseconds(config.getSocketTimeoutMs()))
+            .setSoKeepAlive(true)
+            .build();
+
+        // NEGOTIATE offers h2 and http/1.1 via ALPN and falls back to HTTP/1.1 without ALPN
+        this.httpClient = HttpAsyncClients.custom()
+            .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+            .setH2Config(H2Config.custom()
+                .setPushEnabled(false)
+                .build())
+            .setIOReactorConfig(reactorConfig)
+            .setConnectionManager(connectionManager)
+            .setProxy(proxy)
+            .setDefaultCredentialsProvider(credentialsProvider)
+            .setDefaultRequestConfig(requestConfig)
+            .setUserAgent(NtlmProxyClient.USER_AGENT)
+            .disableConnectionState()
+            .build();
+        httpClient.start();
+
+        logger.info("Created HTTP/2 NTLM client for proxy {}:{} ({} I/O threads, {} tunnel(s) per origin, "
+                    + "max {} concurrent streams)", proxyHost, proxyPort, ioThreads, config.getH2TunnelsPerOrigin(),
+                    config.getH2MaxConcurrentStreams());
+    }
+
+    /**
+     * Returns the HTTP/2 client shared by all callers using the same proxy, credentials and settings.
+     */
+    public static Http2NtlmProxyClient shared(String proxyHost, int proxyPort, String username, String password,
+                                              String domain, HttpClientConfig config) {
+        String key = NtlmProxyClient.sharedKey(proxyHost + ":" + proxyPort, username, password, domain, config);
+        return SHARED.computeIfAbsent(key, k -> new Http2NtlmProxyClient(proxyHost, proxyPort, username, password,
+                                                                         domain, config));
+    }
+
+    public static void closeAll() {
+        for (Http2NtlmProxyClient client : SHARED.values()) {
+            client.close();
+        }
+        SHARED.clear();
+    }
+
+    /**
+     * Entry point used by {@link App} for {@code app.http.engine=h2}, by name so the default build
+     * does not need HttpClient 5.
+     */
+    public static CompletableFuture<String> callWithHttp2ClientNTLM(String proxyHost, int proxyPort, String username,
+                                                                    String password, String domain,
+                                                                    HttpClientConfig config, String url) {
+        Http2NtlmProxyClient client = shared(proxyHost, proxyPort, username, password, domain, config);
+        return client.get(url)
+            .whenComplete((result, error) -> logger.info("HTTP/2 connection pool after request: {}",
+                                                         client.describePoolStats()));
+    }
+
+    /**
+     * Executes a request without blocking the caller. The response body is fully buffered before
+     * the future completes. Requests beyond {@code app.http.h2-max-concurrent-streams} per tunnel
+     * to the same origin wait for a stream to finish.
+     */
+    public CompletableFuture<SimpleHttpResponse> execute(SimpleHttpRequest request) {
+        CompletableFuture<SimpleHttpResponse> future = new CompletableFuture<>();
+        StreamPermits permits = streamPermits.computeIfAbsent(request.getScheme() + "://" + request.getAuthority(),
+                                                              origin -> new StreamPermits(streamsPerOrigin));
+        permits.acquire(() -> send(request, future, permits));
+        return future;
+    }
+
+    private void send(SimpleHttpRequest request, CompletableFuture<SimpleHttpResponse> future, StreamPermits permits) {
+        HttpClientContext context = HttpClientContext.create();
+        try {
+            httpClient.execute(request, context, new FutureCallback<SimpleHttpResponse>() {
+                @Override
+                public void completed(SimpleHttpResponse response) {
+                    ProtocolVersion version = response.getVersion();
+                    if (version != null && version.greaterEquals(HttpVersion.HTTP_2)) {
+                        http2Responses.increment();
+                    } else {
+                        http1Responses.increment();
+                        usesHttp1(permits, context);
+                    }
+                    permits.release();
+                    future.complete(response);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    permits.release();
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    permits.release();
+                    future.cancel(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The origin did not pick h2, so each tunnel carries one request at a time: size its pool for
+     * HTTP/1.1 and allow one request per connection.
+     */
+    private void usesHttp1(StreamPermits permits, HttpClientContext context) {
+        if (permits.switchToHttp1()) {
+            if (context.getHttpRoute() instanceof HttpRoute) {
+                connectionManager.setMaxPerRoute((HttpRoute) context.getHttpRoute(), http1PerOrigin);
+            }
+            permits.setLimit(http1PerOrigin);
+            logger.debug("{} uses HTTP/1.1, allowing {} connections", context.getHttpRoute(), http1PerOrigin);
+        }
+    }
+
+    public CompletableFuture<String> get(String url) {
+        return execute(SimpleRequestBuilder.get(url).build()).thenApply(response ->
+            "Response Code: " + response.getCode() + " (" + response.getVersion() + ")\n" + response.getBodyText());
+    }
+
+    public String describePoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return "leased=" + stats.getLeased() +
+               ", available=" + stats.getAvailable() +
+               ", pending=" + stats.getPending() +
+               ", max=" + stats.getMax() +
+               ", h2 responses=" + http2Responses.sum() +
+               ", http/1.1 responses=" + http1Responses.sum();
+    }
+
+    @Override
+    public void close() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+    /**
+     * Requests in flight to one origin. The client's own SETTINGS_MAX_CONCURRENT_STREAMS only limits
+     * streams the server may open, so the per-tunnel cap on our requests is applied here. Requests
+     * over it queue in order and are sent as streams finish, without blocking the caller. For an
+     * HTTP/1.1 origin the limit becomes its connection count.
+     */
+    private static final class StreamPermits {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int limit;
+        private int inFlight;
+        private boolean http1;
+
+        StreamPermits(int limit) {
+            this.limit = limit;
+        }
+
+        void acquire(Runnable send) {
+            synchronized (this) {
+                if (inFlight >= limit) {
+                    waiting.add(send);
+                    return;
+                }
+                inFlight++;
+            }
+            send.run();
+        }
+
+        /** Hands the permit to the next waiting request, if any */
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                if (inFlight > limit || (next = waiting.poll()) == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            next.run();
+        }
+
+        /** Returns true the first time, so the switch is made once per origin */
+        synchronized boolean switchToHttp1() {
+            if (http1) {
+                return false;
+            }
+            http1 = true;
+            return true;
+        }
+
+        /** Requests already in flight over a lowered limit finish; raising it starts waiting ones */
+        void setLimit(int newLimit) {
+            List<Runnable> start = new ArrayList<>();
+            synchronized (this) {
+                limit = newLimit;
+                Runnable next;
+                while (inFlight < limit && (next = waiting.poll()) != null) {
+                    inFlight++;
+                    start.add(next);
+                }
+            }
+            for (Runnable send : start) {
+                send.run();
+            }
+        }
+    }
+
+    /**
+     * The CONNECT tunnel means only proxy host names are resolved here, through the same cache as
+     * the other engines.
+     */
+    private static final class ProxyDnsResolver implements DnsResolver {
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return CachingDnsResolver.getDefault().resolve(host);
+        }
+
+        @Override
+        public String resolveCanonicalHostname(String host) throws UnknownHostException {
+            InetAddress[] addresses = resolve(host);
+            return addresses.length > 0 ? addresses[0].getCanonicalHostName() : host;
+        }
+    }
+}
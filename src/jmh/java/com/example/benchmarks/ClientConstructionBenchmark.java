@@ -0,0 +1,58 @@
+package com.example.benchmarks;
+
+import com.example.HttpClientConfig;
+import com.example.NtlmProxyClient;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building (and closing) an HttpClient, as the original per-call code path did,
+ * compared with the pooled client
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientConstructionBenchmark {
+
+    @Benchmark
+    public void perCallClient() throws IOException {
+        CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(new AuthScope("proxy.local", 8080),
+                                           new NTCredentials("user", "password", "workstation", "DOMAIN"));
+        RequestConfig config = RequestConfig.custom()
+            .setProxy(new HttpHost("proxy.local", 8080))
+            .setConnectTimeout(30000)
+            .setSocketTimeout(30000)
+            .build();
+        CloseableHttpClient httpClient = HttpClients.custom()
+            .setDefaultCredentialsProvider(credentialsProvider)
+            .setDefaultRequestConfig(config)
+            .build();
+        httpClient.close();
+    }
+
+    @Benchmark
+    public void pooledNtlmProxyClient() throws IOException {
+        NtlmProxyClient client = new NtlmProxyClient("proxy.local", 8080, "DOMAIN\\user", "password", null,
+                                                     new HttpClientConfig());
+        client.close();
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.benchmarks;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EntityUtils.toString on response bodies of different sizes, as used by callWithHttpClientNTLM
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityToStringBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+    }
+
+    @Benchmark
+    public String entityToString() throws Exception {
+        return EntityUtils.toString(new ByteArrayEntity(body, ContentType.TEXT_HTML));
+    }
+}
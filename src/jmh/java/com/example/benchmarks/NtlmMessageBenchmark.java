@@ -0,0 +1,107 @@
+package com.example.benchmarks;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.impl.auth.NTLMScheme;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NTLM message generation as done by HttpClient during the proxy 407 exchange: the type-1
+ * negotiate message, parsing a type-2 challenge and computing the type-3 (NTLMv2) response
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NtlmMessageBenchmark {
+
+    private final NTCredentials credentials = new NTCredentials("user", "password", "WORKSTATION", "DOMAIN");
+    private final HttpRequest request = new BasicHttpRequest("CONNECT", "www.example.com:443");
+    private final HttpContext context = new BasicHttpContext();
+
+    private Header type2Challenge;
+
+    @Setup
+    public void setUp() {
+        type2Challenge = new BasicHeader(AUTH.PROXY_AUTH, "NTLM " + Base64.getEncoder().encodeToString(type2Message()));
+    }
+
+    @Benchmark
+    public Header type1() throws Exception {
+        NTLMScheme scheme = new NTLMScheme();
+        scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "NTLM"));
+        return scheme.authenticate(credentials, request, context);
+    }
+
+    @Benchmark
+    public Header type2ParseAndType3() throws Exception {
+        NTLMScheme scheme = new NTLMScheme();
+        scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "NTLM"));
+        scheme.authenticate(credentials, request, context);
+        scheme.processChallenge(type2Challenge);
+        return scheme.authenticate(credentials, request, context);
+    }
+
+    /**
+     * Builds a type-2 challenge like the one a Windows proxy returns: Unicode, extended
+     * session security and a target info block, which makes HttpClient answer with NTLMv2.
+     */
+    static byte[] type2Message() {
+        byte[] targetName = "DOMAIN".getBytes(StandardCharsets.UTF_16LE);
+        byte[] computerName = "PROXY".getBytes(StandardCharsets.UTF_16LE);
+
+        ByteBuffer targetInfo = ByteBuffer.allocate(4 + targetName.length + 4 + computerName.length + 4)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        targetInfo.putShort((short) 2).putShort((short) targetName.length).put(targetName);     // MsvAvNbDomainName
+        targetInfo.putShort((short) 1).putShort((short) computerName.length).put(computerName); // MsvAvNbComputerName
+        targetInfo.putShort((short) 0).putShort((short) 0);                                      // MsvAvEOL
+
+        int flags = 0x00000001   // NEGOTIATE_UNICODE
+                  | 0x00000004   // REQUEST_TARGET
+                  | 0x00000200   // NEGOTIATE_NTLM
+                  | 0x00008000   // NEGOTIATE_ALWAYS_SIGN
+                  | 0x00010000   // TARGET_TYPE_DOMAIN
+                  | 0x00080000   // NEGOTIATE_EXTENDED_SESSIONSECURITY
+                  | 0x00800000   // NEGOTIATE_TARGET_INFO
+                  | 0x20000000   // NEGOTIATE_128
+                  | 0x80000000;  // NEGOTIATE_56
+
+        int headerLength = 48;
+        ByteBuffer message = ByteBuffer.allocate(headerLength + targetName.length + targetInfo.capacity())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        message.put("NTLMSSP\0".getBytes(StandardCharsets.US_ASCII));
+        message.putInt(2);
+        message.putShort((short) targetName.length).putShort((short) targetName.length).putInt(headerLength);
+        message.putInt(flags);
+        message.put(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}); // server challenge
+        message.putLong(0);                                // reserved
+        message.putShort((short) targetInfo.capacity()).putShort((short) targetInfo.capacity())
+               .putInt(headerLength + targetName.length);
+        message.put(targetName);
+        message.put(targetInfo.array());
+        return message.array();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of SSLContext.getInstance(...).init(null, null, null), which the diagnostics and the
+ * client used to pay on every connection attempt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SslContextBenchmark {
+
+    @Param({"TLS", "TLSv1.2"})
+    public String protocol;
+
+    @Benchmark
+    public SSLSocketFactory createSslContext() throws Exception {
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(null, null, null);
+        return context.getSocketFactory();
+    }
+}
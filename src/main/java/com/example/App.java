@@ -1,26 +1,38 @@
 package com.example;
 
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.NTCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.conn.DnsResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.Banner;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @SpringBootApplication
 public class App implements CommandLineRunner {
@@ -32,6 +44,45 @@ public class App implements CommandLineRunner {
     
     @Autowired
     private ProxyConfig proxyConfig;
+    
+    @Autowired
+    private HttpClientConfig httpClientConfig;
+    
+    @Autowired
+    private SslConfig sslConfig;
+    
+    @Autowired
+    private DnsConfig dnsConfig;
+    
+    @Autowired
+    private SidecarConfig sidecarConfig;
+    
+    @Autowired
+    private ProxySelectionConfig proxySelectionConfig;
+    
+    @Autowired
+    private ProxyLimitConfig proxyLimitConfig;
+    
+    @Autowired
+    private CacheConfig cacheConfig;
+    
+    @Autowired
+    private DownloadConfig downloadConfig;
+    
+    @Autowired
+    private WatchConfig watchConfig;
+    
+    @Autowired
+    private ConnectConfig connectConfig;
+    
+    @Autowired
+    private PacConfig pacConfig;
+    
+    @Autowired
+    private MetricsConfig metricsConfig;
+    
+    @Autowired
+    private FlightRecorderConfig flightRecorderConfig;
 
     public static void main(String[] args) {
         // CRITICAL: Disable SOCKS before ANYTHING else
@@ -56,31 +107,98 @@ public class App implements CommandLineRunner {
             System.clearProperty("java.security.auth.login.config");
         }
         
-        SpringApplication.run(App.class, args);
+        // Native images cannot scan the classpath for components, so they always start this way
+        boolean nativeImage = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+        if (nativeImage || Arrays.asList(args).contains("-fastStart")) {
+            // Fast-start path: explicit beans only, created lazily, no background pre-initialization
+            System.setProperty("spring.backgroundpreinitializer.ignore", "true");
+            new SpringApplicationBuilder(FastStartConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .lazyInitialization(true)
+                .run(args);
+        } else {
+            SpringApplication.run(App.class, args);
+        }
     }
 
     @Override
     public void run(String... args) throws Exception {
-        logger.info("Starting CLI application");
+        logger.info("Starting CLI application (JVM uptime {} ms)", ManagementFactory.getRuntimeMXBean().getUptime());
+        
+        // Flight recording first, so the whole run is covered
+        String recordingFile = argumentValue(args, "-jfr", flightRecorderConfig.getRecordingFile());
+        if (!recordingFile.isEmpty()) {
+            FlightEvents.startRecording(Paths.get(recordingFile), flightRecorderConfig.getSettings());
+        }
         
         // Parse command line arguments for proxy settings
         proxyArgumentParser.parseProxyArguments(args);
         
         // Configure DNS settings to resolve proxy hostname
         configureDNS();
+        ConnectionRacer.configure(connectConfig);
+        
+        // Shared SSL contexts keep their session caches so TLS handshakes can be resumed
+        SslContextFactory.configure(sslConfig);
+        
+        // Per-phase request timings, optionally written to a Prometheus text file
+        RequestMetrics metrics = RequestMetrics.configure(metricsConfig);
+        String metricsFile = argumentValue(args, "-metrics", metricsConfig.getPrometheusFile());
+        if (!metricsFile.isEmpty() && metricsConfig.isEnabled() && metricsConfig.getDumpIntervalSeconds() > 0) {
+            metrics.startDumping(Paths.get(metricsFile), metricsConfig.getDumpIntervalSeconds());
+        }
+        
+        // Private HTTP cache in front of the proxy, when app.cache.enabled is set
+        ResponseCache cache = ResponseCache.configure(cacheConfig);
+        
+        // Per-host proxy choice from the PAC script, when app.pac.url is set
+        PacProxySelector pac = PacProxySelector.configure(pacConfig, proxyConfig.getProxies());
         
         // Log all command line arguments
         logger.info("Command line arguments: {}", Arrays.toString(args));
         
         try {
-            logger.info("Using Apache HttpClient with NTLM proxy");
-            testHttpClientNTLM();
-            
-            logger.info("HTTP request completed successfully");
+            String mode = argumentValue(args, "-mode");
+            if ("batch".equals(mode) || "load".equals(mode)
+                || mode == null && !httpClientConfig.isAsyncEngine() && !httpClientConfig.isH2Engine()) {
+                warmConnections();
+            }
+            if ("batch".equals(mode)) {
+                runBatch(args);
+            } else if ("load".equals(mode)) {
+                runLoad(args);
+            } else if ("download".equals(mode)) {
+                runDownload(args);
+            } else if ("watch".equals(mode)) {
+                runWatch(args);
+            } else if ("sidecar".equals(mode)) {
+                runSidecar(args);
+            } else {
+                logger.info("Using Apache HttpClient with NTLM proxy ({} engine)", httpClientConfig.getEngine());
+                testHttpClientNTLM();
+                
+                logger.info("HTTP request completed successfully");
+            }
             
         } catch (Exception e) {
             logger.error("Error during HTTP request", e);
         } finally {
+            logger.info("TLS handshakes: {}", SslContextFactory.getDefault().describeStats());
+            logger.info("DNS cache: {}", CachingDnsResolver.describeDefaultStats());
+            logger.info("Connection racing: {}", ConnectionRacer.getDefault().describeStats());
+            if (cache != null) {
+                logger.info("Response cache: {}", cache.describeStats());
+            }
+            if (pac != null) {
+                logger.info("PAC decisions: {}", pac.describeStats());
+            }
+            writeRequestMetrics(metrics, metricsFile);
+            Path recording = FlightEvents.stopRecording();
+            if (recording != null) {
+                logger.info("Flight recording written to {}", recording);
+            }
             logger.info("Application finished, exiting...");
             System.exit(0);
         }
@@ -94,18 +212,267 @@ public class App implements CommandLineRunner {
             return;
         }
         
-        String result = testInternetProxyAccess(
-            proxyConfig.getHost(),
-            proxyConfig.getPortAsInt(),
+        String result;
+        if ("test-mode".equals(proxyConfig.getHost()) || httpClientConfig.isAsyncEngine() || httpClientConfig.isH2Engine()) {
+            result = testInternetProxyAccess(
+                proxyConfig.getHost(),
+                proxyConfig.getPortAsInt(),
+                proxyConfig.getUsername(),
+                proxyConfig.getPassword(),
+                proxyConfig.getDomain(),
+                httpClientConfig
+            );
+        } else {
+            // Same client as the other modes, so the selection and limit settings apply here too
+            result = callWithHttpClientNTLM(this::sharedClient);
+        }
+        
+        logger.info("Apache HttpClient NTLM result:\n{}", result);
+    }
+    
+    private void runBatch(String[] args) throws Exception {
+        if (!proxyConfig.isProxyEnabled()) {
+            logger.warn("No proxy configuration found. Please provide proxy settings via command line arguments.");
+            return;
+        }
+        
+        String source = argumentValue(args, "-urls");
+        int concurrency = Integer.parseInt(argumentValue(args, "-concurrency", "16"));
+        boolean ordered = hasFlag(args, "-ordered");
+        boolean virtualThreads = hasFlag(args, "-virtualThreads");
+        
+        if (concurrency > httpClientConfig.getMaxPerRoute()) {
+            logger.warn("Concurrency {} exceeds app.http.max-per-route={}; requests to the same host will queue for connections",
+                       concurrency, httpClientConfig.getMaxPerRoute());
+        }
+        
+        BatchFetcher fetcher = new BatchFetcher(sharedClient(), concurrency, ordered, virtualThreads);
+        
+        // Read from stdin when no file is given or the file is "-"
+        if (source == null || "-".equals(source)) {
+            logger.info("Batch mode: reading URLs from stdin");
+            fetcher.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out);
+        } else {
+            logger.info("Batch mode: reading URLs from {}", source);
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8)) {
+                fetcher.run(reader, System.out);
+            }
+        }
+        logProxyStats(sharedClient().describeProxyStats());
+        logLatencyStats(sharedClient().describeLatencyStats());
+        logLimitStats(sharedClient().describeLimitStats());
+    }
+    
+    private void runLoad(String[] args) throws Exception {
+        if (!proxyConfig.isProxyEnabled()) {
+            logger.warn("No proxy configuration found. Please provide proxy settings via command line arguments.");
+            return;
+        }
+        
+        String url = argumentValue(args, "-url", "https://www.google.com");
+        long durationSeconds = Long.parseLong(argumentValue(args, "-durationSeconds", "30"));
+        String rate = argumentValue(args, "-rate");
+        int concurrency = Integer.parseInt(argumentValue(args, "-concurrency", "16"));
+        String histogramFile = argumentValue(args, "-histogram");
+        
+        LoadGenerator generator = new LoadGenerator(sharedClient(), url);
+        if (rate != null) {
+            // Open model: -concurrency caps the worker threads available to keep up with the rate
+            generator.runFixedRate(Double.parseDouble(rate), durationSeconds, concurrency);
+        } else {
+            generator.runFixedConcurrency(concurrency, durationSeconds);
+        }
+        
+        if (histogramFile != null) {
+            generator.writeHistogram(histogramFile);
+        }
+        logProxyStats(sharedClient().describeProxyStats());
+        logLatencyStats(sharedClient().describeLatencyStats());
+        logLimitStats(sharedClient().describeLimitStats());
+    }
+    
+    private void runDownload(String[] args) throws Exception {
+        if (!proxyConfig.isProxyEnabled()) {
+            logger.warn("No proxy configuration found. Please provide proxy settings via command line arguments.");
+            return;
+        }
+        
+        String url = argumentValue(args, "-url");
+        if (url == null) {
+            logger.error("Download mode needs -url");
+            return;
+        }
+        String segments = argumentValue(args, "-segments");
+        if (segments != null) {
+            downloadConfig.setSegments(Integer.parseInt(segments));
+        }
+        // Default to the last path segment of the URL, in the working directory
+        String path = URI.create(url).getPath();
+        String defaultName = path == null || path.endsWith("/") || path.isEmpty()
+            ? "download"
+            : path.substring(path.lastIndexOf('/') + 1);
+        Path output = Paths.get(argumentValue(args, "-output", defaultName)).toAbsolutePath();
+        
+        SegmentedDownloader downloader = new SegmentedDownloader(sharedClient(), downloadConfig);
+        downloader.download(url, output, argumentValue(args, "-checksum"));
+        logProxyStats(sharedClient().describeProxyStats());
+        logLimitStats(sharedClient().describeLimitStats());
+    }
+    
+    private void runWatch(String[] args) throws Exception {
+        watchConfig.setEndpoints(argumentValue(args, "-endpoints", watchConfig.getEndpoints()));
+        watchConfig.setEndpointsFile(argumentValue(args, "-endpointsFile", watchConfig.getEndpointsFile()));
+        long durationSeconds = Long.parseLong(argumentValue(args, "-durationSeconds", "0"));
+        
+        List<WatchMonitor.Endpoint> endpoints = WatchMonitor.endpoints(watchConfig);
+        if (endpoints.isEmpty()) {
+            logger.error("Watch mode needs -endpoints, -endpointsFile or app.watch.endpoints");
+            return;
+        }
+        // Only http endpoints go through the proxy; tcp and tls ones are checked directly
+        NtlmProxyClient client = proxyConfig.isProxyEnabled() ? sharedClient() : null;
+        try (WatchMonitor monitor = new WatchMonitor(client, watchConfig, endpoints)) {
+            monitor.start();
+            if (durationSeconds > 0) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            } else {
+                // Until the process is stopped; summaries are logged as it runs
+                Thread.sleep(Long.MAX_VALUE);
+            }
+            logger.info("{}", monitor.summarize());
+        }
+        if (client != null) {
+            logProxyStats(client.describeProxyStats());
+        }
+    }
+    
+    private void runSidecar(String[] args) throws Exception {
+        if (!proxyConfig.isProxyEnabled()) {
+            logger.warn("No proxy configuration found. Please provide proxy settings via command line arguments.");
+            return;
+        }
+        
+        String listenPort = argumentValue(args, "-listenPort");
+        if (listenPort != null) {
+            sidecarConfig.setListenPort(Integer.parseInt(listenPort));
+        }
+        
+        NtlmSidecarProxy sidecar = new NtlmSidecarProxy(proxyConfig, sidecarConfig, httpClientConfig,
+                                                        proxySelectionConfig, CachingDnsResolver.getDefault());
+        sidecar.start();
+        
+        ScheduledExecutorService statsLogger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sidecar-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        statsLogger.scheduleAtFixedRate(() -> {
+            logger.info("Sidecar: {}", sidecar.describeStats());
+            logProxyStats(sidecar.describeProxyStats());
+        }, 60, 60, TimeUnit.SECONDS);
+        
+        // Runs until the process is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Sidecar stopping: {}", sidecar.describeStats());
+            logProxyStats(sidecar.describeProxyStats());
+            try {
+                sidecar.close();
+            } catch (IOException e) {
+                // Ignore cleanup errors
+            }
+        }, "sidecar-shutdown"));
+        sidecar.awaitTermination();
+    }
+    
+    /**
+     * Opens the configured warm pool before the first real request, so it does not pay for the
+     * proxy connect, NTLM handshake, CONNECT and TLS handshake.
+     */
+    private void warmConnections() {
+        if (proxyConfig.getWarmPoolSize() <= 0 || !proxyConfig.isProxyEnabled()) {
+            return;
+        }
+        List<HttpHost> targets = proxyConfig.getWarmTargetHosts();
+        if (targets.isEmpty()) {
+            logger.warn("app.proxy.warm-pool-size is set but no warm targets are configured (app.proxy.warm-targets)");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        NtlmProxyClient client = sharedClient();
+        int opened = client.warmPool(targets, proxyConfig.getWarmPoolSize(), proxyConfig.getWarmTopUpSeconds());
+        logger.info("Pre-warmed {} connections in {} ms: {}", opened, System.currentTimeMillis() - start,
+                    client.describeWarmStats());
+    }
+    
+    private NtlmProxyClient sharedClient() {
+        return NtlmProxyClient.shared(
+            proxyConfig.getProxies(),
             proxyConfig.getUsername(),
             proxyConfig.getPassword(),
-            proxyConfig.getDomain()
+            proxyConfig.getDomain(),
+            httpClientConfig,
+            proxySelectionConfig,
+            proxyLimitConfig
         );
-        
-        logger.info("Apache HttpClient NTLM result:\n{}", result);
+    }
+    
+    private void writeRequestMetrics(RequestMetrics metrics, String metricsFile) {
+        metrics.stopDumping();
+        String phases = metrics.describePhases();
+        if (!phases.isEmpty()) {
+            logger.info("Request phases:{}", phases);
+        }
+        if (!metricsFile.isEmpty() && metricsConfig.isEnabled()) {
+            try {
+                metrics.writePrometheus(Paths.get(metricsFile));
+                logger.info("Request metrics written to {}", metricsFile);
+            } catch (IOException e) {
+                logger.warn("Could not write request metrics to {}: {}", metricsFile, e.getMessage());
+            }
+        }
+    }
+    
+    private static void logProxyStats(String proxyStats) {
+        if (proxyStats != null) {
+            logger.info("Proxy selection:\n{}", proxyStats);
+        }
+    }
+    
+    private static void logLatencyStats(String latencyStats) {
+        if (latencyStats != null) {
+            logger.info("Route latency:\n{}", latencyStats);
+        }
+    }
+    
+    private static void logLimitStats(String limitStats) {
+        if (limitStats != null) {
+            logger.info("Proxy concurrency limits:\n{}", limitStats);
+        }
+    }
+    
+    static String argumentValue(String[] args, String name) {
+        return argumentValue(args, name, null);
+    }
+    
+    static String argumentValue(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+    
+    static boolean hasFlag(String[] args, String name) {
+        return Arrays.asList(args).contains(name);
     }
     
     public static String testInternetProxyAccess(String proxyHost, int proxyPort, String username, String password, String domain) {
+        return testInternetProxyAccess(proxyHost, proxyPort, username, password, domain, new HttpClientConfig());
+    }
+    
+    public static String testInternetProxyAccess(String proxyHost, int proxyPort, String username, String password, String domain,
+                                                 HttpClientConfig httpClientConfig) {
         logger.info("Testing internet proxy access - equivalent to: curl --proxy-ntlm --proxy-user '{}:***' --proxy 'http://{}:{}' 'https://www.google.com'", 
                    username, proxyHost, proxyPort);
         
@@ -115,89 +482,104 @@ public class App implements CommandLineRunner {
                    "<!DOCTYPE html><html>... Google homepage content ...</html>";
         }
         
-        return callWithHttpClientNTLM(proxyHost, proxyPort, username, password, domain);
+        if (httpClientConfig.isAsyncEngine() || httpClientConfig.isH2Engine()) {
+            return testInternetProxyAccessAsync(proxyHost, proxyPort, username, password, domain, httpClientConfig).join();
+        }
+        
+        return callWithHttpClientNTLM(proxyHost, proxyPort, username, password, domain, httpClientConfig);
     }
     
-    public static String callWithHttpClientNTLM(String proxyHost, int proxyPort, String username, String password, String domain) {
-        CloseableHttpClient httpClient = null;
-        CloseableHttpResponse response = null;
+    public static CompletableFuture<String> testInternetProxyAccessAsync(String proxyHost, int proxyPort, String username,
+                                                                         String password, String domain,
+                                                                         HttpClientConfig httpClientConfig) {
+        if ("test-mode".equals(proxyHost)) {
+            return CompletableFuture.completedFuture(
+                "Test mode: Simulated successful proxy connection to https://www.google.com\n" +
+                "Response Code: 200\n" +
+                "<!DOCTYPE html><html>... Google homepage content ...</html>");
+        }
         
+        if (httpClientConfig.isH2Engine()) {
+            return callWithHttp2ClientNTLM(proxyHost, proxyPort, username, password, domain, httpClientConfig);
+        }
+        return callWithAsyncHttpClientNTLM(proxyHost, proxyPort, username, password, domain, httpClientConfig);
+    }
+    
+    /**
+     * Runs the request on {@code Http2NtlmProxyClient}, which is looked up by name because it is only
+     * compiled with the {@code http2} Maven profile (it needs HttpClient 5).
+     */
+    @SuppressWarnings("unchecked")
+    public static CompletableFuture<String> callWithHttp2ClientNTLM(String proxyHost, int proxyPort, String username,
+                                                                    String password, String domain,
+                                                                    HttpClientConfig httpClientConfig) {
         try {
-            // Extract domain from username if in DOMAIN\\username format
-            String actualUsername = username;
-            String actualDomain = domain;
-            
-            if (username != null && username.contains("\\")) {
-                String[] parts = username.split("\\\\", 2);
-                if (parts.length == 2) {
-                    actualDomain = parts[0];
-                    actualUsername = parts[1];
-                }
-            }
-            
-            // Get workstation name
-            String workstation = "";
-            try {
-                workstation = InetAddress.getLocalHost().getHostName();
-            } catch (Exception e) {
-                workstation = ""; // Use empty string if can't get hostname
-            }
-            
-            // Set up proxy host
-            HttpHost proxy = new HttpHost(proxyHost, proxyPort);
-            
-            // Set up NTLM credentials
-            CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-            NTCredentials ntCredentials = new NTCredentials(
-                actualUsername, 
-                password, 
-                workstation, 
-                actualDomain != null ? actualDomain : ""
-            );
-            credentialsProvider.setCredentials(new AuthScope(proxyHost, proxyPort), ntCredentials);
-            
-            // Configure request with proxy
-            RequestConfig config = RequestConfig.custom()
-                .setProxy(proxy)
-                .setConnectTimeout(30000)
-                .setSocketTimeout(30000)
-                .build();
-            
-            // Create HttpClient with NTLM support
-            httpClient = HttpClients.custom()
-                .setDefaultCredentialsProvider(credentialsProvider)
-                .setDefaultRequestConfig(config)
-                .build();
-            
-            // Create GET request
-            HttpGet httpGet = new HttpGet("https://www.google.com");
-            httpGet.setHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
-            
-            // Execute request
-            response = httpClient.execute(httpGet);
-            
-            // Get response
-            int statusCode = response.getStatusLine().getStatusCode();
-            String responseBody = EntityUtils.toString(response.getEntity());
-            
-            return "Response Code: " + statusCode + "\n" + responseBody;
+            Class<?> clientClass = Class.forName("com.example.Http2NtlmProxyClient");
+            Method call = clientClass.getMethod("callWithHttp2ClientNTLM", String.class, int.class, String.class,
+                                                String.class, String.class, HttpClientConfig.class, String.class);
+            CompletableFuture<String> result = (CompletableFuture<String>) call.invoke(null, proxyHost, proxyPort,
+                username, password, domain, httpClientConfig, "https://www.google.com");
+            return result.exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                logger.error("Error in callWithHttp2ClientNTLM", cause);
+                return "Error: " + cause.getClass().getSimpleName() + ": " + cause.getMessage() + 
+                       "\nFull stack trace logged to console";
+            });
+        } catch (ClassNotFoundException e) {
+            logger.error("app.http.engine=h2 needs a build with the http2 profile: mvn -Phttp2 package");
+            return CompletableFuture.completedFuture("Error: HTTP/2 engine not included in this build");
+        } catch (Exception e) {
+            Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+            logger.error("Error in callWithHttp2ClientNTLM", cause);
+            return CompletableFuture.completedFuture("Error: " + cause.getClass().getSimpleName() + ": " + 
+                                                     cause.getMessage() + "\nFull stack trace logged to console");
+        }
+    }
+    
+    public static CompletableFuture<String> callWithAsyncHttpClientNTLM(String proxyHost, int proxyPort, String username,
+                                                                        String password, String domain,
+                                                                        HttpClientConfig httpClientConfig) {
+        try {
+            AsyncNtlmProxyClient client = AsyncNtlmProxyClient.shared(proxyHost, proxyPort, username, password, domain, httpClientConfig);
+            return client.get("https://www.google.com")
+                .whenComplete((result, error) -> logger.info("Async connection pool after request: {}", client.describePoolStats()))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    logger.error("Error in callWithAsyncHttpClientNTLM", cause);
+                    return "Error: " + cause.getClass().getSimpleName() + ": " + cause.getMessage() + 
+                           "\nFull stack trace logged to console";
+                });
+        } catch (Exception e) {
+            logger.error("Error in callWithAsyncHttpClientNTLM", e);
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.complete("Error: " + e.getClass().getSimpleName() + ": " + e.getMessage() + 
+                            "\nFull stack trace logged to console");
+            return failed;
+        }
+    }
+    
+    public static String callWithHttpClientNTLM(String proxyHost, int proxyPort, String username, String password, String domain) {
+        return callWithHttpClientNTLM(proxyHost, proxyPort, username, password, domain, new HttpClientConfig());
+    }
+    
+    public static String callWithHttpClientNTLM(String proxyHost, int proxyPort, String username, String password, String domain,
+                                                HttpClientConfig httpClientConfig) {
+        // The shared client keeps NTLM-authenticated connections pooled between calls
+        return callWithHttpClientNTLM(
+            () -> NtlmProxyClient.shared(proxyHost, proxyPort, username, password, domain, httpClientConfig));
+    }
+    
+    static String callWithHttpClientNTLM(Supplier<NtlmProxyClient> clientSupplier) {
+        try {
+            NtlmProxyClient client = clientSupplier.get();
+            String result = client.get("https://www.google.com");
+            logger.info("Connection pool after request: {}", client.describePoolStats());
+            return result;
             
         } catch (Exception e) {
             logger.error("Error in callWithHttpClientNTLM", e);
             return "Error: " + e.getClass().getSimpleName() + ": " + e.getMessage() + 
                    "\nFull stack trace logged to console";
-        } finally {
-            // Clean up resources
-            try {
-                if (response != null) {
-                    response.close();
-                }
-                if (httpClient != null) {
-                    httpClient.close();
-                }
-            } catch (Exception e) {
-                // Ignore cleanup errors
-            }
         }
     }
     
@@ -214,9 +596,11 @@ public class App implements CommandLineRunner {
         // Additional SOCKS cleanup - already cleared above
         
         // Network settings
+        // The JVM cache stays off; CachingDnsResolver caches lookups made by the HTTP clients
         System.setProperty("networkaddress.cache.ttl", "0");
         System.setProperty("networkaddress.cache.negative.ttl", "0");
-        System.setProperty("java.net.preferIPv4Stack", "true");
+        // With IPv6 allowed, ConnectionRacer races both families of a dual-stack host
+        System.setProperty("java.net.preferIPv4Stack", String.valueOf(connectConfig.isIpv4Only()));
         System.setProperty("java.net.preferIPv6Addresses", "false");
         
         // DNS settings
@@ -225,16 +609,21 @@ public class App implements CommandLineRunner {
         
         logger.info("Java network configuration set (system proxies disabled)");
         
-        // If proxy is configured, try to resolve the hostname first
+        DnsResolver dnsResolver = CachingDnsResolver.configure(dnsConfig);
+        
+        // If proxies are configured, try to resolve their hostnames first
         if (proxyConfig.isProxyEnabled()) {
-            try {
-                InetAddress addr = InetAddress.getByName(proxyConfig.getHost());
-                logger.info("Successfully resolved proxy hostname: {} -> {}", 
-                           proxyConfig.getHost(), addr.getHostAddress());
-            } catch (UnknownHostException e) {
-                logger.warn("Failed to resolve proxy hostname: {}. Error: {}", 
-                           proxyConfig.getHost(), e.getMessage());
-                logger.info("Will proceed anyway - HttpClient may still be able to resolve it");
+            for (HttpHost proxy : proxyConfig.getProxies()) {
+                try {
+                    // Resolving through the cache also warms it for the first proxy connection
+                    InetAddress addr = dnsResolver.resolve(proxy.getHostName())[0];
+                    logger.info("Successfully resolved proxy hostname: {} -> {}", 
+                               proxy.getHostName(), addr.getHostAddress());
+                } catch (UnknownHostException e) {
+                    logger.warn("Failed to resolve proxy hostname: {}. Error: {}", 
+                               proxy.getHostName(), e.getMessage());
+                    logger.info("Will proceed anyway - HttpClient may still be able to resolve it");
+                }
             }
         }
     }
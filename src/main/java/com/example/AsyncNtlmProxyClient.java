@@ -0,0 +1,178 @@
+package com.example;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of {@link NtlmProxyClient}. A small number of NIO reactor
+ * threads drive all in-flight requests, including the proxy CONNECT tunnel and the
+ * NTLM 407 exchange, and results are delivered as {@link CompletableFuture}s.
+ */
+public class AsyncNtlmProxyClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncNtlmProxyClient.class);
+
+    private static final ConcurrentMap<String, AsyncNtlmProxyClient> SHARED = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncNtlmProxyClient::closeAll, "async-ntlm-client-shutdown"));
+    }
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient httpClient;
+
+    public AsyncNtlmProxyClient(String proxyHost, int proxyPort, String username, String password, String domain,
+                                HttpClientConfig config) throws IOReactorException {
+        CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(new AuthScope(proxyHost, proxyPort),
+            NtlmProxyClient.ntCredentials(username, password, domain));
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setProxy(new HttpHost(proxyHost, proxyPort))
+            .setConnectTimeout(config.getConnectTimeoutMs())
+            .setSocketTimeout(config.getSocketTimeoutMs())
+            .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMs())
+            .build();
+
+        int ioThreads = config.getIoThreads() > 0
+            ? config.getIoThreads()
+            : Runtime.getRuntime().availableProcessors();
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+            .setIoThreadCount(ioThreads)
+            .setConnectTimeout(config.getConnectTimeoutMs())
+            .setSoTimeout(config.getSocketTimeoutMs())
+            .setSoKeepAlive(true)
+            .build();
+
+        this.connectionManager = new PoolingNHttpClientConnectionManager(
+            new DefaultConnectingIOReactor(reactorConfig),
+            null,
+            RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SslContextFactory.getDefault().asyncSessionStrategy())
+                .build(),
+            null,
+            CachingDnsResolver.getDefault(),
+            config.getTimeToLiveSeconds(),
+            TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(config.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+
+        // Same reasoning as the blocking client: one identity, so NTLM connection state is not tracked
+        this.httpClient = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultCredentialsProvider(credentialsProvider)
+            .setDefaultRequestConfig(requestConfig)
+            .setUserAgent(NtlmProxyClient.USER_AGENT)
+            .disableConnectionState()
+            .build();
+        httpClient.start();
+
+        logger.info("Created async NTLM client for proxy {}:{} ({} I/O threads, maxTotal={}, maxPerRoute={})",
+                    proxyHost, proxyPort, ioThreads, config.getMaxTotal(), config.getMaxPerRoute());
+    }
+
+    /**
+     * Returns the async client shared by all callers using the same proxy, credentials and settings.
+     */
+    public static AsyncNtlmProxyClient shared(String proxyHost, int proxyPort, String username, String password,
+                                              String domain, HttpClientConfig config) {
+        String key = NtlmProxyClient.sharedKey(proxyHost + ":" + proxyPort, username, password, domain, config);
+        return SHARED.computeIfAbsent(key, k -> {
+            try {
+                return new AsyncNtlmProxyClient(proxyHost, proxyPort, username, password, domain, config);
+            } catch (IOReactorException e) {
+                throw new IllegalStateException("Failed to start I/O reactor", e);
+            }
+        });
+    }
+
+    public static void closeAll() {
+        for (AsyncNtlmProxyClient client : SHARED.values()) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Ignore cleanup errors
+            }
+        }
+        SHARED.clear();
+    }
+
+    /**
+     * Executes a request without blocking the caller. The response entity is fully
+     * buffered before the future completes.
+     */
+    public CompletableFuture<HttpResponse> execute(HttpUriRequest request) {
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<String> get(String url) {
+        return execute(new HttpGet(url)).thenApply(response -> {
+            try {
+                int statusCode = response.getStatusLine().getStatusCode();
+                String responseBody = EntityUtils.toString(response.getEntity());
+                return "Response Code: " + statusCode + "\n" + responseBody;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public String describePoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return "leased=" + stats.getLeased() +
+               ", available=" + stats.getAvailable() +
+               ", pending=" + stats.getPending() +
+               ", max=" + stats.getMax();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
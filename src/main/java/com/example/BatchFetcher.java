@@ -0,0 +1,203 @@
+package com.example;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches a list of URLs concurrently through the shared proxy client and prints
+ * one status/timing line per URL.
+ */
+public class BatchFetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchFetcher.class);
+
+    private final NtlmProxyClient client;
+    private final int concurrency;
+    private final boolean ordered;
+    private final boolean virtualThreads;
+
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public BatchFetcher(NtlmProxyClient client, int concurrency, boolean ordered, boolean virtualThreads) {
+        this.client = client;
+        this.concurrency = Math.max(1, concurrency);
+        this.ordered = ordered;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Reads URLs line by line (blank lines and lines starting with '#' are skipped) and
+     * fetches them with at most {@code concurrency} requests in flight.
+     */
+    public void run(BufferedReader urls, PrintStream out) throws IOException, InterruptedException {
+        ExecutorService executor = createExecutor();
+        long start = System.nanoTime();
+        int submitted = 0;
+
+        try {
+            if (ordered) {
+                // Results are printed in input order; the window of pending futures bounds memory
+                Deque<Future<FetchResult>> pending = new ArrayDeque<>();
+                String line;
+                while ((line = urls.readLine()) != null) {
+                    String url = line.trim();
+                    if (url.isEmpty() || url.startsWith("#")) {
+                        continue;
+                    }
+                    if (pending.size() >= concurrency) {
+                        print(out, await(pending.removeFirst()));
+                    }
+                    pending.addLast(executor.submit(() -> fetch(url)));
+                    submitted++;
+                }
+                while (!pending.isEmpty()) {
+                    print(out, await(pending.removeFirst()));
+                }
+            } else {
+                // Results are printed as soon as each fetch completes
+                Semaphore inFlight = new Semaphore(concurrency);
+                String line;
+                while ((line = urls.readLine()) != null) {
+                    String url = line.trim();
+                    if (url.isEmpty() || url.startsWith("#")) {
+                        continue;
+                    }
+                    inFlight.acquire();
+                    executor.execute(() -> {
+                        try {
+                            print(out, fetch(url));
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    submitted++;
+                }
+                inFlight.acquire(concurrency);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Batch finished: {} URLs in {} ms ({} ok, {} failed, {} bytes), pool: {}",
+                    submitted, elapsedMs, succeeded.get(), failed.get(), totalBytes.get(),
+                    client.describePoolStats());
+    }
+
+    private FetchResult fetch(String url) {
+        long start = System.nanoTime();
+        try {
+            HttpGet httpGet = new HttpGet(url);
+            try (CloseableHttpResponse response = client.execute(httpGet)) {
+                long bytes = drain(response.getEntity());
+                int statusCode = response.getStatusLine().getStatusCode();
+                succeeded.incrementAndGet();
+                totalBytes.addAndGet(bytes);
+                return new FetchResult(url, statusCode, elapsedMs(start), bytes, null);
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            return new FetchResult(url, -1, elapsedMs(start), 0,
+                                   e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private static long drain(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return 0;
+        }
+        long count = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream in = entity.getContent()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                count += read;
+            }
+        }
+        return count;
+    }
+
+    private static FetchResult await(Future<FetchResult> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // fetch() catches its own exceptions, so this only happens on unexpected errors
+            throw new IllegalStateException("Batch worker failed", e.getCause());
+        }
+    }
+
+    private static void print(PrintStream out, FetchResult result) {
+        String line = result.error == null
+            ? String.format("%d\t%d ms\t%d bytes\t%s", result.statusCode, result.elapsedMs, result.bytes, result.url)
+            : String.format("ERR\t%d ms\t%s\t%s", result.elapsedMs, result.url, result.error);
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private ExecutorService createExecutor() {
+        if (virtualThreads) {
+            // Executors.newVirtualThreadPerTaskExecutor() exists on JDK 21+; looked up
+            // reflectively so the application still compiles and runs on Java 8
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                logger.info("Batch workers: virtual threads (max {} in flight)", concurrency);
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads not available on Java {}, falling back to platform threads",
+                            System.getProperty("java.version"));
+            }
+        }
+        logger.info("Batch workers: {} platform threads", concurrency);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(concurrency, threadFactory);
+    }
+
+    private static final class FetchResult {
+        final String url;
+        final int statusCode;
+        final long elapsedMs;
+        final long bytes;
+        final String error;
+
+        FetchResult(String url, int statusCode, long elapsedMs, long bytes, String error) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.elapsedMs = elapsedMs;
+            this.bytes = bytes;
+            this.error = error;
+        }
+    }
+}
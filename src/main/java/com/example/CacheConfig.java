@@ -0,0 +1,70 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * HTTP response cache in front of the proxy: memory and disk tiers and their size bounds
+ */
+@Component
+@ConfigurationProperties(prefix = "app.cache")
+public class CacheConfig {
+    private boolean enabled = false;
+    private long maxMemoryBytes = 64L * 1024 * 1024;
+    private long maxEntryBytes = 8L * 1024 * 1024;
+    private String diskDirectory = "";
+    private long maxDiskBytes = 1024L * 1024 * 1024;
+    private int heuristicPercent = 10;
+
+    public CacheConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public void setMaxMemoryBytes(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public void setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public String getDiskDirectory() {
+        return diskDirectory;
+    }
+
+    public void setDiskDirectory(String diskDirectory) {
+        this.diskDirectory = diskDirectory;
+    }
+
+    public long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    public void setMaxDiskBytes(long maxDiskBytes) {
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public int getHeuristicPercent() {
+        return heuristicPercent;
+    }
+
+    public void setHeuristicPercent(int heuristicPercent) {
+        this.heuristicPercent = heuristicPercent;
+    }
+}
@@ -0,0 +1,260 @@
+package com.example;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process DNS cache plugged into the HttpClient connection managers.
+ *
+ * <p>Positive and negative answers are cached for the configured TTLs (the JDK resolver does not
+ * expose record TTLs, so the TTLs are configured). Entries that were used since they were loaded
+ * are refreshed in the background once {@code refreshAheadFraction} of their TTL has passed, so
+ * hot names never expire on the request path. If a lookup fails while the resolver is unavailable,
+ * the last good answer is served for up to {@code staleTtlSeconds} after expiry, and for the next
+ * {@code negativeTtlSeconds} expired names are answered from their stale entries without waiting
+ * on the resolver again. Past {@code maxEntries}, the least recently used entry makes room.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingDnsResolver.class);
+
+    private static volatile DnsResolver defaultResolver;
+
+    private final DnsResolver delegate;
+    private final DnsConfig config;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Set when a lookup failed and a stale answer was served; until then, stale answers skip the resolver
+    private volatile long resolverDownUntil;
+
+    public CachingDnsResolver(DnsResolver delegate, DnsConfig config) {
+        this.delegate = delegate;
+        this.config = config;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dns-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshAndEvict, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the process-wide resolver: the cache unless {@link #configure(DnsConfig)} disabled it.
+     */
+    public static DnsResolver getDefault() {
+        DnsResolver resolver = defaultResolver;
+        if (resolver == null) {
+            synchronized (CachingDnsResolver.class) {
+                if (defaultResolver == null) {
+                    defaultResolver = new CachingDnsResolver(SystemDefaultDnsResolver.INSTANCE, new DnsConfig());
+                }
+                resolver = defaultResolver;
+            }
+        }
+        return resolver;
+    }
+
+    public static synchronized DnsResolver configure(DnsConfig config) {
+        if (defaultResolver instanceof CachingDnsResolver) {
+            ((CachingDnsResolver) defaultResolver).shutdown();
+        }
+        if (config.isCacheEnabled()) {
+            logger.info("DNS cache enabled: positive ttl={}s, negative ttl={}s, stale ttl={}s",
+                        config.getPositiveTtlSeconds(), config.getNegativeTtlSeconds(), config.getStaleTtlSeconds());
+            defaultResolver = new CachingDnsResolver(SystemDefaultDnsResolver.INSTANCE, config);
+        } else {
+            logger.info("DNS cache disabled, every lookup goes to the system resolver");
+            defaultResolver = SystemDefaultDnsResolver.INSTANCE;
+        }
+        return defaultResolver;
+    }
+
+    /**
+     * Describes the default resolver's cache statistics, or says the cache is disabled.
+     */
+    public static String describeDefaultStats() {
+        DnsResolver resolver = getDefault();
+        return resolver instanceof CachingDnsResolver
+            ? ((CachingDnsResolver) resolver).describeStats()
+            : "cache disabled";
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(host);
+
+        if (entry != null && now < entry.expiresAt) {
+            entry.lastAccess = now;
+            if (entry.failure != null) {
+                negativeHits.increment();
+                throw entry.failure;
+            }
+            hits.increment();
+            return entry.addresses.clone();
+        }
+
+        boolean stale = entry != null && entry.addresses != null && now < entry.staleUntil;
+        if (stale && now < resolverDownUntil) {
+            // The background refresh keeps retrying; requests do not wait for the resolver meanwhile
+            staleServed.increment();
+            entry.lastAccess = now;
+            return entry.addresses.clone();
+        }
+
+        misses.increment();
+        try {
+            InetAddress[] addresses = delegate.resolve(host);
+            resolverDownUntil = 0;
+            store(host, positive(addresses, now));
+            return addresses.clone();
+        } catch (UnknownHostException e) {
+            // Resolver failed: fall back to the last good answer while it is within the stale window
+            if (stale) {
+                staleServed.increment();
+                entry.lastAccess = now;
+                resolverDownUntil = now + TimeUnit.SECONDS.toMillis(config.getNegativeTtlSeconds());
+                logger.warn("DNS lookup for {} failed ({}), serving stale answer", host, e.getMessage());
+                return entry.addresses.clone();
+            }
+            store(host, negative(e, now));
+            throw e;
+        }
+    }
+
+    private void store(String host, Entry entry) {
+        if (cache.size() >= config.getMaxEntries() && !cache.containsKey(host)) {
+            evictLeastRecentlyUsed();
+        }
+        cache.put(host, entry);
+    }
+
+    /**
+     * Scans for the entry with the oldest {@code lastAccess}; only runs when the cache is full.
+     */
+    private void evictLeastRecentlyUsed() {
+        Map.Entry<String, Entry> eldest = null;
+        for (Map.Entry<String, Entry> mapEntry : cache.entrySet()) {
+            if (eldest == null || mapEntry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                eldest = mapEntry;
+            }
+        }
+        if (eldest != null && cache.remove(eldest.getKey(), eldest.getValue())) {
+            evictions.increment();
+        }
+    }
+
+    private Entry positive(InetAddress[] addresses, long now) {
+        long ttl = TimeUnit.SECONDS.toMillis(config.getPositiveTtlSeconds());
+        return new Entry(addresses, null, now,
+                         now + ttl,
+                         now + (long) (ttl * config.getRefreshAheadFraction()),
+                         now + ttl + TimeUnit.SECONDS.toMillis(config.getStaleTtlSeconds()));
+    }
+
+    private Entry negative(UnknownHostException failure, long now) {
+        long ttl = TimeUnit.SECONDS.toMillis(config.getNegativeTtlSeconds());
+        return new Entry(null, failure, now, now + ttl, Long.MAX_VALUE, now + ttl);
+    }
+
+    /**
+     * Refreshes hot positive entries that reached their refresh-ahead point and drops entries
+     * that are past their stale window.
+     */
+    private void refreshAndEvict() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = iterator.next();
+            Entry entry = mapEntry.getValue();
+            if (now >= entry.staleUntil) {
+                iterator.remove();
+            } else if (entry.addresses != null && now >= entry.refreshAt && entry.lastAccess > entry.loadedAt
+                       && entry.refreshing.compareAndSet(false, true)) {
+                refresh(mapEntry.getKey(), entry);
+            }
+        }
+    }
+
+    private void refresh(String host, Entry entry) {
+        try {
+            InetAddress[] addresses = delegate.resolve(host);
+            resolverDownUntil = 0;
+            cache.put(host, positive(addresses, System.currentTimeMillis()));
+            refreshes.increment();
+        } catch (Exception e) {
+            // Keep the current answer; it stays usable until the stale window ends
+            refreshFailures.increment();
+            entry.refreshing.set(false);
+            logger.debug("Background DNS refresh for {} failed: {}", host, e.getMessage());
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public String describeStats() {
+        return "entries=" + cache.size() +
+               ", hits=" + hits.sum() +
+               ", misses=" + misses.sum() +
+               ", negativeHits=" + negativeHits.sum() +
+               ", staleServed=" + staleServed.sum() +
+               ", refreshes=" + refreshes.sum() +
+               ", refreshFailures=" + refreshFailures.sum() +
+               ", evictions=" + evictions.sum();
+    }
+
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final UnknownHostException failure;
+        final long loadedAt;
+        final long expiresAt;
+        final long refreshAt;
+        final long staleUntil;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long lastAccess;
+
+        Entry(InetAddress[] addresses, UnknownHostException failure, long loadedAt,
+              long expiresAt, long refreshAt, long staleUntil) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.loadedAt = loadedAt;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+            this.staleUntil = staleUntil;
+            this.lastAccess = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.example;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client-side limit on the requests in flight through one proxy, adjusted from the latency and
+ * errors it observes, so a shared proxy is driven close to its capacity but not past it.
+ *
+ * <p>Two algorithms are available:
+ * <ul>
+ *   <li>{@code gradient}: compares each response latency with the lowest one seen over the last
+ *       {@code longWindow} samples, taken as the no-load latency. While they agree the limit grows
+ *       by about its square root; once latency rises above {@code rttTolerance} times the no-load
+ *       latency (requests queueing inside the proxy), the limit shrinks in proportion</li>
+ *   <li>{@code aimd}: grows by one per limit's worth of successful requests</li>
+ * </ul>
+ * Both cut the limit by {@code backoffRatio} on a drop: a timeout or I/O error, or a 407, 502, 503
+ * or 504 answer from the proxy. The limit only grows while at least half of it is in use.
+ *
+ * <p>Requests over the limit wait in a FIFO queue for up to {@code queueTimeoutMs}; when
+ * {@code queueSize} requests are already waiting, new ones are rejected at once.
+ */
+final class ConcurrencyLimiter {
+
+    private final String name;
+    private final boolean gradient;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double rttTolerance;
+    private final double smoothing;
+    private final int longWindow;
+    private final int queueSize;
+    private final long queueTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long noLoadRttNanos;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private long samples;
+    private long accepted;
+    private long queued;
+    private long rejected;
+    private long queueTimeouts;
+    private long drops;
+
+    ConcurrencyLimiter(String name, ProxyLimitConfig config) {
+        this.name = name;
+        this.gradient = !"aimd".equalsIgnoreCase(config.getAlgorithm());
+        this.minLimit = Math.max(1, config.getMinLimit());
+        this.maxLimit = Math.max(minLimit, config.getMaxLimit());
+        this.backoffRatio = config.getBackoffRatio();
+        this.rttTolerance = config.getRttTolerance();
+        this.smoothing = config.getSmoothing();
+        this.longWindow = Math.max(1, config.getLongWindow());
+        this.queueSize = Math.max(0, config.getQueueSize());
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getQueueTimeoutMs());
+        this.limit = Math.min(maxLimit, Math.max(minLimit, config.getInitialLimit()));
+    }
+
+    /**
+     * Publishes the current limit and in-flight count as gauges tagged with the proxy.
+     */
+    void bindTo(MeterRegistry registry) {
+        Gauge.builder("proxy.client.concurrency.limit", this, ConcurrencyLimiter::getLimit)
+            .description("Adaptive limit on requests in flight through the proxy")
+            .tag("proxy", name)
+            .register(registry);
+        Gauge.builder("proxy.client.concurrency.inflight", this, ConcurrencyLimiter::getInFlight)
+            .description("Requests in flight through the proxy")
+            .tag("proxy", name)
+            .register(registry);
+        Gauge.builder("proxy.client.concurrency.queued", this, ConcurrencyLimiter::getWaiting)
+            .description("Requests waiting for the concurrency limit")
+            .tag("proxy", name)
+            .register(registry);
+    }
+
+    /**
+     * Waits for a slot under the limit.
+     *
+     * @throws LimitExceededException when the queue is full or the wait times out
+     */
+    Permit acquire() throws IOException {
+        lock.lock();
+        try {
+            // Newcomers do not overtake requests already queued
+            if (waiting == 0 && inFlight < (int) limit) {
+                return grant();
+            }
+            if (waiting >= queueSize) {
+                rejected++;
+                throw new LimitExceededException("Concurrency limit for " + name + " reached and "
+                                                 + waiting + " requests queued (" + describeLocked() + ")");
+            }
+            queued++;
+            waiting++;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        queueTimeouts++;
+                        throw new LimitExceededException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(queueTimeoutNanos)
+                                                         + " ms waiting for the concurrency limit of " + name);
+                    }
+                    remaining = permitAvailable.awaitNanos(remaining);
+                }
+            } finally {
+                waiting--;
+            }
+            return grant();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the concurrency limit of " + name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit grant() {
+        inFlight++;
+        accepted++;
+        return new Permit(inFlight);
+    }
+
+    private void onSample(long rttNanos, int inFlightAtStart) {
+        lock.lock();
+        try {
+            int before = (int) limit;
+            if (gradient) {
+                long rtt = Math.max(1, rttNanos);
+                noLoadRttNanos = noLoadRttNanos == 0 ? rtt : Math.min(noLoadRttNanos, rtt);
+                windowMinRttNanos = Math.min(windowMinRttNanos, rtt);
+                // Start over from the last window's minimum, so a route that got slower for good is followed
+                if (++samples % longWindow == 0) {
+                    noLoadRttNanos = windowMinRttNanos;
+                    windowMinRttNanos = Long.MAX_VALUE;
+                }
+                if (inFlightAtStart < limit / 2) {
+                    return;
+                }
+                double ratio = Math.max(0.5, Math.min(1.0, rttTolerance * noLoadRttNanos / rtt));
+                double target = limit * ratio + Math.sqrt(limit);
+                limit = clamp(limit * (1 - smoothing) + target * smoothing);
+            } else {
+                if (inFlightAtStart < limit / 2) {
+                    return;
+                }
+                limit = clamp(limit + 1.0 / limit);
+            }
+            if ((int) limit > before) {
+                permitAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onDrop() {
+        lock.lock();
+        try {
+            drops++;
+            limit = clamp(limit * backoffRatio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.min(maxLimit, Math.max(minLimit, value));
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String describeStats() {
+        lock.lock();
+        try {
+            return describeLocked() + ", accepted=" + accepted + ", queued=" + queued + ", rejected=" + rejected
+                   + ", queue timeouts=" + queueTimeouts + ", drops=" + drops;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String describeLocked() {
+        String state = String.format(Locale.ROOT, "%s limit=%d, in flight=%d, waiting=%d",
+                                     gradient ? "gradient" : "aimd", (int) limit, inFlight, waiting);
+        return gradient ? state + String.format(Locale.ROOT, ", no-load rtt=%.1fms", noLoadRttNanos / 1e6) : state;
+    }
+
+    /**
+     * One slot under the limit. The outcome is reported once the response head is in, and the slot
+     * is held until {@link #release()}, when the response is closed.
+     */
+    final class Permit {
+        private final int inFlightAtStart;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        void success(long rttNanos) {
+            onSample(rttNanos, inFlightAtStart);
+        }
+
+        void dropped() {
+            onDrop();
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release();
+            }
+        }
+    }
+
+    /**
+     * The request was not sent: the queue was full or the wait for a slot timed out.
+     */
+    static final class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+}
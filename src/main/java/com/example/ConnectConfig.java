@@ -0,0 +1,61 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Connection racing across the resolved addresses of a host (Happy Eyeballs, RFC 8305)
+ */
+@Component
+@ConfigurationProperties(prefix = "app.connect")
+public class ConnectConfig {
+    private boolean racingEnabled = true;
+    private int attemptDelayMs = 250;
+    private boolean ipv4Only = true;
+    private boolean preferIpv6 = true;
+    private int failurePenaltySeconds = 60;
+
+    public ConnectConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public boolean isRacingEnabled() {
+        return racingEnabled;
+    }
+
+    public void setRacingEnabled(boolean racingEnabled) {
+        this.racingEnabled = racingEnabled;
+    }
+
+    public int getAttemptDelayMs() {
+        return attemptDelayMs;
+    }
+
+    public void setAttemptDelayMs(int attemptDelayMs) {
+        this.attemptDelayMs = attemptDelayMs;
+    }
+
+    public boolean isIpv4Only() {
+        return ipv4Only;
+    }
+
+    public void setIpv4Only(boolean ipv4Only) {
+        this.ipv4Only = ipv4Only;
+    }
+
+    public boolean isPreferIpv6() {
+        return preferIpv6;
+    }
+
+    public void setPreferIpv6(boolean preferIpv6) {
+        this.preferIpv6 = preferIpv6;
+    }
+
+    public int getFailurePenaltySeconds() {
+        return failurePenaltySeconds;
+    }
+
+    public void setFailurePenaltySeconds(int failurePenaltySeconds) {
+        this.failurePenaltySeconds = failurePenaltySeconds;
+    }
+}
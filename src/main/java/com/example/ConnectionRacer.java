@@ -0,0 +1,426 @@
+package com.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Happy Eyeballs (RFC 8305) connection establishment across all resolved addresses of a host.
+ *
+ * <p>Addresses are interleaved by family (IPv6 first with {@code app.connect.prefer-ipv6}) and
+ * reordered by what earlier connects taught: addresses that failed within
+ * {@code failure-penalty-seconds} go last, and addresses much slower than the fastest one go after
+ * the healthy ones. The first attempt starts at once, each further one after
+ * {@code attempt-delay-ms} or as soon as the previous attempt fails. The first connected socket
+ * wins and the other attempts are closed, so one blackholed address of a multi-homed proxy costs
+ * one attempt delay instead of the whole connect timeout.
+ */
+final class ConnectionRacer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionRacer.class);
+
+    private static volatile ConnectionRacer defaultRacer;
+
+    // An address is slow when its smoothed connect time is this many times that of the fastest
+    private static final double SLOW_FACTOR = 4.0;
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Creates and connects the sockets raced against each other.
+     */
+    interface Connector {
+        Socket createSocket() throws IOException;
+
+        /**
+         * Connects {@code socket}; may return a socket layered over it.
+         */
+        Socket connect(Socket socket, InetSocketAddress remote, int timeoutMs) throws IOException;
+    }
+
+    /** Plain unconnected sockets, for the diagnostic probes */
+    static final Connector PLAIN = new Connector() {
+        @Override
+        public Socket createSocket() {
+            return new Socket();
+        }
+
+        @Override
+        public Socket connect(Socket socket, InetSocketAddress remote, int timeoutMs) throws IOException {
+            socket.connect(remote, timeoutMs);
+            return socket;
+        }
+    };
+
+    private final boolean enabled;
+    private final long attemptDelayNanos;
+    private final boolean preferIpv6;
+    private final long penaltyMillis;
+    private final ExecutorService executor;
+    private final ConcurrentMap<InetAddress, AddressHistory> history = new ConcurrentHashMap<>();
+    private final LongAdder races = new LongAdder();
+    private final LongAdder fallbackWins = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder abandonedAttempts = new LongAdder();
+
+    ConnectionRacer(ConnectConfig config) {
+        this.enabled = config.isRacingEnabled();
+        this.attemptDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, config.getAttemptDelayMs()));
+        this.preferIpv6 = config.isPreferIpv6();
+        this.penaltyMillis = TimeUnit.SECONDS.toMillis(config.getFailurePenaltySeconds());
+        AtomicInteger threadIds = new AtomicInteger();
+        // Unbounded: every attempt blocks a thread until it connects, fails or is closed
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "connect-race-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the process-wide racer, with default settings until {@link #configure(ConnectConfig)}.
+     */
+    static ConnectionRacer getDefault() {
+        ConnectionRacer racer = defaultRacer;
+        if (racer == null) {
+            synchronized (ConnectionRacer.class) {
+                if (defaultRacer == null) {
+                    defaultRacer = new ConnectionRacer(new ConnectConfig());
+                }
+                racer = defaultRacer;
+            }
+        }
+        return racer;
+    }
+
+    static synchronized ConnectionRacer configure(ConnectConfig config) {
+        if (defaultRacer != null) {
+            defaultRacer.executor.shutdown();
+        }
+        defaultRacer = new ConnectionRacer(config);
+        logger.info("Connection racing {}: attempt delay {} ms, {}, failed addresses avoided for {} s",
+                    config.isRacingEnabled() ? "enabled" : "disabled", config.getAttemptDelayMs(),
+                    config.isIpv4Only() ? "IPv4 only" : config.isPreferIpv6() ? "IPv6 first" : "IPv4 first",
+                    config.getFailurePenaltySeconds());
+        return defaultRacer;
+    }
+
+    /**
+     * The order connects are attempted in: families interleaved, then healthy, slow and recently
+     * failed addresses in that order.
+     */
+    InetAddress[] order(InetAddress[] addresses) {
+        if (addresses.length < 2) {
+            return addresses;
+        }
+        Deque<InetAddress> v6 = new ArrayDeque<>();
+        Deque<InetAddress> v4 = new ArrayDeque<>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address ? v6 : v4).add(address);
+        }
+        Deque<InetAddress> first = preferIpv6 && !v6.isEmpty() || v4.isEmpty() ? v6 : v4;
+        Deque<InetAddress> second = first == v6 ? v4 : v6;
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        while (!first.isEmpty() || !second.isEmpty()) {
+            if (!first.isEmpty()) {
+                ordered.add(first.poll());
+            }
+            if (!second.isEmpty()) {
+                ordered.add(second.poll());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        double fastest = Double.MAX_VALUE;
+        for (InetAddress address : ordered) {
+            AddressHistory known = history.get(address);
+            if (known != null && known.smoothedMillis > 0) {
+                fastest = Math.min(fastest, known.smoothedMillis);
+            }
+        }
+        double slowThreshold = Math.max(fastest * SLOW_FACTOR, TimeUnit.NANOSECONDS.toMillis(attemptDelayNanos));
+        // Stable: the family interleaving is kept within each rank
+        ordered.sort(Comparator.comparingInt(address -> rank(history.get(address), now, slowThreshold)));
+        return ordered.toArray(new InetAddress[0]);
+    }
+
+    private int rank(AddressHistory known, long now, double slowThreshold) {
+        if (known == null) {
+            return 0;
+        }
+        if (known.lastFailureMillis > 0 && now - known.lastFailureMillis < penaltyMillis) {
+            return 2;
+        }
+        return known.smoothedMillis > slowThreshold ? 1 : 0;
+    }
+
+    /**
+     * Connects to {@code port} on one of {@code addresses}, racing them when there are several.
+     *
+     * @param timeoutMs overall connect timeout, 0 for none
+     */
+    Socket connect(String host, InetAddress[] addresses, int port, int timeoutMs, Connector connector)
+            throws IOException {
+        InetAddress[] ordered = order(addresses);
+        if (!enabled || ordered.length < 2) {
+            return connectInTurn(ordered, port, timeoutMs, connector);
+        }
+        races.increment();
+        long deadline = timeoutMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE;
+        CompletionService<Socket> completion = new ExecutorCompletionService<>(executor);
+        List<Attempt> attempts = new ArrayList<>(ordered.length);
+        IOException failure = null;
+        int pending = 0;
+        try {
+            while (true) {
+                if (pending == 0 && attempts.size() < ordered.length) {
+                    attempts.add(start(ordered[attempts.size()], port, deadline, connector, completion));
+                    pending++;
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+                long now = System.nanoTime();
+                long wait = timeoutMs > 0 ? deadline - now : Long.MAX_VALUE;
+                if (attempts.size() < ordered.length) {
+                    wait = Math.min(wait, attempts.get(attempts.size() - 1).startNanos + attemptDelayNanos - now);
+                }
+                Future<Socket> done = completion.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (timeoutMs > 0 && System.nanoTime() - deadline >= 0) {
+                        for (Attempt attempt : attempts) {
+                            if (!attempt.finished) {
+                                recordFailure(attempt.address);
+                            }
+                        }
+                        throw new SocketTimeoutException("Connect to " + host + ":" + port + " timed out after "
+                                                         + timeoutMs + " ms on " + Arrays.toString(ordered));
+                    }
+                    // Attempt delay passed without an answer: start the next address alongside
+                    attempts.add(start(ordered[attempts.size()], port, deadline, connector, completion));
+                    pending++;
+                    continue;
+                }
+                pending--;
+                Attempt attempt = find(attempts, done);
+                attempt.finished = true;
+                try {
+                    Socket socket = done.get();
+                    attempt.connectedNanos = System.nanoTime() - attempt.startNanos;
+                    recordSuccess(attempt.address, attempt.connectedNanos);
+                    if (attempt != attempts.get(0)) {
+                        fallbackWins.increment();
+                        logger.debug("Connected to {} via {} after {} earlier attempt(s)", host, attempt.address,
+                                     attempts.indexOf(attempt));
+                    }
+                    return socket;
+                } catch (ExecutionException e) {
+                    failedAttempts.increment();
+                    recordFailure(attempt.address);
+                    IOException cause = e.getCause() instanceof IOException
+                        ? (IOException) e.getCause() : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + host + ":" + port);
+        } finally {
+            abandon(attempts);
+        }
+    }
+
+    private Attempt start(InetAddress address, int port, long deadline, Connector connector,
+                          CompletionService<Socket> completion) {
+        Attempt attempt = new Attempt(address);
+        long remaining = deadline == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        int timeoutMs = deadline == Long.MAX_VALUE ? 0 : (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+        attempt.future = completion.submit(() -> {
+            Socket socket = connector.createSocket();
+            attempt.socket = socket;
+            if (attempt.abandoned) {
+                socket.close();
+                throw new IOException("Connect to " + address + " abandoned");
+            }
+            Socket connected = connector.connect(socket, new InetSocketAddress(address, port), timeoutMs);
+            synchronized (attempt) {
+                if (attempt.abandoned) {
+                    // Lost the race after all; nobody will pick this socket up
+                    connected.close();
+                }
+            }
+            return connected;
+        });
+        return attempt;
+    }
+
+    /**
+     * Closes the attempts that did not win. One still trying after longer than the winner took is
+     * recorded with that time as a lower bound, so a blackholed address sinks in the order even
+     * though it never fails outright.
+     */
+    private void abandon(List<Attempt> attempts) {
+        long winnerNanos = -1;
+        for (Attempt attempt : attempts) {
+            if (attempt.finished && attempt.connectedNanos > 0) {
+                winnerNanos = attempt.connectedNanos;
+            }
+        }
+        long now = System.nanoTime();
+        for (Attempt attempt : attempts) {
+            if (attempt.finished) {
+                continue;
+            }
+            synchronized (attempt) {
+                attempt.abandoned = true;
+            }
+            abandonedAttempts.increment();
+            if (attempt.future.isDone()) {
+                try {
+                    attempt.future.get().close();
+                } catch (ExecutionException e) {
+                    recordFailure(attempt.address);
+                } catch (Exception e) {
+                    // Already closed
+                }
+                continue;
+            }
+            Socket socket = attempt.socket;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+            }
+            long elapsed = now - attempt.startNanos;
+            if (winnerNanos > 0 && elapsed > winnerNanos) {
+                recordSample(attempt.address, elapsed);
+            }
+        }
+    }
+
+    private Socket connectInTurn(InetAddress[] addresses, int port, int timeoutMs, Connector connector)
+            throws IOException {
+        IOException failure = null;
+        for (InetAddress address : addresses) {
+            Socket socket = connector.createSocket();
+            long start = System.nanoTime();
+            try {
+                Socket connected = connector.connect(socket, new InetSocketAddress(address, port), timeoutMs);
+                recordSuccess(address, System.nanoTime() - start);
+                return connected;
+            } catch (IOException e) {
+                socket.close();
+                failedAttempts.increment();
+                recordFailure(address);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure != null ? failure : new IOException("No address to connect to");
+    }
+
+    private static Attempt find(List<Attempt> attempts, Future<Socket> future) {
+        for (Attempt attempt : attempts) {
+            if (attempt.future == future) {
+                return attempt;
+            }
+        }
+        throw new IllegalStateException("Unknown connect attempt");
+    }
+
+    private void recordSuccess(InetAddress address, long nanos) {
+        AddressHistory known = history.computeIfAbsent(address, a -> new AddressHistory());
+        synchronized (known) {
+            known.lastFailureMillis = 0;
+            known.sample(nanos);
+        }
+    }
+
+    private void recordSample(InetAddress address, long nanos) {
+        AddressHistory known = history.computeIfAbsent(address, a -> new AddressHistory());
+        synchronized (known) {
+            known.sample(nanos);
+        }
+    }
+
+    private void recordFailure(InetAddress address) {
+        AddressHistory known = history.computeIfAbsent(address, a -> new AddressHistory());
+        synchronized (known) {
+            known.failures++;
+            known.lastFailureMillis = System.currentTimeMillis();
+        }
+    }
+
+    String describeStats() {
+        long now = System.currentTimeMillis();
+        int avoided = 0;
+        for (AddressHistory known : history.values()) {
+            if (known.lastFailureMillis > 0 && now - known.lastFailureMillis < penaltyMillis) {
+                avoided++;
+            }
+        }
+        return "races=" + races.sum() +
+               ", won by a later address=" + fallbackWins.sum() +
+               ", failed attempts=" + failedAttempts.sum() +
+               ", abandoned attempts=" + abandonedAttempts.sum() +
+               ", addresses known=" + history.size() +
+               ", avoided=" + avoided;
+    }
+
+    private static final class Attempt {
+        final InetAddress address;
+        final long startNanos = System.nanoTime();
+        Future<Socket> future;
+        volatile Socket socket;
+        volatile boolean abandoned;
+        boolean finished;
+        long connectedNanos;
+
+        Attempt(InetAddress address) {
+            this.address = address;
+        }
+    }
+
+    private static final class AddressHistory {
+        double smoothedMillis;
+        long failures;
+        long lastFailureMillis;
+
+        void sample(long nanos) {
+            double millis = nanos / 1e6;
+            smoothedMillis = smoothedMillis == 0 ? millis : smoothedMillis * (1 - SMOOTHING) + millis * SMOOTHING;
+        }
+    }
+}
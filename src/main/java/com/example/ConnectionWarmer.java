@@ -0,0 +1,291 @@
+package com.example;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthState;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.RequestClientConnControl;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.auth.BasicSchemeFactory;
+import org.apache.http.impl.auth.DigestSchemeFactory;
+import org.apache.http.impl.auth.HttpAuthenticator;
+import org.apache.http.impl.auth.NTLMSchemeFactory;
+import org.apache.http.impl.client.ProxyAuthenticationStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.protocol.ImmutableHttpProcessor;
+import org.apache.http.protocol.RequestTargetHost;
+import org.apache.http.protocol.RequestUserAgent;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens connections to configured targets ahead of the workload and parks them in the client's pool.
+ *
+ * <p>Each connection goes through the same steps the client would take on a first request: TCP
+ * connect to the proxy, the NTLM legs, and for https targets the CONNECT tunnel and TLS handshake.
+ * Plain http targets are authenticated with a HEAD request for the target's root. A round leases
+ * all {@code poolSize} connections of a route at once, so every lease gets its own connection, and
+ * releases them as reusable once the last one is ready. In the background, routes with nothing in
+ * use and fewer than {@code poolSize} pooled connections (after idle eviction or expiry) are
+ * topped up the same way. All rounds together stay within the pool's {@code max-total}, because a
+ * lease beyond it would wait for a connection that no round gives back.
+ */
+final class ConnectionWarmer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+    private static final int MAX_AUTH_ROUNDS = 5;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CredentialsProvider credentialsProvider;
+    private final RequestConfig requestConfig;
+    private final HttpRequestExecutor requestExecutor;
+    private final HttpProcessor proxyProcessor;
+    private final Lookup<AuthSchemeProvider> authSchemes = RegistryBuilder.<AuthSchemeProvider>create()
+        .register(AuthSchemes.NTLM, new NTLMSchemeFactory())
+        .register(AuthSchemes.BASIC, new BasicSchemeFactory())
+        .register(AuthSchemes.DIGEST, new DigestSchemeFactory())
+        .build();
+    private final HttpAuthenticator authenticator = new HttpAuthenticator();
+    private final List<HttpRoute> routes = new ArrayList<>();
+    private final int poolSize;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService topUp;
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    ConnectionWarmer(PoolingHttpClientConnectionManager connectionManager, CredentialsProvider credentialsProvider,
+                     RequestConfig requestConfig, HttpRequestExecutor requestExecutor, String userAgent,
+                     List<HttpHost> proxies, List<HttpHost> targets, int poolSize) {
+        this.connectionManager = connectionManager;
+        this.credentialsProvider = credentialsProvider;
+        this.requestConfig = requestConfig;
+        this.requestExecutor = requestExecutor;
+        this.proxyProcessor = new ImmutableHttpProcessor(
+            new RequestTargetHost(), new RequestClientConnControl(), new RequestUserAgent(userAgent));
+        for (HttpHost proxy : proxies) {
+            for (HttpHost target : targets) {
+                routes.add(new HttpRoute(target, null, proxy, "https".equalsIgnoreCase(target.getSchemeName())));
+            }
+        }
+        int maxTotal = connectionManager.getMaxTotal();
+        if (routes.size() > maxTotal) {
+            List<HttpRoute> skipped = new ArrayList<>(routes.subList(maxTotal, routes.size()));
+            routes.subList(maxTotal, routes.size()).clear();
+            logger.warn("{} warm routes exceed app.http.max-total {}, not warming {}",
+                        routes.size() + skipped.size(), maxTotal, skipped);
+        }
+        int fitting = routes.isEmpty() ? poolSize : Math.min(poolSize, maxTotal / routes.size());
+        if (fitting < poolSize) {
+            logger.warn("Warm pool size {} for {} routes exceeds app.http.max-total {}, warming {} per route",
+                        poolSize, routes.size(), maxTotal, fitting);
+        }
+        this.poolSize = fitting;
+
+        AtomicInteger threadIds = new AtomicInteger();
+        // Unbounded: every lease of a round must be held at the same time
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "pool-warmer-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.topUp = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-top-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Brings every route up to {@code poolSize} pooled connections, in parallel, and waits for it.
+     *
+     * @return the number of connections opened
+     */
+    int warm() {
+        long before = opened.sum();
+        List<Future<?>> rounds = new ArrayList<>();
+        for (HttpRoute route : routes) {
+            rounds.addAll(submitRound(route));
+        }
+        for (Future<?> round : rounds) {
+            try {
+                round.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // Counted and logged by the task
+            }
+        }
+        return (int) (opened.sum() - before);
+    }
+
+    void startTopUp(int intervalSeconds) {
+        topUp.scheduleWithFixedDelay(() -> {
+            for (HttpRoute route : routes) {
+                PoolStats stats = connectionManager.getStats(route);
+                // A route in use is warm; leasing all of its connections would only hold up requests
+                if (stats.getLeased() == 0 && stats.getAvailable() < poolSize) {
+                    logger.debug("Topping up {} ({} of {} pooled)", route, stats.getAvailable(), poolSize);
+                    submitRound(route);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private List<Future<?>> submitRound(HttpRoute route) {
+        CountDownLatch allLeased = new CountDownLatch(poolSize);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < poolSize; i++) {
+            tasks.add(workers.submit(() -> {
+                prepare(route, allLeased);
+                return null;
+            }));
+        }
+        return tasks;
+    }
+
+    private void prepare(HttpRoute route, CountDownLatch allLeased) throws Exception {
+        long timeoutMs = Math.max(1, requestConfig.getConnectionRequestTimeout());
+        HttpClientConnection connection;
+        try {
+            ConnectionRequest request = connectionManager.requestConnection(route, null);
+            connection = request.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            allLeased.countDown();
+        }
+        try {
+            // Hold the lease until the whole round has one, so no two tasks share a connection
+            allLeased.await(timeoutMs, TimeUnit.MILLISECONDS);
+            if (!connection.isOpen()) {
+                establish(connection, route);
+                opened.increment();
+            }
+        } catch (IOException | HttpException | RuntimeException e) {
+            failed.increment();
+            logger.warn("Could not pre-warm a connection for {}: {}", route, e.getMessage());
+            connection.shutdown();
+            throw e;
+        } finally {
+            // Kept until the pool's time to live; a connection whose route was not completed is closed
+            connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void establish(HttpClientConnection connection, HttpRoute route) throws IOException, HttpException {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCredentialsProvider(credentialsProvider);
+        context.setAuthSchemeRegistry(authSchemes);
+        context.setRequestConfig(requestConfig);
+        context.setAttribute(HttpClientContext.HTTP_ROUTE, route);
+        context.setTargetHost(route.getTargetHost());
+
+        connectionManager.connect(connection, route, Math.max(0, requestConfig.getConnectTimeout()), context);
+        connection.setSocketTimeout(Math.max(0, requestConfig.getSocketTimeout()));
+        if (route.isTunnelled()) {
+            HttpRequest connect = new BasicHttpRequest("CONNECT", route.getTargetHost().toHostString(),
+                                                       HttpVersion.HTTP_1_1);
+            HttpResponse response = exchangeWithProxy(connection, route, connect, context);
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status > 299) {
+                throw new HttpException("CONNECT refused by the proxy: " + response.getStatusLine());
+            }
+            // TLS handshake with the target through the tunnel
+            connectionManager.upgrade(connection, route, context);
+        } else {
+            HttpRequest head = new BasicHttpRequest("HEAD", route.getTargetHost().toURI() + "/", HttpVersion.HTTP_1_1);
+            HttpResponse response = exchangeWithProxy(connection, route, head, context);
+            if (!DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context)) {
+                throw new HttpException("Proxy closes the connection after " + response.getStatusLine());
+            }
+        }
+        connectionManager.routeComplete(connection, route, context);
+    }
+
+    /**
+     * Sends a request to the proxy, answering its authentication challenges on the same connection
+     * like the client does for a tunnel.
+     */
+    private HttpResponse exchangeWithProxy(HttpClientConnection connection, HttpRoute route, HttpRequest request,
+                                           HttpClientContext context) throws IOException, HttpException {
+        HttpHost proxy = route.getProxyHost();
+        AuthState proxyAuthState = new AuthState();
+        context.setAttribute(HttpClientContext.PROXY_AUTH_STATE, proxyAuthState);
+        context.setAttribute(HttpClientContext.HTTP_REQUEST, request);
+        requestExecutor.preProcess(request, proxyProcessor, context);
+
+        for (int round = 0; round < MAX_AUTH_ROUNDS; round++) {
+            if (!connection.isOpen()) {
+                connectionManager.connect(connection, route, Math.max(0, requestConfig.getConnectTimeout()), context);
+            }
+            request.removeHeaders(AUTH.PROXY_AUTH_RESP);
+            authenticator.generateAuthResponse(request, proxyAuthState, context);
+            HttpResponse response = requestExecutor.execute(request, connection, context);
+            requestExecutor.postProcess(response, proxyProcessor, context);
+
+            if (authenticator.isAuthenticationRequested(proxy, response, ProxyAuthenticationStrategy.INSTANCE,
+                                                        proxyAuthState, context)
+                && authenticator.handleAuthChallenge(proxy, response, ProxyAuthenticationStrategy.INSTANCE,
+                                                     proxyAuthState, context)) {
+                if (DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context)) {
+                    EntityUtils.consume(response.getEntity());
+                } else {
+                    connection.close();
+                }
+                continue;
+            }
+            return response;
+        }
+        throw new HttpException("Proxy authentication with " + proxy + " did not complete");
+    }
+
+    String describeStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("opened=").append(opened.sum()).append(", failed=").append(failed.sum());
+        for (HttpRoute route : routes) {
+            PoolStats stats = connectionManager.getStats(route);
+            sb.append(", ").append(route.getTargetHost().toHostString())
+              .append(" via ").append(route.getProxyHost().toHostString())
+              .append(" pooled=").append(stats.getAvailable()).append('/').append(poolSize);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        topUp.shutdownNow();
+        workers.shutdownNow();
+    }
+}
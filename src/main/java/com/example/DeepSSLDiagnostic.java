@@ -2,9 +2,9 @@ package com.example;
 
 import javax.net.ssl.*;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.security.KeyStore;
-import java.security.cert.X509Certificate;
 import java.util.Arrays;
 
 /**
@@ -12,6 +12,8 @@ import java.util.Arrays;
  */
 public class DeepSSLDiagnostic {
 
+    static final String[] TRUST_STORE_TYPES = {"Windows-ROOT", "Windows-MY", "JKS"};
+
     public static void main(String[] args) {
         System.out.println("=== Deep SSL Diagnostic ===\n");
         
@@ -19,36 +21,21 @@ public class DeepSSLDiagnostic {
         testWithSystemKeystore();
         testRawSSLConnection();
         testJavaVMFlags();
+        
+        System.out.println("TLS handshakes: " + SslContextFactory.getDefault().describeStats());
     }
     
     private static void analyzeSystemCertificates() {
         System.out.println("1. System Certificate Analysis:");
         
         try {
-            // Check default truststore
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init((KeyStore) null);
+            // Check default truststore, indexed once and shared with the SSL contexts
+            TrustAnchorIndex index = TrustAnchorIndex.getDefault();
+            System.out.println("   Default truststore has " + index.getAnchors().size() + " certificates");
             
-            for (TrustManager tm : tmf.getTrustManagers()) {
-                if (tm instanceof X509TrustManager) {
-                    X509TrustManager x509tm = (X509TrustManager) tm;
-                    X509Certificate[] certs = x509tm.getAcceptedIssuers();
-                    System.out.println("   Default truststore has " + certs.length + " certificates");
-                    
-                    // Look for corporate certificates
-                    int corporateCerts = 0;
-                    for (X509Certificate cert : certs) {
-                        String issuer = cert.getIssuerDN().getName();
-                        if (issuer.toLowerCase().contains("corporate") || 
-                            issuer.toLowerCase().contains("company") ||
-                            issuer.toLowerCase().contains("enterprise")) {
-                            corporateCerts++;
-                        }
-                    }
-                    System.out.println("   Potential corporate certificates: " + corporateCerts);
-                    break;
-                }
-            }
+            // Look for corporate certificates
+            int corporateCerts = index.countIssuersContaining("corporate", "company", "enterprise");
+            System.out.println("   Potential corporate certificates: " + corporateCerts);
         } catch (Exception e) {
             System.out.println("   Error analyzing certificates: " + e.getMessage());
         }
@@ -59,25 +46,36 @@ public class DeepSSLDiagnostic {
         System.out.println("2. Testing with Windows System Keystore:");
         
         // Test with Windows-ROOT truststore
-        String[] trustStoreTypes = {"Windows-ROOT", "Windows-MY", "JKS"};
-        
-        for (String storeType : trustStoreTypes) {
-            try {
-                System.setProperty("javax.net.ssl.trustStoreType", storeType);
-                
-                SSLContext context = SSLContext.getInstance("TLSv1.2");
-                context.init(null, null, null);
-                
-                testQuickConnection("jsonplaceholder.typicode.com", 443, context);
+        for (String storeType : TRUST_STORE_TYPES) {
+            ProbeResult result = probeSystemKeystore(storeType, "jsonplaceholder.typicode.com", null, 443, 5000, 10000);
+            if (result.isOk()) {
                 System.out.println("   SUCCESS with " + storeType + " truststore");
-                
-            } catch (Exception e) {
-                System.out.println("   FAILED with " + storeType + ": " + e.getMessage());
+            } else {
+                System.out.println("   FAILED with " + storeType + ": " + result.getError());
             }
         }
         System.out.println();
     }
     
+    /**
+     * Handshakes with a host trusting only the given store type. The trust managers come from the
+     * store's index instead of setting javax.net.ssl.trustStoreType, so probes can run concurrently.
+     */
+    static ProbeResult probeSystemKeystore(String storeType, String hostname, InetAddress address, int port,
+                                           int connectTimeoutMs, int handshakeTimeoutMs) {
+        ProbeResult result = new ProbeResult("truststore", hostname + ":" + port, storeType);
+        long start = System.nanoTime();
+        try {
+            SSLContext context = SSLContext.getInstance("TLSv1.2");
+            context.init(null, TrustAnchorIndex.forStoreType(storeType).getTrustManagers(), null);
+            
+            testQuickConnection(hostname, address, port, context, connectTimeoutMs, handshakeTimeoutMs);
+            return result.ok("handshake trusted", start);
+        } catch (Exception e) {
+            return result.failed(e, start);
+        }
+    }
+    
     private static void testRawSSLConnection() {
         System.out.println("3. Raw SSL Connection Test:");
         
@@ -94,47 +92,76 @@ public class DeepSSLDiagnostic {
     }
     
     private static void testRawSSL(String hostname, int port, String protocol) {
-        try {
-            // Create socket with explicit protocol
-            SSLContext context = SSLContext.getInstance(protocol);
-            context.init(null, null, null);
-            
-            SSLSocketFactory factory = context.getSocketFactory();
-            
-            // Create regular socket first
-            Socket socket = new Socket();
-            socket.connect(new java.net.InetSocketAddress(hostname, port), 10000);
-            
-            // Wrap with SSL
-            SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, hostname, port, true);
-            sslSocket.setEnabledProtocols(new String[]{protocol});
-            
-            // Try handshake with timeout
-            sslSocket.setSoTimeout(30000);
-            sslSocket.startHandshake();
-            
-            SSLSession session = sslSocket.getSession();
-            System.out.println("     " + protocol + ": SUCCESS - " + session.getCipherSuite());
+        ProbeResult result = probeRawSSL(hostname, null, port, protocol, 10000, 30000);
+        if (result.isOk()) {
+            System.out.println("     " + protocol + ": SUCCESS - " + result.getDetail());
+        } else {
+            System.out.println("     " + protocol + ": FAILED - " + result.getError());
+            if (result.getError() != null && result.getError().contains("certificate")) {
+                System.out.println("       ^ Certificate issue detected");
+            }
+        }
+    }
+    
+    /**
+     * Handshakes with one protocol version over a new connection to an already resolved address
+     * (or to the host name when address is null).
+     */
+    static ProbeResult probeRawSSL(String hostname, InetAddress address, int port, String protocol,
+                                   int connectTimeoutMs, int handshakeTimeoutMs) {
+        return probeRawSSL(hostname, address, port, protocol, connectTimeoutMs, handshakeTimeoutMs, true);
+    }
+
+    /**
+     * @param resumable false to always run a full handshake, which validates the certificate chain
+     *                  again; repeated monitoring checks would otherwise resume the first session
+     */
+    static ProbeResult probeRawSSL(String hostname, InetAddress address, int port, String protocol,
+                                   int connectTimeoutMs, int handshakeTimeoutMs, boolean resumable) {
+        ProbeResult result = new ProbeResult("tls", hostname + ":" + port, protocol);
+        long start = System.nanoTime();
+        // Closed on every path: watch mode probes the same endpoints for days
+        try (Socket socket = new Socket()) {
+            // Shared context per protocol so the session cache survives between probes
+            SslContextFactory sslContextFactory = SslContextFactory.getDefault();
             
-            sslSocket.close();
+            // Connect the regular socket first
+            socket.connect(address != null ? new InetSocketAddress(address, port) : new InetSocketAddress(hostname, port),
+                           connectTimeoutMs);
             
-        } catch (Exception e) {
-            System.out.println("     " + protocol + ": FAILED - " + e.getMessage());
-            if (e.getMessage() != null && e.getMessage().contains("certificate")) {
-                System.out.println("       ^ Certificate issue detected");
+            // Wrap with SSL; closing the SSL socket also closes the plain one, on failure too
+            try (SSLSocket sslSocket = resumable
+                     ? sslContextFactory.createSocket(socket, hostname, port, protocol)
+                     : sslContextFactory.createProbeSocket(socket, hostname, port, protocol)) {
+                sslSocket.setEnabledProtocols(new String[]{protocol});
+
+                // Try handshake with timeout
+                sslSocket.setSoTimeout(handshakeTimeoutMs);
+                boolean resumed = sslContextFactory.startHandshake(sslSocket, "diagnostic");
+
+                SSLSession session = sslSocket.getSession();
+                if (!resumable) {
+                    session.invalidate();
+                }
+                return result.ok(session.getCipherSuite() + (resumed ? " (resumed)" : ""), start);
             }
+        } catch (Exception e) {
+            return result.failed(e, start);
         }
     }
     
-    private static void testQuickConnection(String hostname, int port, SSLContext context) throws Exception {
+    private static void testQuickConnection(String hostname, InetAddress address, int port, SSLContext context,
+                                            int connectTimeoutMs, int handshakeTimeoutMs) throws Exception {
         SSLSocketFactory factory = context.getSocketFactory();
-        Socket socket = new Socket();
-        socket.connect(new java.net.InetSocketAddress(hostname, port), 5000);
-        
-        SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, hostname, port, true);
-        sslSocket.setSoTimeout(10000);
-        sslSocket.startHandshake();
-        sslSocket.close();
+        try (Socket socket = new Socket()) {
+            socket.connect(address != null ? new InetSocketAddress(address, port) : new InetSocketAddress(hostname, port),
+                           connectTimeoutMs);
+
+            try (SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, hostname, port, true)) {
+                sslSocket.setSoTimeout(handshakeTimeoutMs);
+                SslContextFactory.getDefault().startHandshake(sslSocket, "diagnostic");
+            }
+        }
     }
     
     private static void testJavaVMFlags() {
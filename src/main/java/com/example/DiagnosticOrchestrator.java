@@ -0,0 +1,304 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.http.HttpHost;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the DNS, TCP, TLS and truststore probes of the diagnostic tools concurrently under one
+ * overall deadline and writes a merged JSON report.
+ *
+ * <p>Probes form a dependency graph: each host is resolved once and its TCP and TLS probes
+ * connect to the resolved address, TLS and truststore probes only run when the TCP connect
+ * succeeded, and independent hosts, protocols and store types run in parallel. Socket timeouts
+ * are capped by the time left, and probes still running at the deadline are reported as TIMEOUT.
+ *
+ * <p>Usage: {@code DiagnosticOrchestrator [-hosts host[:port],...] [-protocols TLSv1.3,...]
+ * [-storeTypes Windows-ROOT,...] [-deadlineSeconds 10] [-output report.json] [-jfr probes.jfr]}
+ */
+public class DiagnosticOrchestrator {
+
+    static final String DEFAULT_HOSTS = "jsonplaceholder.typicode.com:443,httpbin.org:443";
+    static final String DEFAULT_PROTOCOLS = "TLSv1.3,TLSv1.2,TLSv1.1,TLSv1";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 30000;
+
+    private final long deadlineMs;
+    private long deadlineNanos;
+    private final List<PendingProbe> probes = new ArrayList<>();
+
+    public DiagnosticOrchestrator(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<HttpHost> targets = new ArrayList<>();
+        for (String entry : App.argumentValue(args, "-hosts", DEFAULT_HOSTS).split(",")) {
+            String[] parts = entry.trim().split(":");
+            targets.add(new HttpHost(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 443));
+        }
+        List<String> protocols = Arrays.asList(App.argumentValue(args, "-protocols", DEFAULT_PROTOCOLS).split(","));
+        List<String> storeTypes = Arrays.asList(
+            App.argumentValue(args, "-storeTypes", String.join(",", DeepSSLDiagnostic.TRUST_STORE_TYPES)).split(","));
+        long deadlineSeconds = Long.parseLong(App.argumentValue(args, "-deadlineSeconds", "10"));
+        String output = App.argumentValue(args, "-output");
+        // Without -output, stdout carries only the JSON report; logging and probe output go to stderr
+        PrintStream stdout = System.out;
+        if (output == null) {
+            System.setOut(System.err);
+        }
+        String recording = App.argumentValue(args, "-jfr");
+        if (recording != null) {
+            // Written by the Flight Recorder's shutdown hook when main exits
+            FlightEvents.startRecording(Paths.get(recording), "profile");
+        }
+
+        Report report = new DiagnosticOrchestrator(TimeUnit.SECONDS.toMillis(deadlineSeconds))
+            .run(targets, protocols, storeTypes);
+
+        String json = report.toJson();
+        if (output != null) {
+            Files.write(Paths.get(output), json.getBytes(StandardCharsets.UTF_8));
+            System.out.println("=== Diagnostic Report ===\n");
+            for (ProbeResult result : report.getResults()) {
+                System.out.println("   " + result);
+            }
+            System.out.println();
+            System.out.println("Summary: " + report.getSummary() + " in " + report.getElapsedMs() + " ms");
+            System.out.println("JSON report written to " + output);
+        } else {
+            stdout.println(json);
+            stdout.flush();
+        }
+        // Probes still blocked in I/O after the deadline must not keep the JVM alive
+        System.exit(0);
+    }
+
+    /**
+     * Runs all probes and returns once they finished or the deadline passed, whichever is first.
+     * Truststore probes run against the first target.
+     */
+    public Report run(List<HttpHost> targets, List<String> protocols, List<String> storeTypes) {
+        long started = System.currentTimeMillis();
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+
+        AtomicInteger threadIds = new AtomicInteger();
+        int threads = Math.min(64, targets.size() * (2 + protocols.size()) + storeTypes.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "diagnostic-probe-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            // One lookup per host, shared by every probe against that host
+            Map<String, CompletableFuture<ProbeResult>> lookups = new LinkedHashMap<>();
+            for (HttpHost target : targets) {
+                String host = target.getHostName();
+                if (!lookups.containsKey(host)) {
+                    lookups.put(host, submit(new ProbeResult("dns", host, null),
+                                             () -> NetworkDiagnostic.probeDNS(host), executor));
+                }
+            }
+
+            for (int i = 0; i < targets.size(); i++) {
+                HttpHost target = targets.get(i);
+                String host = target.getHostName();
+                int port = target.getPort();
+                CompletableFuture<ProbeResult> dns = lookups.get(host);
+
+                CompletableFuture<ProbeResult> tcp = then(dns, new ProbeResult("tcp", host + ":" + port, null),
+                    lookup -> NetworkDiagnostic.probeTCP(host, lookup.getResolvedAddresses(), port, remaining(CONNECT_TIMEOUT_MS)),
+                    "DNS lookup failed", executor);
+
+                for (String protocol : protocols) {
+                    then(tcp, new ProbeResult("tls", host + ":" + port, protocol),
+                        connect -> DeepSSLDiagnostic.probeRawSSL(host, address(connect), port, protocol,
+                                                                remaining(CONNECT_TIMEOUT_MS), remaining(HANDSHAKE_TIMEOUT_MS)),
+                        "TCP connect failed", executor);
+                }
+
+                if (i == 0) {
+                    for (String storeType : storeTypes) {
+                        then(tcp, new ProbeResult("truststore", host + ":" + port, storeType),
+                            connect -> DeepSSLDiagnostic.probeSystemKeystore(storeType, host, address(connect), port,
+                                                                            remaining(CONNECT_TIMEOUT_MS),
+                                                                            remaining(HANDSHAKE_TIMEOUT_MS)),
+                            "TCP connect failed", executor);
+                    }
+                }
+            }
+
+            awaitDeadline();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<ProbeResult> results = new ArrayList<>();
+        for (PendingProbe probe : probes) {
+            results.add(outcome(probe));
+        }
+        return new Report(Instant.ofEpochMilli(started).toString(), deadlineMs,
+                          System.currentTimeMillis() - started, results);
+    }
+
+    /**
+     * The probe's result; a probe that threw is reported with its cause, and only one that is
+     * still running counts as timed out.
+     */
+    private ProbeResult outcome(PendingProbe probe) {
+        ProbeResult placeholder = new ProbeResult(probe.placeholder.getProbe(), probe.placeholder.getTarget(),
+                                                  probe.placeholder.getVariant());
+        if (!probe.future.isDone()) {
+            return placeholder.timedOut(deadlineMs);
+        }
+        try {
+            return probe.future.join();
+        } catch (CompletionException | CancellationException e) {
+            return placeholder.failed(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e, 0);
+        }
+    }
+
+    private CompletableFuture<ProbeResult> submit(ProbeResult placeholder, Supplier<ProbeResult> probe,
+                                                  ExecutorService executor) {
+        CompletableFuture<ProbeResult> future = CompletableFuture.supplyAsync(probe, executor);
+        probes.add(new PendingProbe(placeholder, future));
+        return future;
+    }
+
+    /**
+     * Runs a probe after its prerequisite, or marks it skipped when the prerequisite failed.
+     */
+    private CompletableFuture<ProbeResult> then(CompletableFuture<ProbeResult> prerequisite, ProbeResult placeholder,
+                                                Function<ProbeResult, ProbeResult> probe,
+                                                String skipReason, ExecutorService executor) {
+        CompletableFuture<ProbeResult> future = prerequisite.thenApplyAsync(
+            previous -> previous.isOk() ? probe.apply(previous) : placeholder.skipped(skipReason), executor);
+        probes.add(new PendingProbe(placeholder, future));
+        return future;
+    }
+
+    private void awaitDeadline() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[probes.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = probes.get(i).future;
+        }
+        try {
+            CompletableFuture.allOf(futures).get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Unfinished probes are reported as timed out
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Socket timeout for a probe step: its usual timeout, capped by the time left */
+    private int remaining(int timeoutMs) {
+        long left = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        return (int) Math.max(1, Math.min(timeoutMs, left));
+    }
+
+    private static InetAddress address(ProbeResult probe) {
+        InetAddress[] addresses = probe.getResolvedAddresses();
+        return addresses != null && addresses.length > 0 ? addresses[0] : null;
+    }
+
+    private static final class PendingProbe {
+        final ProbeResult placeholder;
+        final CompletableFuture<ProbeResult> future;
+
+        PendingProbe(ProbeResult placeholder, CompletableFuture<ProbeResult> future) {
+            this.placeholder = placeholder;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Merged result of one orchestrated run, serialized as the JSON report
+     */
+    public static class Report {
+
+        private final String startedAt;
+        private final long deadlineMs;
+        private final long elapsedMs;
+        private final Map<String, String> environment = new LinkedHashMap<>();
+        private final Map<ProbeResult.Status, Integer> summary = new EnumMap<>(ProbeResult.Status.class);
+        private final List<ProbeResult> results;
+        private final String tlsHandshakes;
+
+        Report(String startedAt, long deadlineMs, long elapsedMs, List<ProbeResult> results) {
+            this.startedAt = startedAt;
+            this.deadlineMs = deadlineMs;
+            this.elapsedMs = elapsedMs;
+            this.results = results;
+            this.tlsHandshakes = SslContextFactory.getDefault().describeStats();
+            for (String property : new String[] {"java.version", "java.vendor", "os.name", "https.protocols",
+                                                 "javax.net.ssl.trustStore", "javax.net.ssl.trustStoreType"}) {
+                environment.put(property, System.getProperty(property));
+            }
+            for (ProbeResult result : results) {
+                summary.merge(result.getStatus(), 1, Integer::sum);
+            }
+        }
+
+        public String getStartedAt() {
+            return startedAt;
+        }
+
+        public long getDeadlineMs() {
+            return deadlineMs;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public Map<String, String> getEnvironment() {
+            return environment;
+        }
+
+        public Map<ProbeResult.Status, Integer> getSummary() {
+            return summary;
+        }
+
+        public List<ProbeResult> getResults() {
+            return results;
+        }
+
+        public String getTlsHandshakes() {
+            return tlsHandshakes;
+        }
+
+        public String toJson() throws IOException {
+            return new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValueAsString(this);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings for the in-process DNS cache used by the HTTP clients
+ */
+@Component
+@ConfigurationProperties(prefix = "app.dns")
+public class DnsConfig {
+
+    private boolean cacheEnabled = true;
+    private int positiveTtlSeconds = 60;
+    private int negativeTtlSeconds = 5;
+    private int staleTtlSeconds = 300;
+    private double refreshAheadFraction = 0.8;
+    private int maxEntries = 10000;
+
+    public DnsConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public int getPositiveTtlSeconds() {
+        return positiveTtlSeconds;
+    }
+
+    public void setPositiveTtlSeconds(int positiveTtlSeconds) {
+        this.positiveTtlSeconds = positiveTtlSeconds;
+    }
+
+    public int getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+
+    public void setNegativeTtlSeconds(int negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    public int getStaleTtlSeconds() {
+        return staleTtlSeconds;
+    }
+
+    public void setStaleTtlSeconds(int staleTtlSeconds) {
+        this.staleTtlSeconds = staleTtlSeconds;
+    }
+
+    public double getRefreshAheadFraction() {
+        return refreshAheadFraction;
+    }
+
+    public void setRefreshAheadFraction(double refreshAheadFraction) {
+        this.refreshAheadFraction = refreshAheadFraction;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+}
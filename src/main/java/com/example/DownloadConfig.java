@@ -0,0 +1,52 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Download mode: how large files are split into parallel Range requests, retried and verified
+ */
+@Component
+@ConfigurationProperties(prefix = "app.download")
+public class DownloadConfig {
+    private int segments = 4;
+    private long minSegmentBytes = 16L * 1024 * 1024;
+    private int retries = 3;
+    private String checksumAlgorithm = "SHA-256";
+
+    public DownloadConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public long getMinSegmentBytes() {
+        return minSegmentBytes;
+    }
+
+    public void setMinSegmentBytes(long minSegmentBytes) {
+        this.minSegmentBytes = minSegmentBytes;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public void setChecksumAlgorithm(String checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+}
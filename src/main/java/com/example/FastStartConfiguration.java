@@ -0,0 +1,39 @@
+package com.example;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Minimal Spring configuration for the {@code -fastStart} launch path: no component scanning
+ * and no auto-configuration, only the beans {@link App} needs.
+ *
+ * <p>Deliberately not annotated with {@code @Configuration}, so component scanning on the
+ * normal launch path does not pick it up and register a second {@link App}.
+ */
+@EnableConfigurationProperties
+@Import({
+    ProxyArgumentParser.class,
+    ProxyConfig.class,
+    HttpClientConfig.class,
+    SslConfig.class,
+    DnsConfig.class,
+    SidecarConfig.class,
+    ProxySelectionConfig.class,
+    ProxyLimitConfig.class,
+    CacheConfig.class,
+    DownloadConfig.class,
+    WatchConfig.class,
+    ConnectConfig.class,
+    PacConfig.class,
+    MetricsConfig.class,
+    FlightRecorderConfig.class
+})
+public class FastStartConfiguration {
+
+    // Created from a factory method so App's @SpringBootApplication is not processed again
+    @Bean
+    public App app() {
+        return new App();
+    }
+}
@@ -0,0 +1,305 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Java Flight Recorder events for connection leases, proxy authentication legs, TLS handshakes
+ * and completed requests, so slow requests can be lined up with GC, safepoint and socket-read
+ * events of the same recording.
+ *
+ * <p>Callers hold events as plain {@code Object}s from the {@code begin*} methods and hand them
+ * back to the matching {@code commit*} method. When the JVM has no Flight Recorder (Java 8 builds
+ * before 8u262) or the event type is not enabled in any recording, {@code begin*} returns null and
+ * nothing is allocated or recorded.
+ */
+final class FlightEvents {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightEvents.class);
+
+    private static final boolean AVAILABLE = detectFlightRecorder();
+
+    private static Recording recording;
+
+    private FlightEvents() {
+    }
+
+    private static boolean detectFlightRecorder() {
+        try {
+            return FlightRecorder.isAvailable();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Starts a recording with the named JDK settings ("default" or "profile") plus the events
+     * of this class. It is written to {@code file} by {@link #stopRecording()}, or by the Flight
+     * Recorder's own shutdown hook if the JVM exits first.
+     */
+    static synchronized void startRecording(Path file, String settings) throws IOException {
+        if (!AVAILABLE) {
+            logger.warn("Flight Recorder is not available in this JVM, not recording to {}", file);
+            return;
+        }
+        if (recording != null) {
+            return;
+        }
+        Recording started;
+        try {
+            started = new Recording(Configuration.getConfiguration(settings));
+        } catch (ParseException e) {
+            throw new IOException("Invalid JFR settings '" + settings + "': " + e.getMessage(), e);
+        }
+        started.setName("proxy-client");
+        started.setDestination(file.toAbsolutePath());
+        started.setDumpOnExit(true);
+        started.enable(ConnectionLeaseEvent.class);
+        started.enable(ProxyAuthEvent.class);
+        started.enable(TlsHandshakeEvent.class);
+        started.enable(RequestEvent.class);
+        started.start();
+        recording = started;
+        logger.info("Flight recording started ({} settings), writing to {} on exit", settings, file);
+    }
+
+    /**
+     * Stops the recording started by {@link #startRecording} and writes its file.
+     *
+     * @return the file written, or null when no recording was running
+     */
+    static synchronized Path stopRecording() {
+        if (recording == null) {
+            return null;
+        }
+        Path file = recording.getDestination();
+        recording.stop();
+        recording.close();
+        recording = null;
+        return file;
+    }
+
+    static Object beginLease() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        ConnectionLeaseEvent event = new ConnectionLeaseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitLease(Object begun, String route, boolean reused, Throwable error) {
+        if (begun == null) {
+            return;
+        }
+        ConnectionLeaseEvent event = (ConnectionLeaseEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.route = route;
+            event.reused = reused;
+            event.error = describe(error);
+            event.commit();
+        }
+    }
+
+    static Object beginProxyAuth() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        ProxyAuthEvent event = new ProxyAuthEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param leg as named by {@link RequestMetrics#ntlmLeg}; the event is dropped when null
+     */
+    static void commitProxyAuth(Object begun, String proxy, String leg, int statusCode) {
+        if (begun == null || leg == null) {
+            return;
+        }
+        ProxyAuthEvent event = (ProxyAuthEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.proxy = proxy;
+            event.leg = leg;
+            event.statusCode = statusCode;
+            event.commit();
+        }
+    }
+
+    static Object beginTlsHandshake() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        TlsHandshakeEvent event = new TlsHandshakeEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param session the negotiated session, or null when the handshake failed
+     * @param source  "client" for the HTTP clients, "diagnostic" for the diagnostic tools
+     */
+    static void commitTlsHandshake(Object begun, String host, int port, SSLSession session, boolean resumed,
+                                   String source, Throwable error) {
+        if (begun == null) {
+            return;
+        }
+        TlsHandshakeEvent event = (TlsHandshakeEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.host = host;
+            event.port = port;
+            if (session != null) {
+                event.protocol = session.getProtocol();
+                event.cipherSuite = session.getCipherSuite();
+            }
+            event.resumed = resumed;
+            event.source = source;
+            event.error = describe(error);
+            event.commit();
+        }
+    }
+
+    static Object beginRequest() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        RequestEvent event = new RequestEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitRequest(Object begun, String method, String uri, String proxy, int statusCode, Throwable error) {
+        if (begun == null) {
+            return;
+        }
+        RequestEvent event = (RequestEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.uri = uri;
+            event.proxy = proxy;
+            event.statusCode = statusCode;
+            event.error = describe(error);
+            event.commit();
+        }
+    }
+
+    private static String describe(Throwable error) {
+        return error == null ? null : error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+
+    @Name("com.example.ConnectionLease")
+    @Label("Connection Lease")
+    @Description("Wait for a pooled connection to the proxy or target")
+    @Category({"Proxy Client", "Connections"})
+    @StackTrace(false)
+    static final class ConnectionLeaseEvent extends Event {
+        @Label("Route")
+        String route;
+
+        @Label("Reused")
+        @Description("An open pooled connection was handed out, no new connect was needed")
+        boolean reused;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("com.example.ProxyAuth")
+    @Label("Proxy Authentication Leg")
+    @Description("One round trip of the NTLM handshake with the proxy")
+    @Category({"Proxy Client", "Authentication"})
+    @StackTrace(false)
+    static final class ProxyAuthEvent extends Event {
+        @Label("Proxy")
+        String proxy;
+
+        @Label("Leg")
+        @Description("challenge (no credentials sent), negotiate (type 1) or authenticate (type 3)")
+        String leg;
+
+        @Label("Status Code")
+        int statusCode;
+    }
+
+    @Name("com.example.TlsHandshake")
+    @Label("TLS Handshake")
+    @Category({"Proxy Client", "TLS"})
+    @StackTrace(false)
+    static final class TlsHandshakeEvent extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Port")
+        int port;
+
+        @Label("Protocol")
+        String protocol;
+
+        @Label("Cipher Suite")
+        String cipherSuite;
+
+        @Label("Resumed")
+        boolean resumed;
+
+        @Label("Source")
+        String source;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("com.example.Request")
+    @Label("Request")
+    @Description("Request through the proxy, until the response head was received")
+    @Category({"Proxy Client", "Requests"})
+    static final class RequestEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("URI")
+        String uri;
+
+        @Label("Proxy")
+        String proxy;
+
+        @Label("Status Code")
+        int statusCode;
+
+        @Label("Error")
+        String error;
+    }
+}
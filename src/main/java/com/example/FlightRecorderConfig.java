@@ -0,0 +1,34 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Flight recording started with the application and written on exit
+ */
+@Component
+@ConfigurationProperties(prefix = "app.jfr")
+public class FlightRecorderConfig {
+    private String recordingFile = "";
+    private String settings = "profile";
+
+    public FlightRecorderConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public String getRecordingFile() {
+        return recordingFile;
+    }
+
+    public void setRecordingFile(String recordingFile) {
+        this.recordingFile = recordingFile;
+    }
+
+    public String getSettings() {
+        return settings;
+    }
+
+    public void setSettings(String settings) {
+        this.settings = settings;
+    }
+}
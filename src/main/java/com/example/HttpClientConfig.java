@@ -0,0 +1,226 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Connection pool and timeout settings for the shared NTLM proxy client
+ */
+@Component
+@ConfigurationProperties(prefix = "app.http")
+public class HttpClientConfig {
+
+    private int maxTotal = 50;
+    private int maxPerRoute = 20;
+    private int idleTimeoutSeconds = 60;
+    private int timeToLiveSeconds = 300;
+    private int validateAfterInactivityMs = 2000;
+    private int connectTimeoutMs = 30000;
+    private int socketTimeoutMs = 30000;
+    private int connectionRequestTimeoutMs = 30000;
+    private String engine = "blocking";
+    private int ioThreads = 0;
+    private int h2MaxConcurrentStreams = 100;
+    private int h2TunnelsPerOrigin = 1;
+    private boolean hedgingEnabled = false;
+    private double hedgePercentile = 95.0;
+    private int minHedgeDelayMs = 10;
+    private int hedgeBudgetPercent = 10;
+    private boolean adaptiveTimeouts = false;
+    private double timeoutPercentile = 99.9;
+    private double timeoutMultiplier = 3.0;
+    private int minTimeoutMs = 1000;
+    private int latencyWindowSeconds = 60;
+    private int latencyMinSamples = 20;
+
+    public HttpClientConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public void setMaxPerRoute(int maxPerRoute) {
+        this.maxPerRoute = maxPerRoute;
+    }
+
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public int getValidateAfterInactivityMs() {
+        return validateAfterInactivityMs;
+    }
+
+    public void setValidateAfterInactivityMs(int validateAfterInactivityMs) {
+        this.validateAfterInactivityMs = validateAfterInactivityMs;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public void setSocketTimeoutMs(int socketTimeoutMs) {
+        this.socketTimeoutMs = socketTimeoutMs;
+    }
+
+    public int getConnectionRequestTimeoutMs() {
+        return connectionRequestTimeoutMs;
+    }
+
+    public void setConnectionRequestTimeoutMs(int connectionRequestTimeoutMs) {
+        this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public boolean isAsyncEngine() {
+        return "async".equalsIgnoreCase(engine);
+    }
+
+    /**
+     * The HTTP/2 engine, only present in builds with the {@code http2} Maven profile
+     */
+    public boolean isH2Engine() {
+        return "h2".equalsIgnoreCase(engine);
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public int getH2MaxConcurrentStreams() {
+        return h2MaxConcurrentStreams;
+    }
+
+    public void setH2MaxConcurrentStreams(int h2MaxConcurrentStreams) {
+        this.h2MaxConcurrentStreams = h2MaxConcurrentStreams;
+    }
+
+    public int getH2TunnelsPerOrigin() {
+        return h2TunnelsPerOrigin;
+    }
+
+    public void setH2TunnelsPerOrigin(int h2TunnelsPerOrigin) {
+        this.h2TunnelsPerOrigin = h2TunnelsPerOrigin;
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    public void setHedgingEnabled(boolean hedgingEnabled) {
+        this.hedgingEnabled = hedgingEnabled;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public int getMinHedgeDelayMs() {
+        return minHedgeDelayMs;
+    }
+
+    public void setMinHedgeDelayMs(int minHedgeDelayMs) {
+        this.minHedgeDelayMs = minHedgeDelayMs;
+    }
+
+    public int getHedgeBudgetPercent() {
+        return hedgeBudgetPercent;
+    }
+
+    public void setHedgeBudgetPercent(int hedgeBudgetPercent) {
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+    }
+
+    public boolean isAdaptiveTimeouts() {
+        return adaptiveTimeouts;
+    }
+
+    public void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+        this.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    public double getTimeoutPercentile() {
+        return timeoutPercentile;
+    }
+
+    public void setTimeoutPercentile(double timeoutPercentile) {
+        this.timeoutPercentile = timeoutPercentile;
+    }
+
+    public double getTimeoutMultiplier() {
+        return timeoutMultiplier;
+    }
+
+    public void setTimeoutMultiplier(double timeoutMultiplier) {
+        this.timeoutMultiplier = timeoutMultiplier;
+    }
+
+    public int getMinTimeoutMs() {
+        return minTimeoutMs;
+    }
+
+    public void setMinTimeoutMs(int minTimeoutMs) {
+        this.minTimeoutMs = minTimeoutMs;
+    }
+
+    public int getLatencyWindowSeconds() {
+        return latencyWindowSeconds;
+    }
+
+    public void setLatencyWindowSeconds(int latencyWindowSeconds) {
+        this.latencyWindowSeconds = latencyWindowSeconds;
+    }
+
+    public int getLatencyMinSamples() {
+        return latencyMinSamples;
+    }
+
+    public void setLatencyMinSamples(int latencyMinSamples) {
+        this.latencyMinSamples = latencyMinSamples;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Start line and headers of an HTTP/1.x message, as relayed by the sidecar proxy
+ */
+final class HttpHead {
+
+    private final String startLine;
+    private final List<String[]> headers = new ArrayList<>();
+
+    HttpHead(String startLine) {
+        this.startLine = startLine;
+    }
+
+    static HttpHead parse(List<String> lines) {
+        HttpHead head = new HttpHead(lines.get(0));
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                head.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        return head;
+    }
+
+    String getStartLine() {
+        return startLine;
+    }
+
+    /** Request method, or HTTP version for a response */
+    String part(int index) {
+        String[] parts = startLine.split(" ", 3);
+        return index < parts.length ? parts[index] : "";
+    }
+
+    String getMethod() {
+        return part(0);
+    }
+
+    String getTarget() {
+        return part(1);
+    }
+
+    String getVersion() {
+        return startLine.startsWith("HTTP/") ? part(0) : part(2);
+    }
+
+    int getStatusCode() {
+        try {
+            return Integer.parseInt(part(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    String header(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    List<String> headers(String name) {
+        List<String> values = new ArrayList<>();
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                values.add(header[1]);
+            }
+        }
+        return values;
+    }
+
+    boolean hasToken(String name, String token) {
+        for (String value : headers(name)) {
+            for (String part : value.split(",")) {
+                if (part.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    HttpHead add(String name, String value) {
+        headers.add(new String[] {name, value});
+        return this;
+    }
+
+    HttpHead remove(String name) {
+        Iterator<String[]> iterator = headers.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next()[0].equalsIgnoreCase(name)) {
+                iterator.remove();
+            }
+        }
+        return this;
+    }
+
+    HttpHead set(String name, String value) {
+        return remove(name).add(name, value);
+    }
+
+    /** Copy of this head with a different start line */
+    HttpHead withStartLine(String newStartLine) {
+        HttpHead copy = new HttpHead(newStartLine);
+        for (String[] header : headers) {
+            copy.add(header[0], header[1]);
+        }
+        return copy;
+    }
+
+    byte[] toBytes() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(startLine).append("\r\n");
+        for (String[] header : headers) {
+            sb.append(header[0]).append(": ").append(header[1]).append("\r\n");
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return startLine;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffered HTTP/1.x reader/writer over a blocking {@link SocketChannel}. Bytes read past the end
+ * of a message stay in the buffer, so they can be handed over when the connection is switched to
+ * a non-blocking tunnel.
+ */
+final class HttpStream implements Closeable {
+
+    private static final int MAX_LINE = 16 * 1024;
+    private static final int MAX_HEAD_LINES = 200;
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] buffer = new byte[16 * 1024];
+    private int position;
+    private int limit;
+
+    HttpStream(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.in = channel.socket().getInputStream();
+        this.out = new BufferedOutputStream(channel.socket().getOutputStream(), 16 * 1024);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    OutputStream output() {
+        return out;
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        int read = in.read(buffer);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Reads one CRLF (or LF) terminated line, or returns null at end of stream.
+     */
+    String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            if (!fill()) {
+                if (line.length() == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a line");
+            }
+            while (position < limit) {
+                char c = (char) (buffer[position++] & 0xFF);
+                if (c == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+                line.append(c);
+                if (line.length() > MAX_LINE) {
+                    throw new IOException("HTTP line too long");
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a message head, or returns null if the peer closed the connection before sending one.
+     */
+    HttpHead readHead() throws IOException {
+        String startLine = readLine();
+        while (startLine != null && startLine.isEmpty()) {
+            startLine = readLine(); // tolerate stray CRLF between messages
+        }
+        if (startLine == null) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(startLine);
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            lines.add(line);
+            if (lines.size() > MAX_HEAD_LINES) {
+                throw new IOException("Too many header lines");
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed in the middle of a message head");
+        }
+        return HttpHead.parse(lines);
+    }
+
+    private int read(byte[] target, int offset, int length) throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, target, offset, count);
+        position += count;
+        return count;
+    }
+
+    byte[] readFixed(int length) throws IOException {
+        byte[] body = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = read(body, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Connection closed before end of body");
+            }
+            offset += read;
+        }
+        return body;
+    }
+
+    /**
+     * Reads and decodes a chunked body, rejecting bodies larger than {@code maxBytes}.
+     */
+    byte[] readChunked(int maxBytes) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine();
+            if (sizeLine == null) {
+                throw new EOFException("Connection closed in chunked body");
+            }
+            int semicolon = sizeLine.indexOf(';');
+            int size = Integer.parseInt((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+            if (size == 0) {
+                String trailer;
+                while ((trailer = readLine()) != null && !trailer.isEmpty()) {
+                    // trailers are dropped
+                }
+                return body.toByteArray();
+            }
+            if (body.size() + size > maxBytes) {
+                throw new BodyTooLargeException();
+            }
+            body.write(readFixed(size));
+            readLine(); // CRLF after chunk data
+        }
+    }
+
+    void copyFixed(long length, OutputStream target) throws IOException {
+        byte[] chunk = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = read(chunk, 0, (int) Math.min(chunk.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Connection closed before end of body");
+            }
+            target.write(chunk, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Copies a chunked body verbatim, including chunk framing and trailers.
+     */
+    void copyChunked(OutputStream target) throws IOException {
+        while (true) {
+            String sizeLine = readLine();
+            if (sizeLine == null) {
+                throw new EOFException("Connection closed in chunked body");
+            }
+            target.write((sizeLine + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            int semicolon = sizeLine.indexOf(';');
+            long size = Long.parseLong((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+            if (size == 0) {
+                String trailer;
+                do {
+                    trailer = readLine();
+                    if (trailer == null) {
+                        throw new EOFException("Connection closed in chunked trailer");
+                    }
+                    target.write((trailer + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                } while (!trailer.isEmpty());
+                return;
+            }
+            copyFixed(size, target);
+            readLine();
+            target.write('\r');
+            target.write('\n');
+        }
+    }
+
+    void copyToEnd(OutputStream target) throws IOException {
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = read(chunk, 0, chunk.length)) >= 0) {
+            target.write(chunk, 0, read);
+        }
+    }
+
+    /**
+     * Whether bytes were read from the socket but not consumed yet, such as a pipelined request.
+     */
+    boolean hasBuffered() {
+        return position < limit;
+    }
+
+    /**
+     * Removes and returns bytes that were read from the socket but not consumed yet.
+     */
+    byte[] takeBuffered() {
+        byte[] leftover = Arrays.copyOfRange(buffer, position, limit);
+        position = limit;
+        return leftover;
+    }
+
+    void write(HttpHead head) throws IOException {
+        out.write(head.toBytes());
+    }
+
+    void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    void setTimeout(int timeoutMs) throws IOException {
+        channel.socket().setSoTimeout(timeoutMs);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore cleanup errors
+        }
+    }
+
+    static final class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+            super("Request body exceeds the sidecar buffer limit");
+        }
+    }
+}
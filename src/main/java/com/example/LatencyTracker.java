@@ -0,0 +1,157 @@
+package com.example;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling latency percentiles per route, for hedge delays and adaptive timeouts.
+ *
+ * <p>Two distributions are kept: time to the response head per target, and TCP connect time per
+ * first hop (the proxy). Samples go to an HdrHistogram {@link Recorder} without locking; readers
+ * fold them into one of six slots covering {@code windowSeconds} between them, so samples older
+ * than the window drop out slot by slot. Percentiles are only reported once the window holds
+ * {@code minSamples} samples, so a route's first requests use the configured constants.
+ */
+final class LatencyTracker {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final int SLOTS = 6;
+    // The window is rebuilt at most this often, more often while it is still filling up
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long WARMUP_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ConcurrentMap<String, RollingWindow> responses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RollingWindow> connects = new ConcurrentHashMap<>();
+    private final long slotNanos;
+    private final int minSamples;
+
+    LatencyTracker(int windowSeconds, int minSamples) {
+        this.slotNanos = Math.max(1, TimeUnit.SECONDS.toNanos(windowSeconds) / SLOTS);
+        this.minSamples = Math.max(1, minSamples);
+    }
+
+    /**
+     * Normalized route key: scheme, lower-case host and explicit port.
+     */
+    static String routeKey(HttpHost host) {
+        String scheme = host.getSchemeName() != null ? host.getSchemeName().toLowerCase(Locale.ROOT) : "http";
+        int port = host.getPort() > 0 ? host.getPort() : "https".equals(scheme) ? 443 : 80;
+        return scheme + "://" + host.getHostName().toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    static String routeKey(HttpUriRequest request) {
+        HttpHost target = URIUtils.extractHost(request.getURI());
+        return target != null ? routeKey(target) : request.getURI().toString();
+    }
+
+    void recordResponse(String route, long nanos) {
+        responses.computeIfAbsent(route, k -> new RollingWindow()).record(nanos);
+    }
+
+    void recordConnect(String route, long nanos) {
+        connects.computeIfAbsent(route, k -> new RollingWindow()).record(nanos);
+    }
+
+    /**
+     * @return the time to the response head at {@code percentile} in microseconds, or -1 while the
+     *         route has too few samples
+     */
+    long responsePercentileMicros(String route, double percentile) {
+        RollingWindow window = responses.get(route);
+        return window != null ? window.percentileMicros(percentile) : -1;
+    }
+
+    /**
+     * @return the connect time to the first hop at {@code percentile} in microseconds, or -1 while
+     *         it has too few samples
+     */
+    long connectPercentileMicros(String firstHop, double percentile) {
+        RollingWindow window = connects.get(firstHop);
+        return window != null ? window.percentileMicros(percentile) : -1;
+    }
+
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        appendWindows(sb, "response", responses);
+        appendWindows(sb, "connect", connects);
+        return sb.toString();
+    }
+
+    private static void appendWindows(StringBuilder sb, String kind, Map<String, RollingWindow> windows) {
+        for (Map.Entry<String, RollingWindow> entry : new TreeMap<>(windows).entrySet()) {
+            sb.append(String.format(Locale.ROOT, "%n  %-8s %-40s %s", kind, entry.getKey(), entry.getValue().describe()));
+        }
+    }
+
+    private final class RollingWindow {
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final Histogram[] slots = new Histogram[SLOTS];
+        private final Histogram window = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+        private int current;
+        private long slotEnd = System.nanoTime() + slotNanos;
+        private long refreshed = System.nanoTime() - REFRESH_NANOS;
+
+        RollingWindow() {
+            for (int i = 0; i < SLOTS; i++) {
+                slots[i] = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+            }
+        }
+
+        void record(long nanos) {
+            recorder.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos))));
+        }
+
+        synchronized long percentileMicros(double percentile) {
+            refresh(false);
+            return window.getTotalCount() >= minSamples ? window.getValueAtPercentile(percentile) : -1;
+        }
+
+        synchronized String describe() {
+            refresh(true);
+            return String.format(Locale.ROOT, "samples=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                                 window.getTotalCount(), millis(window.getValueAtPercentile(50)),
+                                 millis(window.getValueAtPercentile(95)), millis(window.getValueAtPercentile(99)),
+                                 millis(window.getMaxValue()));
+        }
+
+        private void refresh(boolean force) {
+            long now = System.nanoTime();
+            long period = window.getTotalCount() >= minSamples ? REFRESH_NANOS : WARMUP_REFRESH_NANOS;
+            if (!force && now - refreshed < period) {
+                return;
+            }
+            refreshed = now;
+            // Clear the slots that fell out of the window since the last refresh
+            for (int i = 0; i < SLOTS && now - slotEnd >= 0; i++) {
+                current = (current + 1) % SLOTS;
+                slots[current].reset();
+                slotEnd += slotNanos;
+            }
+            if (now - slotEnd >= 0) {
+                slotEnd = now + slotNanos;
+            }
+            interval = recorder.getIntervalHistogram(interval);
+            slots[current].add(interval);
+            window.reset();
+            for (Histogram slot : slots) {
+                window.add(slot);
+            }
+        }
+
+        private double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
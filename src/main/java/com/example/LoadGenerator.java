@@ -0,0 +1,207 @@
+package com.example;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a target URL through the proxy for a fixed duration and reports throughput,
+ * errors and latency percentiles from an HDR histogram.
+ *
+ * <p>Two models are supported:
+ * <ul>
+ *   <li>open model (fixed request rate): latency is measured from the time each request was
+ *       <em>scheduled</em> to start, so queueing behind slow requests is not hidden
+ *       (coordinated omission correction)</li>
+ *   <li>closed model (fixed concurrency): each worker sends the next request as soon as the
+ *       previous one completes</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    // Latencies are recorded in microseconds, up to one hour, with 3 significant digits
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final NtlmProxyClient client;
+    private final String url;
+
+    private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public LoadGenerator(NtlmProxyClient client, String url) {
+        this.client = client;
+        this.url = url;
+    }
+
+    /**
+     * Open model: issues {@code requestsPerSecond} requests per second for the given duration,
+     * using up to {@code maxWorkers} threads. Requests that cannot start on time wait in the
+     * executor queue and the wait counts towards their latency.
+     */
+    public void runFixedRate(double requestsPerSecond, long durationSeconds, int maxWorkers) throws InterruptedException {
+        // The schedule needs a whole, positive number of nanoseconds between requests
+        if (!(requestsPerSecond > 0) || requestsPerSecond > TimeUnit.SECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("-rate must be above 0 and at most 1e9 requests per second, got "
+                                               + requestsPerSecond);
+        }
+        logger.info("Open model: {} req/s for {} s against {} ({} workers)",
+                    requestsPerSecond, durationSeconds, url, maxWorkers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxWorkers, daemonThreads("load-worker"));
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        try {
+            for (long i = 0; ; i++) {
+                long intendedStart = start + i * intervalNanos;
+                if (intendedStart >= end) {
+                    break;
+                }
+                long wait = intendedStart - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                executor.execute(() -> sendOnce(intendedStart));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.MINUTES);
+        }
+        report(System.nanoTime() - start);
+    }
+
+    /**
+     * Closed model: {@code concurrency} workers each send requests back to back until the
+     * duration has elapsed.
+     */
+    public void runFixedConcurrency(int concurrency, long durationSeconds) throws InterruptedException {
+        logger.info("Closed model: {} concurrent workers for {} s against {}", concurrency, durationSeconds, url);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, daemonThreads("load-worker"));
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < end) {
+                    sendOnce(System.nanoTime());
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationSeconds + 300, TimeUnit.SECONDS);
+        report(System.nanoTime() - start);
+    }
+
+    private void sendOnce(long intendedStartNanos) {
+        long actualStart = System.nanoTime();
+        String error = null;
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 400) {
+                error = "HTTP " + statusCode;
+            }
+        } catch (Exception e) {
+            error = e.getClass().getSimpleName();
+        }
+        long now = System.nanoTime();
+
+        latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - intendedStartNanos), HIGHEST_TRACKABLE_MICROS));
+        serviceTime.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - actualStart), HIGHEST_TRACKABLE_MICROS));
+        completed.increment();
+        if (error == null) {
+            succeeded.increment();
+        } else {
+            errors.computeIfAbsent(error, k -> new LongAdder()).increment();
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = completed.sum();
+
+        logger.info("Load test finished: {} requests in {} s ({} req/s), {} ok, {} errors",
+                    total, String.format("%.1f", seconds), String.format("%.1f", total / seconds),
+                    succeeded.sum(), total - succeeded.sum());
+
+        if (!errors.isEmpty()) {
+            Map<String, Long> breakdown = new TreeMap<>();
+            errors.forEach((k, v) -> breakdown.put(k, v.sum()));
+            logger.info("Error breakdown: {}", breakdown);
+        }
+
+        logger.info("Latency (from intended start) ms: {}", percentiles(latency));
+        logger.info("Service time (from actual start) ms: {}", percentiles(serviceTime));
+        logger.info("Connection pool: {}", client.describePoolStats());
+    }
+
+    /**
+     * Writes the latency histogram as an HdrHistogram percentile distribution (values in
+     * milliseconds), which can be loaded into the HdrHistogram plotter.
+     */
+    public void writeHistogram(String path) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(path), false, "UTF-8")) {
+            latency.outputPercentileDistribution(out, 1000.0);
+        }
+        logger.info("Latency histogram written to {}", path);
+    }
+
+    public Histogram getLatencyHistogram() {
+        return latency;
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "no samples";
+        }
+        return String.format("p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+                             histogram.getValueAtPercentile(50.0) / 1000.0,
+                             histogram.getValueAtPercentile(90.0) / 1000.0,
+                             histogram.getValueAtPercentile(99.0) / 1000.0,
+                             histogram.getValueAtPercentile(99.9) / 1000.0,
+                             histogram.getMaxValue() / 1000.0);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-phase request timing metrics and their Prometheus text dump
+ */
+@Component
+@ConfigurationProperties(prefix = "app.metrics")
+public class MetricsConfig {
+    private boolean enabled = true;
+    private String prometheusFile = "";
+    private int dumpIntervalSeconds = 0;
+
+    public MetricsConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getPrometheusFile() {
+        return prometheusFile;
+    }
+
+    public void setPrometheusFile(String prometheusFile) {
+        this.prometheusFile = prometheusFile;
+    }
+
+    public int getDumpIntervalSeconds() {
+        return dumpIntervalSeconds;
+    }
+
+    public void setDumpIntervalSeconds(int dumpIntervalSeconds) {
+        this.dumpIntervalSeconds = dumpIntervalSeconds;
+    }
+}
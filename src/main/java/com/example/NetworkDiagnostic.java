@@ -49,9 +49,17 @@ public class NetworkDiagnostic {
         System.out.println("2. Proxy Detection:");
         
         try {
-            System.setProperty("java.net.useSystemProxies", "true");
+            // The configured PAC script decides when there is one; otherwise ask the system
+            PacProxySelector pac = PacProxySelector.getDefault();
+            ProxySelector selector = pac;
+            if (pac != null) {
+                System.out.println("   PAC script: " + pac.describeStats());
+            } else {
+                System.setProperty("java.net.useSystemProxies", "true");
+                selector = ProxySelector.getDefault();
+            }
             
-            List<Proxy> proxies = ProxySelector.getDefault().select(
+            List<Proxy> proxies = selector.select(
                 new URI("https://jsonplaceholder.typicode.com"));
             
             if (proxies.isEmpty()) {
@@ -82,20 +90,60 @@ public class NetworkDiagnostic {
     }
     
     private static void testDNS(String hostname) {
+        ProbeResult result = probeDNS(hostname);
+        if (result.isOk()) {
+            System.out.println("   DNS " + hostname + ": " + result.getDetail());
+        } else {
+            System.out.println("   DNS " + hostname + ": FAILED - " + result.getError());
+        }
+    }
+    
+    private static void testTCPConnection(String hostname, int port) {
+        ProbeResult result = probeTCP(hostname, null, port, 10000);
+        if (result.isOk()) {
+            System.out.println("   TCP " + hostname + ":" + port + ": CONNECTED");
+        } else {
+            System.out.println("   TCP " + hostname + ":" + port + ": FAILED - " + result.getError());
+        }
+    }
+    
+    /**
+     * Resolves all addresses of a host; the result carries them for the probes that follow.
+     */
+    static ProbeResult probeDNS(String hostname) {
+        ProbeResult result = new ProbeResult("dns", hostname, null);
+        long start = System.nanoTime();
         try {
             InetAddress[] addresses = InetAddress.getAllByName(hostname);
-            System.out.println("   DNS " + hostname + ": " + addresses[0].getHostAddress());
+            return result.withAddresses(addresses).ok(describe(addresses), start);
         } catch (UnknownHostException e) {
-            System.out.println("   DNS " + hostname + ": FAILED - " + e.getMessage());
+            return result.failed(e, start);
         }
     }
     
-    private static void testTCPConnection(String hostname, int port) {
-        try (Socket socket = new Socket()) {
-            socket.connect(new InetSocketAddress(hostname, port), 10000);
-            System.out.println("   TCP " + hostname + ":" + port + ": CONNECTED");
+    private static String describe(InetAddress[] addresses) {
+        StringBuilder detail = new StringBuilder();
+        for (InetAddress address : addresses) {
+            detail.append(detail.length() > 0 ? ", " : "").append(address.getHostAddress());
+        }
+        return detail.toString();
+    }
+    
+    /**
+     * Opens a TCP connection to already resolved addresses, or resolves the host when addresses is
+     * null. Several addresses are raced (see ConnectionRacer); the result carries the one that won.
+     */
+    static ProbeResult probeTCP(String hostname, InetAddress[] addresses, int port, int timeoutMs) {
+        ProbeResult result = new ProbeResult("tcp", hostname + ":" + port, null);
+        long start = System.nanoTime();
+        try (Socket socket = ConnectionRacer.getDefault().connect(
+                hostname, addresses != null ? addresses : InetAddress.getAllByName(hostname), port, timeoutMs,
+                ConnectionRacer.PLAIN)) {
+            InetAddress connected = socket.getInetAddress();
+            return result.withAddresses(new InetAddress[] {connected})
+                .ok("connected to " + connected.getHostAddress(), start);
         } catch (IOException e) {
-            System.out.println("   TCP " + hostname + ":" + port + ": FAILED - " + e.getMessage());
+            return result.failed(e, start);
         }
     }
     
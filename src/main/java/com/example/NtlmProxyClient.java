@@ -0,0 +1,618 @@
+package com.example;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived, thread-safe HttpClient that keeps NTLM-authenticated proxy connections
+ * pooled so the NTLM exchange, TCP connect and TLS handshake are paid once per connection
+ * instead of once per request.
+ */
+public class NtlmProxyClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NtlmProxyClient.class);
+
+    static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+
+    private static final ConcurrentMap<String, NtlmProxyClient> SHARED = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(NtlmProxyClient::closeAll, "ntlm-client-shutdown"));
+    }
+
+    private static final String PROXY_SELECTION = "com.example.proxy-selection";
+    private static final String PAC_ROUTE = "com.example.pac-route";
+
+    private final String proxyHost;
+    private final int proxyPort;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ProxyBalancer balancer;
+    private final List<HttpHost> proxies;
+    private final CredentialsProvider credentialsProvider;
+    private final NTCredentials proxyCredentials;
+    private final PacProxySelector pac;
+    private final Set<HttpHost> authenticatedProxies = ConcurrentHashMap.newKeySet();
+    private final RequestConfig requestConfig;
+    private final HttpRequestExecutor requestExecutor;
+    private final HttpClientConfig config;
+    private final LatencyTracker latency;
+    private final RequestHedger hedger;
+    private final ResponseCache cache;
+    private final Map<HttpHost, ConcurrencyLimiter> limiters = new LinkedHashMap<>();
+    private ConnectionWarmer warmer;
+
+    public NtlmProxyClient(String proxyHost, int proxyPort, String username, String password, String domain,
+                           HttpClientConfig config) {
+        this(Collections.singletonList(new HttpHost(proxyHost, proxyPort)), username, password, domain,
+             config, new ProxySelectionConfig(), new ProxyLimitConfig());
+    }
+
+    public NtlmProxyClient(List<HttpHost> proxies, String username, String password, String domain,
+                           HttpClientConfig config, ProxySelectionConfig selectionConfig) {
+        this(proxies, username, password, domain, config, selectionConfig, new ProxyLimitConfig());
+    }
+
+    /**
+     * Creates a client for one or more proxies. With several proxies, each request is routed to
+     * the proxy chosen by a {@link ProxyBalancer}. With {@code app.proxy.limit.enabled}, requests
+     * through each proxy are held to its {@link ConcurrencyLimiter}.
+     */
+    public NtlmProxyClient(List<HttpHost> proxies, String username, String password, String domain,
+                           HttpClientConfig config, ProxySelectionConfig selectionConfig,
+                           ProxyLimitConfig limitConfig) {
+        HttpHost proxy = proxies.get(0);
+        this.proxyHost = proxy.getHostName();
+        this.proxyPort = proxy.getPort();
+        this.proxies = proxies;
+        this.config = config;
+
+        // Rolling percentiles are only kept when something uses them
+        this.latency = config.isHedgingEnabled() || config.isAdaptiveTimeouts()
+            ? new LatencyTracker(config.getLatencyWindowSeconds(), config.getLatencyMinSamples())
+            : null;
+        this.hedger = config.isHedgingEnabled() ? new RequestHedger(config.getHedgeBudgetPercent()) : null;
+        this.cache = ResponseCache.getDefault();
+        if (limitConfig.isEnabled()) {
+            for (HttpHost each : proxies) {
+                ConcurrencyLimiter limiter = new ConcurrencyLimiter(each.toHostString(), limitConfig);
+                limiter.bindTo(RequestMetrics.getDefault().getRegistry());
+                limiters.put(each, limiter);
+            }
+        }
+
+        // NTLM authenticates against whichever proxy the request is routed through
+        this.credentialsProvider = new BasicCredentialsProvider();
+        this.proxyCredentials = ntCredentials(username, password, domain);
+        for (HttpHost each : proxies) {
+            authenticateTo(each);
+        }
+        this.pac = PacProxySelector.getDefault();
+
+        this.balancer = proxies.size() > 1
+            ? new ProxyBalancer(proxies, selectionConfig, CachingDnsResolver.getDefault())
+            : null;
+
+        this.requestConfig = RequestConfig.custom()
+            .setProxy(balancer == null && pac == null ? proxy : null)
+            .setConnectTimeout(config.getConnectTimeoutMs())
+            .setSocketTimeout(config.getSocketTimeoutMs())
+            .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMs())
+            .build();
+
+        // TLS goes through the shared SSL context so sessions can be resumed across connections;
+        // DNS, connect and exchange phases are timed through the hooks of the request metrics
+        RequestMetrics metrics = RequestMetrics.getDefault();
+        this.requestExecutor = metrics.requestExecutor();
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", metrics.timedPlainSocketFactory())
+            .register("https", SslContextFactory.getDefault().httpClientSocketFactory())
+            .build();
+
+        // Proxies with several addresses are connected to by racing them (see ConnectionRacer)
+        this.connectionManager = new PoolingHttpClientConnectionManager(
+            new RacingConnectionOperator(socketFactoryRegistry, metrics.timed(CachingDnsResolver.getDefault())),
+            null, config.getTimeToLiveSeconds(), TimeUnit.SECONDS) {
+            @Override
+            public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+                return timedLease(super.requestConnection(route, state), route);
+            }
+
+            @Override
+            public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout,
+                                HttpContext context) throws IOException {
+                long start = System.nanoTime();
+                super.connect(managedConn, route, connectTimeout, context);
+                if (latency != null) {
+                    latency.recordConnect(LatencyTracker.routeKey(route.getHopTarget(0)), System.nanoTime() - start);
+                }
+            }
+        };
+        connectionManager.setMaxTotal(config.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivityMs());
+
+        // NTLM authenticates the connection, and HttpClient marks such connections with the
+        // NTLM principal as their state. All requests here share one identity, so connection
+        // state tracking is disabled to let any caller lease an already-authenticated connection.
+        HttpClientBuilder builder = HttpClients.custom();
+        if (balancer != null || pac != null) {
+            builder.setRoutePlanner(new DefaultRoutePlanner(null) {
+                @Override
+                protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context) {
+                    Object selection = context.getAttribute(PROXY_SELECTION);
+                    if (selection instanceof ProxyBalancer.Selection) {
+                        return ((ProxyBalancer.Selection) selection).getProxy();
+                    }
+                    Object pacRoute = context.getAttribute(PAC_ROUTE);
+                    if (pacRoute instanceof List) {
+                        List<?> hops = (List<?>) pacRoute;
+                        return hops.isEmpty() ? null : (HttpHost) hops.get(0);
+                    }
+                    return balancer != null ? balancer.peek() : proxy;
+                }
+            });
+        }
+        this.httpClient = builder
+            .setConnectionManager(connectionManager)
+            .setRequestExecutor(requestExecutor)
+            .setDefaultCredentialsProvider(credentialsProvider)
+            .setDefaultRequestConfig(requestConfig)
+            .setUserAgent(USER_AGENT)
+            .disableConnectionState()
+            .evictExpiredConnections()
+            .evictIdleConnections(config.getIdleTimeoutSeconds(), TimeUnit.SECONDS)
+            .build();
+
+        logger.info("Created pooled NTLM client for proxy {} (maxTotal={}, maxPerRoute={}, idle={}s, ttl={}s)",
+                    proxies, config.getMaxTotal(), config.getMaxPerRoute(),
+                    config.getIdleTimeoutSeconds(), config.getTimeToLiveSeconds());
+    }
+
+    /**
+     * Returns the client shared by all callers using the same proxy, credentials and settings.
+     */
+    public static NtlmProxyClient shared(String proxyHost, int proxyPort, String username, String password,
+                                         String domain, HttpClientConfig config) {
+        return shared(Collections.singletonList(new HttpHost(proxyHost, proxyPort)), username, password, domain,
+                      config, new ProxySelectionConfig(), new ProxyLimitConfig());
+    }
+
+    public static NtlmProxyClient shared(List<HttpHost> proxies, String username, String password, String domain,
+                                         HttpClientConfig config, ProxySelectionConfig selectionConfig,
+                                         ProxyLimitConfig limitConfig) {
+        String key = sharedKey(proxies, username, password, domain, config, selectionConfig, limitConfig);
+        return SHARED.computeIfAbsent(key,
+            k -> new NtlmProxyClient(proxies, username, password, domain, config, selectionConfig, limitConfig));
+    }
+
+    /**
+     * Key of a shared client: the proxies, the user, a digest of the password (keys end up in heap
+     * dumps), and the values of every settings object, so callers with different pool, selection or
+     * limit settings never silently get a client built with someone else's.
+     */
+    static String sharedKey(Object proxies, String username, String password, String domain, Object... configs) {
+        StringBuilder key = new StringBuilder();
+        key.append(proxies).append('|').append(domain).append('|').append(username).append('|');
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        for (Object config : configs) {
+            key.append('|').append(config.getClass().getSimpleName());
+            for (Field field : config.getClass().getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    key.append(',').append(field.getName()).append('=').append(field.get(config));
+                } catch (IllegalAccessException | RuntimeException e) {
+                    throw new IllegalStateException("Cannot read " + field, e);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    public static void closeAll() {
+        for (NtlmProxyClient client : SHARED.values()) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Ignore cleanup errors
+            }
+        }
+        SHARED.clear();
+    }
+
+    /**
+     * Executes a request on a pooled connection. The caller must close the response
+     * so the connection is returned to the pool.
+     *
+     * <p>With {@code app.http.hedging-enabled}, idempotent requests still waiting after the
+     * route's observed hedge percentile are sent a second time (see {@link RequestHedger}).
+     * With {@code app.cache.enabled}, fresh stored responses are served without a request and
+     * stale ones are revalidated (see {@link ResponseCache}).
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        return cache != null ? cache.execute(request, this::executeToOrigin) : executeToOrigin(request);
+    }
+
+    private CloseableHttpResponse executeToOrigin(HttpUriRequest request) throws IOException {
+        if (hedger != null && RequestHedger.isHedgeable(request)) {
+            long delayMicros = latency.responsePercentileMicros(LatencyTracker.routeKey(request),
+                                                                config.getHedgePercentile());
+            if (delayMicros >= 0) {
+                delayMicros = Math.max(delayMicros, TimeUnit.MILLISECONDS.toMicros(config.getMinHedgeDelayMs()));
+                return hedger.execute(request, delayMicros, this::executeOnce);
+            }
+        }
+        return executeOnce(request);
+    }
+
+    private CloseableHttpResponse executeOnce(HttpUriRequest request) throws IOException {
+        Object event = FlightEvents.beginRequest();
+        // Without a PAC script, or when it sends the host to one of the configured proxies, the
+        // balancer picks among them; otherwise the script's first choice (or DIRECT) is used
+        List<HttpHost> pacRoute = pac != null ? pac.proxiesFor(request.getURI()) : null;
+        boolean balanced = balancer != null
+            && (pacRoute == null || !pacRoute.isEmpty() && proxies.contains(pacRoute.get(0)));
+        ProxyBalancer.Selection selection = balanced ? balancer.select() : null;
+        HttpClientContext context = HttpClientContext.create();
+        if (selection != null) {
+            context.setAttribute(PROXY_SELECTION, selection);
+        } else if (pacRoute != null) {
+            context.setAttribute(PAC_ROUTE, pacRoute);
+        }
+        HttpHost firstHop = selection != null ? selection.getProxy()
+            : pacRoute == null ? new HttpHost(proxyHost, proxyPort)
+            : pacRoute.isEmpty() ? null : pacRoute.get(0);
+        if (firstHop != null && pacRoute != null && pac.mayAuthenticate(firstHop)) {
+            authenticateTo(firstHop);
+        }
+        String proxy = firstHop != null ? firstHop.toHostString() : "DIRECT";
+        String route = latency != null ? LatencyTracker.routeKey(request) : null;
+        if (latency != null && config.isAdaptiveTimeouts()) {
+            applyAdaptiveTimeouts(context, route, firstHop != null ? LatencyTracker.routeKey(firstHop) : route);
+        }
+        ConcurrencyLimiter limiter = limiters.get(firstHop);
+        ConcurrencyLimiter.Permit permit = null;
+        try {
+            if (limiter != null) {
+                permit = limiter.acquire();
+            }
+            long start = System.nanoTime();
+            CloseableHttpResponse response = httpClient.execute(request, context);
+            int statusCode = response.getStatusLine().getStatusCode();
+            long elapsed = System.nanoTime() - start;
+            if (latency != null) {
+                latency.recordResponse(route, elapsed);
+            }
+            if (selection != null) {
+                // Only an overloaded proxy counts against it; other error statuses may come from the target
+                if (statusCode == 503) {
+                    selection.failure("HTTP 503");
+                } else {
+                    selection.success();
+                }
+            }
+            if (permit != null) {
+                // The proxy's own answers when it is over capacity
+                if (statusCode == 407 || statusCode == 502 || statusCode == 503 || statusCode == 504) {
+                    permit.dropped();
+                } else {
+                    permit.success(elapsed);
+                }
+                response = releasingOnClose(response, permit);
+            }
+            FlightEvents.commitRequest(event, request.getMethod(), request.getURI().toString(), proxy, statusCode, null);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            // A hedged attempt aborted because the other one won, or one the limiter did not let
+            // through, says nothing about this proxy
+            boolean notAnswered = e instanceof ConcurrencyLimiter.LimitExceededException
+                || request instanceof HttpRequestBase && ((HttpRequestBase) request).isAborted();
+            if (selection != null) {
+                if (notAnswered) {
+                    selection.cancel();
+                } else {
+                    selection.failure(e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
+            if (permit != null) {
+                if (!notAnswered) {
+                    permit.dropped();
+                }
+                permit.release();
+            }
+            FlightEvents.commitRequest(event, request.getMethod(), request.getURI().toString(), proxy, 0, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps a response so closing it also gives the limiter slot back; the slot covers the body.
+     */
+    private static CloseableHttpResponse releasingOnClose(CloseableHttpResponse response,
+                                                          ConcurrencyLimiter.Permit permit) {
+        return (CloseableHttpResponse) Proxy.newProxyInstance(
+            NtlmProxyClient.class.getClassLoader(), new Class<?>[] {CloseableHttpResponse.class},
+            (proxy, method, args) -> {
+                try {
+                    return method.invoke(response, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                } finally {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                        permit.release();
+                    }
+                }
+            });
+    }
+
+    /**
+     * Lets NTLM answer challenges from this proxy. Proxies only named by the PAC script get the
+     * credentials when listed in {@code app.pac.credential-proxies}; others see no NTLM response.
+     */
+    private void authenticateTo(HttpHost proxy) {
+        if (authenticatedProxies.add(proxy)) {
+            credentialsProvider.setCredentials(new AuthScope(proxy.getHostName(), proxy.getPort()), proxyCredentials);
+        }
+    }
+
+    /**
+     * Replaces the constant connect and socket timeouts with a multiple of the observed percentile
+     * for the first hop and the target, between {@code app.http.min-timeout-ms} and the constants.
+     */
+    private void applyAdaptiveTimeouts(HttpClientContext context, String route, String firstHop) {
+        long responseMicros = latency.responsePercentileMicros(route, config.getTimeoutPercentile());
+        long connectMicros = latency.connectPercentileMicros(firstHop, config.getTimeoutPercentile());
+        if (responseMicros < 0 && connectMicros < 0) {
+            return;
+        }
+        RequestConfig.Builder adapted = RequestConfig.copy(requestConfig);
+        if (connectMicros >= 0) {
+            adapted.setConnectTimeout(adaptiveTimeout(connectMicros, requestConfig.getConnectTimeout()));
+        }
+        if (responseMicros >= 0) {
+            adapted.setSocketTimeout(adaptiveTimeout(responseMicros, requestConfig.getSocketTimeout()));
+        }
+        context.setRequestConfig(adapted.build());
+    }
+
+    private int adaptiveTimeout(long percentileMicros, int ceilingMs) {
+        long timeoutMs = (long) Math.ceil(percentileMicros * config.getTimeoutMultiplier() / 1000.0);
+        timeoutMs = Math.max(config.getMinTimeoutMs(), timeoutMs);
+        return ceilingMs > 0 ? (int) Math.min(ceilingMs, timeoutMs) : (int) timeoutMs;
+    }
+
+    /**
+     * Wraps a pool request so the wait for the connection is recorded as a flight event.
+     */
+    private static ConnectionRequest timedLease(ConnectionRequest request, HttpRoute route) {
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                Object event = FlightEvents.beginLease();
+                try {
+                    HttpClientConnection connection = request.get(timeout, unit);
+                    // Connections fresh from the pool are not connected yet
+                    FlightEvents.commitLease(event, route.toString(), connection.isOpen(), null);
+                    return connection;
+                } catch (InterruptedException | ExecutionException | ConnectionPoolTimeoutException | RuntimeException e) {
+                    FlightEvents.commitLease(event, route.toString(), false, e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    /**
+     * Opens {@code perTarget} connections to each target through every proxy (NTLM, CONNECT and TLS
+     * included), parks them in the pool and keeps topping them up every {@code topUpSeconds}.
+     * Blocks until the first round is done.
+     *
+     * @return the number of connections opened
+     */
+    public synchronized int warmPool(List<HttpHost> targets, int perTarget, int topUpSeconds) {
+        if (warmer != null) {
+            warmer.close();
+        }
+        int poolSize = Math.min(perTarget, connectionManager.getDefaultMaxPerRoute());
+        if (poolSize < perTarget) {
+            logger.warn("Warm pool size {} exceeds app.http.max-per-route, warming {} per target", perTarget, poolSize);
+        }
+        warmer = new ConnectionWarmer(connectionManager, credentialsProvider, requestConfig, requestExecutor,
+                                      USER_AGENT, proxies, targets, poolSize);
+        int opened = warmer.warm();
+        if (topUpSeconds > 0) {
+            warmer.startTopUp(topUpSeconds);
+        }
+        return opened;
+    }
+
+    /**
+     * Pre-warming counters and pooled connections per route, or null when the pool is not pre-warmed.
+     */
+    public synchronized String describeWarmStats() {
+        return warmer != null ? warmer.describeStats() : null;
+    }
+
+    public String get(String url) throws IOException {
+        HttpGet httpGet = new HttpGet(url);
+        try (CloseableHttpResponse response = execute(httpGet)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            String responseBody = EntityUtils.toString(response.getEntity());
+            return "Response Code: " + statusCode + "\n" + responseBody;
+        }
+    }
+
+    /**
+     * Defaults applied to every request, including the proxy when there is only one.
+     */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    public String describePoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return "leased=" + stats.getLeased() +
+               ", available=" + stats.getAvailable() +
+               ", pending=" + stats.getPending() +
+               ", max=" + stats.getMax();
+    }
+
+    /**
+     * Rolling latency percentiles per route and hedging counters, or null when neither hedging
+     * nor adaptive timeouts are enabled.
+     */
+    public String describeLatencyStats() {
+        if (latency == null) {
+            return null;
+        }
+        return "  hedging: " + (hedger != null ? hedger.describeStats() : "disabled") + latency.describe();
+    }
+
+    /**
+     * Current concurrency limit, in-flight and queue counters per proxy, or null when the limit is
+     * not enabled.
+     */
+    public String describeLimitStats() {
+        if (limiters.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<HttpHost, ConcurrencyLimiter> entry : limiters.entrySet()) {
+            sb.append(sb.length() > 0 ? "\n" : "").append("  ").append(entry.getKey().toHostString())
+              .append(": ").append(entry.getValue().describeStats());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Per-proxy health and selection counts, or null when only one proxy is configured.
+     */
+    public String describeProxyStats() {
+        return balancer != null ? balancer.describeStats() : null;
+    }
+
+    public String getProxyHost() {
+        return proxyHost;
+    }
+
+    public int getProxyPort() {
+        return proxyPort;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (warmer != null) {
+                warmer.close();
+            }
+        }
+        if (hedger != null) {
+            hedger.close();
+        }
+        if (balancer != null) {
+            balancer.close();
+        }
+        httpClient.close();
+    }
+
+    /**
+     * Builds NTLM credentials, taking the domain from the username when it is in DOMAIN\\username format.
+     */
+    static NTCredentials ntCredentials(String username, String password, String domain) {
+        String actualUsername = username;
+        String actualDomain = domain;
+        if (username != null && username.contains("\\")) {
+            String[] parts = username.split("\\\\", 2);
+            if (parts.length == 2) {
+                actualDomain = parts[0];
+                actualUsername = parts[1];
+            }
+        }
+        return new NTCredentials(actualUsername, password, workstationName(), actualDomain != null ? actualDomain : "");
+    }
+
+    private static String workstationName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return ""; // Use empty string if can't get hostname
+        }
+    }
+}
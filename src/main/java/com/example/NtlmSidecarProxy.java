@@ -0,0 +1,747 @@
+package com.example;
+
+import com.example.UpstreamConnectionPool.UpstreamConnection;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.auth.NTLMScheme;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local forward proxy that authenticates to the upstream NTLM proxy on behalf of local clients,
+ * in the spirit of CNTLM.
+ *
+ * <p>Clients send plain, unauthenticated proxy requests to the listener on localhost. A selector
+ * thread accepts connections and watches the idle ones; when a request arrives, the connection
+ * goes to a worker, which serves it and hands the connection back to the selector to wait for the
+ * next one. Idle keep-alive clients therefore hold no worker, and are closed after
+ * {@code clientIdleTimeoutSeconds}. Requests are forwarded over {@link UpstreamConnectionPool}
+ * connections; NTLM authenticates the connection, so the three-leg handshake is only run on a
+ * connection's first request (or when the proxy challenges again) and later requests reuse it.
+ *
+ * <p>Request bodies are buffered (up to {@code maxBufferedBodyBytes}) so they can be replayed on
+ * each leg of the handshake; response bodies are streamed back to the client. Once a CONNECT
+ * tunnel is established, both channels move to the {@link TunnelRelay} selector and the worker
+ * is released.
+ */
+public class NtlmSidecarProxy implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NtlmSidecarProxy.class);
+
+    private static final byte[] CONNECTION_ESTABLISHED =
+        "HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Body lengths that are not a byte count
+    private static final long CHUNKED = -1;
+    private static final long UNTIL_CLOSE = -2;
+
+    private final SidecarConfig config;
+    private final Credentials credentials;
+    private final Map<HttpHost, UpstreamConnectionPool> upstreamPools = new LinkedHashMap<>();
+    private final HttpHost primaryProxy;
+    private final ProxyBalancer balancer;
+    private final TunnelRelay tunnelRelay;
+    private final ThreadPoolExecutor workers;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Queue<HttpStream> returning = new ConcurrentLinkedQueue<>();
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private volatile boolean running;
+
+    private final AtomicInteger openClients = new AtomicInteger();
+    private final AtomicInteger idleClients = new AtomicInteger();
+    private final LongAdder acceptedClients = new LongAdder();
+    private final LongAdder forwardedRequests = new LongAdder();
+    private final LongAdder ntlmHandshakes = new LongAdder();
+    private final LongAdder preAuthenticatedRequests = new LongAdder();
+    private final LongAdder rejectedClients = new LongAdder();
+
+    public NtlmSidecarProxy(ProxyConfig proxyConfig, SidecarConfig config, HttpClientConfig httpClientConfig,
+                            ProxySelectionConfig selectionConfig, DnsResolver dnsResolver) throws IOException {
+        this.config = config;
+        String username = proxyConfig.getUsername();
+        this.credentials = username != null && !username.isEmpty()
+            ? NtlmProxyClient.ntCredentials(username, proxyConfig.getPassword(), proxyConfig.getDomain())
+            : null;
+        // One keep-alive pool per upstream proxy; with several proxies each request picks one
+        List<HttpHost> proxies = proxyConfig.getProxies();
+        for (HttpHost proxy : proxies) {
+            upstreamPools.put(proxy, new UpstreamConnectionPool(
+                proxy.getHostName(), proxy.getPort(), dnsResolver,
+                config.getUpstreamPoolSize(), config.getUpstreamIdleTimeoutSeconds(),
+                httpClientConfig.getConnectTimeoutMs(), httpClientConfig.getSocketTimeoutMs()));
+        }
+        this.primaryProxy = proxies.get(0);
+        this.balancer = proxies.size() > 1 ? new ProxyBalancer(proxies, selectionConfig, dnsResolver) : null;
+        this.tunnelRelay = new TunnelRelay();
+
+        AtomicInteger workerIds = new AtomicInteger();
+        // Bounded hand-off queue: when all workers are busy, new requests get a 503 instead of waiting
+        this.workers = new ThreadPoolExecutor(
+            config.getWorkerThreads(), config.getWorkerThreads(), 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(config.getAcceptBacklog()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "sidecar-worker-" + workerIds.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Binds the listener and starts the accept and tunnel relay threads.
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(new InetSocketAddress(config.getListenHost(), config.getListenPort()), config.getAcceptBacklog());
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        running = true;
+
+        Thread relayThread = new Thread(tunnelRelay, "sidecar-tunnel-relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+
+        Thread acceptThread = new Thread(this::acceptLoop, "sidecar-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        logger.info("NTLM sidecar listening on {} (workers={}, upstream pool={}, NTLM={})",
+                    serverChannel.getLocalAddress(), config.getWorkerThreads(), config.getUpstreamPoolSize(),
+                    credentials != null ? "on" : "off");
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Blocks until the sidecar is closed.
+     */
+    public void awaitTermination() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Accepts clients and waits for requests on idle client connections; a connection with a
+     * request is handed to a worker.
+     */
+    private void acceptLoop() {
+        long idleNanos = TimeUnit.SECONDS.toNanos(config.getClientIdleTimeoutSeconds());
+        long nextSweep = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        try {
+            while (running) {
+                acceptSelector.select(1000);
+                registerReturning();
+                List<HttpStream> ready = new ArrayList<>();
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        SocketChannel client;
+                        while ((client = serverChannel.accept()) != null) {
+                            accept(client);
+                        }
+                    } else if (key.isReadable()) {
+                        key.cancel();
+                        idleClients.decrementAndGet();
+                        ready.add(((IdleClient) key.attachment()).stream);
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    // Completes the deregistration, so the channels can be switched back to blocking
+                    acceptSelector.selectNow();
+                    for (HttpStream client : ready) {
+                        dispatch(client);
+                    }
+                }
+                long now = System.nanoTime();
+                if (now >= nextSweep) {
+                    closeIdle(now - idleNanos);
+                    nextSweep = now + TimeUnit.SECONDS.toNanos(1);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.error("Sidecar accept loop stopped", e);
+            }
+        } finally {
+            closeIdle(Long.MAX_VALUE);
+            HttpStream client;
+            while ((client = returning.poll()) != null) {
+                client.close();
+            }
+            try {
+                acceptSelector.close();
+            } catch (IOException ignored) {
+                // Ignore cleanup errors
+            }
+        }
+    }
+
+    private void accept(SocketChannel client) {
+        acceptedClients.increment();
+        try {
+            client.socket().setTcpNoDelay(true);
+            watch(new HttpStream(client));
+        } catch (IOException e) {
+            logger.debug("Could not set up client connection: {}", e.getMessage());
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // Ignore cleanup errors
+            }
+        }
+    }
+
+    /**
+     * Waits on the selector for the next request on this connection.
+     */
+    private void watch(HttpStream client) throws IOException {
+        client.getChannel().configureBlocking(false);
+        client.getChannel().register(acceptSelector, SelectionKey.OP_READ, new IdleClient(client));
+        idleClients.incrementAndGet();
+    }
+
+    private void registerReturning() {
+        HttpStream client;
+        while ((client = returning.poll()) != null) {
+            try {
+                watch(client);
+            } catch (IOException e) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Closes idle connections that have waited since before {@code idleSince}.
+     */
+    private void closeIdle(long idleSince) {
+        for (SelectionKey key : acceptSelector.keys()) {
+            if (key.attachment() instanceof IdleClient && key.isValid()
+                && ((IdleClient) key.attachment()).since < idleSince) {
+                key.cancel();
+                idleClients.decrementAndGet();
+                ((IdleClient) key.attachment()).stream.close();
+            }
+        }
+    }
+
+    private void dispatch(HttpStream client) {
+        try {
+            client.getChannel().configureBlocking(true);
+            workers.execute(() -> serveClient(client));
+        } catch (RejectedExecutionException e) {
+            rejectedClients.increment();
+            sendError(client, 503, "Sidecar busy");
+            client.close();
+        } catch (IOException e) {
+            logger.debug("Could not set up client connection: {}", e.getMessage());
+            client.close();
+        }
+    }
+
+    /**
+     * Serves the requests waiting on one client connection, then hands it back to the selector
+     * unless it closed, asked to close, timed out mid-request, or turned into a tunnel.
+     */
+    private void serveClient(HttpStream client) {
+        openClients.incrementAndGet();
+        boolean handedOver = false;
+        try {
+            client.setTimeout((int) TimeUnit.SECONDS.toMillis(config.getClientIdleTimeoutSeconds()));
+            HttpHead request;
+            while (running && (request = client.readHead()) != null) {
+                if ("CONNECT".equalsIgnoreCase(request.getMethod())) {
+                    handedOver = handleConnect(client, request);
+                    return;
+                }
+                if (!handleRequest(client, request)) {
+                    return;
+                }
+                // A pipelined request is served right away; otherwise wait for the next one off the worker
+                if (!client.hasBuffered()) {
+                    handedOver = running;
+                    if (handedOver) {
+                        returning.add(client);
+                        acceptSelector.wakeup();
+                    }
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Client connection stalled, closing");
+        } catch (IOException e) {
+            logger.debug("Client connection failed: {}", e.getMessage());
+        } finally {
+            openClients.decrementAndGet();
+            if (!handedOver) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Opens a tunnel through the upstream proxy. Returns true if both channels were handed to the relay.
+     */
+    private boolean handleConnect(HttpStream client, HttpHead request) throws IOException {
+        String authority = request.getTarget();
+        HttpHead upstreamRequest = new HttpHead("CONNECT " + authority + " HTTP/1.1")
+            .add("Host", authority)
+            .add("Proxy-Connection", "keep-alive");
+        String userAgent = request.header("User-Agent");
+        upstreamRequest.add("User-Agent", userAgent != null ? userAgent : NtlmProxyClient.USER_AGENT);
+
+        Exchange exchange;
+        try {
+            exchange = exchange(upstreamRequest, null);
+        } catch (IOException e) {
+            logger.warn("CONNECT {} failed: {}", authority, e.getMessage());
+            sendError(client, 502, "Upstream proxy unavailable");
+            return false;
+        }
+        forwardedRequests.increment();
+
+        int status = exchange.response.getStatusCode();
+        if (status < 200 || status >= 300) {
+            // Refused by the proxy: relay its answer and end the client connection
+            relayResponse(exchange, client, request.getMethod(), false);
+            return false;
+        }
+
+        HttpStream upstream = exchange.connection.getStream();
+        client.write(CONNECTION_ESTABLISHED);
+        writeBuffered(upstream, client);
+        client.flush();
+        writeBuffered(client, upstream);
+        upstream.flush();
+        tunnelRelay.register(client.getChannel(), upstream.getChannel());
+        logger.debug("Tunnel to {} established", authority);
+        return true;
+    }
+
+    /**
+     * Forwards a plain proxy request. Returns true if the client connection can carry another request.
+     */
+    private boolean handleRequest(HttpStream client, HttpHead request) throws IOException {
+        String target = request.getTarget();
+        if (!target.regionMatches(true, 0, "http://", 0, 7)) {
+            sendError(client, 400, "Sidecar only accepts absolute http:// URIs and CONNECT");
+            return false;
+        }
+
+        byte[] body;
+        try {
+            body = readRequestBody(client, request);
+        } catch (HttpStream.BodyTooLargeException e) {
+            sendError(client, 413, e.getMessage());
+            return false;
+        }
+
+        boolean clientKeepAlive = "HTTP/1.1".equals(request.getVersion())
+            ? !request.hasToken("Connection", "close") && !request.hasToken("Proxy-Connection", "close")
+            : request.hasToken("Connection", "keep-alive") || request.hasToken("Proxy-Connection", "keep-alive");
+
+        HttpHead upstreamRequest = request.withStartLine(request.getMethod() + " " + target + " HTTP/1.1")
+            .remove("Proxy-Authorization")
+            .remove("Connection")
+            .remove("Keep-Alive")
+            .remove("Expect")
+            .remove("Transfer-Encoding")
+            .set("Proxy-Connection", "keep-alive");
+        if (body != null) {
+            upstreamRequest.set("Content-Length", String.valueOf(body.length));
+        }
+
+        Exchange exchange;
+        try {
+            exchange = exchange(upstreamRequest, body);
+        } catch (IOException e) {
+            logger.warn("{} {} failed: {}", request.getMethod(), target, e.getMessage());
+            sendError(client, 502, "Upstream proxy unavailable");
+            return false;
+        }
+        forwardedRequests.increment();
+        return relayResponse(exchange, client, request.getMethod(), clientKeepAlive);
+    }
+
+    private byte[] readRequestBody(HttpStream client, HttpHead request) throws IOException {
+        boolean chunked = request.hasToken("Transfer-Encoding", "chunked");
+        String contentLength = request.header("Content-Length");
+        if (!chunked && contentLength == null) {
+            return null;
+        }
+        if (request.hasToken("Expect", "100-continue")) {
+            // The body is buffered here, so the client gets its go-ahead from the sidecar
+            client.write(CONTINUE);
+            client.flush();
+        }
+        if (chunked) {
+            return client.readChunked(config.getMaxBufferedBodyBytes());
+        }
+        long length = Long.parseLong(contentLength.trim());
+        if (length > config.getMaxBufferedBodyBytes()) {
+            throw new HttpStream.BodyTooLargeException();
+        }
+        return client.readFixed((int) length);
+    }
+
+    /**
+     * Sends a request upstream and returns the final response head, authenticating the
+     * connection with NTLM first if the proxy asks for it. The response body is not read.
+     */
+    private Exchange exchange(HttpHead request, byte[] body) throws IOException {
+        ProxyBalancer.Selection selection = balancer != null ? balancer.select() : null;
+        UpstreamConnectionPool pool = upstreamPools.get(selection != null ? selection.getProxy() : primaryProxy);
+        try {
+            Exchange exchange = exchange(pool, request, body);
+            if (selection != null) {
+                if (exchange.response.getStatusCode() == 503) {
+                    selection.failure("HTTP 503");
+                } else {
+                    selection.success();
+                }
+            }
+            return exchange;
+        } catch (IOException | RuntimeException e) {
+            if (selection != null) {
+                selection.failure(e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private Exchange exchange(UpstreamConnectionPool upstreamPool, HttpHead request, byte[] body) throws IOException {
+        UpstreamConnection connection = upstreamPool.lease();
+        try {
+            Exchange exchange = new Exchange(upstreamPool, connection);
+            if (connection.authenticated || credentials == null) {
+                HttpHead response;
+                try {
+                    response = send(connection, request, body, null);
+                } catch (IOException e) {
+                    if (!connection.reused) {
+                        throw e;
+                    }
+                    // The pooled connection went stale while idle; the request is buffered, so retry once
+                    connection.close();
+                    connection = upstreamPool.connect();
+                    exchange.connection = connection;
+                    response = send(connection, request, body, null);
+                }
+                if (response.getStatusCode() != 407 || credentials == null) {
+                    if (connection.authenticated) {
+                        preAuthenticatedRequests.increment();
+                    }
+                    exchange.response = response;
+                    return exchange;
+                }
+                // The proxy dropped the authentication; start over on this connection if it is still open
+                connection.authenticated = false;
+                if (!discardBody(connection, response, request.getMethod())) {
+                    connection.close();
+                    connection = upstreamPool.connect();
+                    exchange.connection = connection;
+                }
+            }
+            exchange.response = authenticate(connection, request, body);
+            return exchange;
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the NTLM negotiate/challenge/authenticate legs on one connection, resending the
+     * request on each leg, and returns the response to the last leg.
+     */
+    private HttpHead authenticate(UpstreamConnection connection, HttpHead request, byte[] body) throws IOException {
+        NTLMScheme scheme = new NTLMScheme();
+        BasicHttpRequest authRequest = new BasicHttpRequest(request.getMethod(), request.getTarget());
+        try {
+            scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "NTLM"));
+            HttpHead response = send(connection, request, body, scheme.authenticate(credentials, authRequest));
+            String challenge = ntlmChallenge(response);
+            if (response.getStatusCode() != 407 || challenge == null) {
+                // No authentication needed, or a scheme the sidecar does not speak: pass it on
+                return response;
+            }
+            if (!discardBody(connection, response, request.getMethod())) {
+                throw new IOException("Upstream proxy closed the connection during the NTLM handshake");
+            }
+            scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, challenge));
+            response = send(connection, request, body, scheme.authenticate(credentials, authRequest));
+            ntlmHandshakes.increment();
+            if (response.getStatusCode() != 407) {
+                connection.authenticated = true;
+            } else {
+                logger.warn("Upstream proxy rejected the NTLM credentials for user {}", credentials.getUserPrincipal());
+            }
+            return response;
+        } catch (AuthenticationException | MalformedChallengeException e) {
+            throw new IOException("NTLM handshake failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static String ntlmChallenge(HttpHead response) {
+        for (String value : response.headers("Proxy-Authenticate")) {
+            if (value.regionMatches(true, 0, "NTLM ", 0, 5)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static HttpHead send(UpstreamConnection connection, HttpHead request, byte[] body,
+                                 Header authorization) throws IOException {
+        HttpStream upstream = connection.getStream();
+        HttpHead outgoing = authorization != null
+            ? request.withStartLine(request.getStartLine()).set(authorization.getName(), authorization.getValue())
+            : request;
+        Object authEvent = FlightEvents.beginProxyAuth();
+        long start = System.nanoTime();
+        upstream.write(outgoing);
+        if (body != null) {
+            upstream.write(body);
+        }
+        upstream.flush();
+
+        HttpHead response = upstream.readHead();
+        // Skip interim responses; 101 is final since it switches protocols
+        while (response != null && response.getStatusCode() >= 100 && response.getStatusCode() < 200
+               && response.getStatusCode() != 101) {
+            response = upstream.readHead();
+        }
+        if (response == null) {
+            throw new IOException("Upstream proxy closed the connection");
+        }
+        long elapsed = System.nanoTime() - start;
+        String leg = RequestMetrics.ntlmLeg(authorization, response.getStatusCode());
+        if (leg != null) {
+            RequestMetrics.getDefault().recordNtlmLeg(leg, elapsed);
+            FlightEvents.commitProxyAuth(authEvent, connection.getProxy(), leg, response.getStatusCode());
+        }
+        if ("CONNECT".equalsIgnoreCase(request.getMethod()) && response.getStatusCode() / 100 == 2) {
+            RequestMetrics.getDefault().recordTunnel(elapsed);
+        }
+        return response;
+    }
+
+    /**
+     * Reads and drops a response body. Returns true if the connection can carry the next leg.
+     */
+    private static boolean discardBody(UpstreamConnection connection, HttpHead response, String method) throws IOException {
+        long length = bodyLength(response, method);
+        if (length == UNTIL_CLOSE || closeRequested(response)) {
+            return false;
+        }
+        HttpStream upstream = connection.getStream();
+        if (length == CHUNKED) {
+            upstream.copyChunked(new ByteArrayOutputStream());
+        } else {
+            upstream.readFixed((int) length);
+        }
+        return true;
+    }
+
+    private static long bodyLength(HttpHead response, String method) {
+        int status = response.getStatusCode();
+        if ("HEAD".equalsIgnoreCase(method) || status == 204 || status == 304 || (status >= 100 && status < 200)
+            || ("CONNECT".equalsIgnoreCase(method) && status >= 200 && status < 300)) {
+            return 0;
+        }
+        if (response.hasToken("Transfer-Encoding", "chunked")) {
+            return CHUNKED;
+        }
+        String contentLength = response.header("Content-Length");
+        return contentLength != null ? Long.parseLong(contentLength.trim()) : UNTIL_CLOSE;
+    }
+
+    private static boolean closeRequested(HttpHead response) {
+        return response.hasToken("Connection", "close") || response.hasToken("Proxy-Connection", "close")
+               || (!"HTTP/1.1".equals(response.getVersion()) && !response.hasToken("Connection", "keep-alive")
+                   && !response.hasToken("Proxy-Connection", "keep-alive"));
+    }
+
+    /**
+     * Streams the upstream response to the client and returns the upstream connection to the pool.
+     * Returns true if the client connection stays open.
+     */
+    private boolean relayResponse(Exchange exchange, HttpStream client, String method, boolean clientKeepAlive)
+            throws IOException {
+        HttpHead response = exchange.response;
+        UpstreamConnection connection = exchange.connection;
+        long length = bodyLength(response, method);
+        boolean upstreamReusable = length != UNTIL_CLOSE && !closeRequested(response);
+        boolean keepAlive = clientKeepAlive && length != UNTIL_CLOSE;
+
+        HttpHead clientResponse = response.withStartLine(response.getStartLine())
+            .remove("Proxy-Connection")
+            .remove("Keep-Alive")
+            .set("Connection", keepAlive ? "keep-alive" : "close");
+        boolean completed = false;
+        try {
+            client.write(clientResponse);
+            HttpStream upstream = connection.getStream();
+            if (length == CHUNKED) {
+                upstream.copyChunked(client.output());
+            } else if (length == UNTIL_CLOSE) {
+                upstream.copyToEnd(client.output());
+            } else if (length > 0) {
+                upstream.copyFixed(length, client.output());
+            }
+            client.flush();
+            completed = true;
+        } finally {
+            exchange.pool.release(connection, completed && upstreamReusable);
+        }
+        return keepAlive;
+    }
+
+    private static void writeBuffered(HttpStream from, HttpStream to) throws IOException {
+        byte[] leftover = from.takeBuffered();
+        if (leftover.length > 0) {
+            to.write(leftover);
+        }
+    }
+
+    private static void sendError(HttpStream client, int status, String message) {
+        try {
+            client.write(errorResponse(status, message));
+            client.write(message.getBytes(StandardCharsets.UTF_8));
+            client.flush();
+        } catch (IOException e) {
+            // Client is gone
+        }
+    }
+
+    private static HttpHead errorResponse(int status, String message) {
+        String reason = status == 400 ? "Bad Request"
+            : status == 413 ? "Payload Too Large"
+            : status == 502 ? "Bad Gateway"
+            : "Service Unavailable";
+        return new HttpHead("HTTP/1.1 " + status + " " + reason)
+            .add("Content-Type", "text/plain; charset=utf-8")
+            .add("Content-Length", String.valueOf(message.getBytes(StandardCharsets.UTF_8).length))
+            .add("Connection", "close");
+    }
+
+    public String describeStats() {
+        return "clients=" + openClients.get() +
+               ", idle=" + idleClients.get() +
+               ", accepted=" + acceptedClients.sum() +
+               ", rejected=" + rejectedClients.sum() +
+               ", requests=" + forwardedRequests.sum() +
+               ", ntlmHandshakes=" + ntlmHandshakes.sum() +
+               ", preAuthenticated=" + preAuthenticatedRequests.sum() +
+               ", tunnels[" + tunnelRelay.describeStats() + "]" +
+               ", upstream[" + describeUpstreamStats() + "]";
+    }
+
+    private String describeUpstreamStats() {
+        if (upstreamPools.size() == 1) {
+            return upstreamPools.get(primaryProxy).describeStats();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<HttpHost, UpstreamConnectionPool> entry : upstreamPools.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(entry.getKey().toHostString()).append(": ").append(entry.getValue().describeStats());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Per-proxy health and selection counts, or null when only one proxy is configured.
+     */
+    public String describeProxyStats() {
+        return balancer != null ? balancer.describeStats() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            if (acceptSelector != null) {
+                // The accept loop closes the idle connections and the selector on its way out
+                acceptSelector.wakeup();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            workers.shutdownNow();
+            tunnelRelay.close();
+            for (UpstreamConnectionPool upstreamPool : upstreamPools.values()) {
+                upstreamPool.close();
+            }
+            if (balancer != null) {
+                balancer.close();
+            }
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private static final class IdleClient {
+        final HttpStream stream;
+        final long since = System.nanoTime();
+
+        IdleClient(HttpStream stream) {
+            this.stream = stream;
+        }
+    }
+
+    private static final class Exchange {
+        final UpstreamConnectionPool pool;
+        UpstreamConnection connection;
+        HttpHead response;
+
+        Exchange(UpstreamConnectionPool pool, UpstreamConnection connection) {
+            this.pool = pool;
+            this.connection = connection;
+        }
+    }
+}
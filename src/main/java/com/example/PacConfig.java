@@ -0,0 +1,61 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Proxy auto-config (PAC) script used to choose the proxy, or a direct connection, per host
+ */
+@Component
+@ConfigurationProperties(prefix = "app.pac")
+public class PacConfig {
+    private String url = "";
+    private int fetchTimeoutMs = 10000;
+    private int cacheMaxEntries = 1000;
+    private int cacheTtlSeconds = 300;
+    private String credentialProxies = "";
+
+    public PacConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public int getFetchTimeoutMs() {
+        return fetchTimeoutMs;
+    }
+
+    public void setFetchTimeoutMs(int fetchTimeoutMs) {
+        this.fetchTimeoutMs = fetchTimeoutMs;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public int getCacheTtlSeconds() {
+        return cacheTtlSeconds;
+    }
+
+    public void setCacheTtlSeconds(int cacheTtlSeconds) {
+        this.cacheTtlSeconds = cacheTtlSeconds;
+    }
+
+    public String getCredentialProxies() {
+        return credentialProxies;
+    }
+
+    public void setCredentialProxies(String credentialProxies) {
+        this.credentialProxies = credentialProxies;
+    }
+}
@@ -0,0 +1,470 @@
+package com.example;
+
+import org.apache.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses the proxy per host from a proxy auto-config (PAC) script.
+ *
+ * <p>The script is fetched once (directly, never through a proxy) and compiled together with the
+ * standard PAC helper functions; DNS helpers resolve through {@link CachingDnsResolver}. Each
+ * {@code FindProxyForURL} answer is cached per scheme, host and port in a bounded LRU map for
+ * {@code app.pac.cache-ttl-seconds}, so the script runs once per host rather than per request.
+ * Like browsers do for https, the script only sees the URL up to the port, which is what makes the
+ * per-host answer reusable.
+ */
+public class PacProxySelector extends ProxySelector {
+
+    private static final Logger logger = LoggerFactory.getLogger(PacProxySelector.class);
+
+    private static volatile PacProxySelector defaultSelector;
+
+    // A failing script is retried per host after at most this long rather than on every request
+    private static final long FAILURE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // Helper functions from the PAC specification. The DNS ones call back into PacFunctions, which
+    // is only reachable through their closure: the __pac binding is removed before the script runs
+    private static final String PAC_FUNCTIONS = String.join("\n",
+        "function isPlainHostName(host) { return host.indexOf('.') < 0; }",
+        "function dnsDomainIs(host, domain) {",
+        "  return host.length >= domain.length && host.substring(host.length - domain.length) == domain;",
+        "}",
+        "function localHostOrDomainIs(host, hostdom) { return host == hostdom || hostdom.indexOf(host + '.') == 0; }",
+        "function dnsDomainLevels(host) { return host.split('.').length - 1; }",
+        "function shExpMatch(str, shexp) {",
+        "  var re = shexp.replace(/[.+^${}()|[\\]\\\\]/g, '\\\\$&').replace(/\\*/g, '.*').replace(/\\?/g, '.');",
+        "  return new RegExp('^' + re + '$').test(str);",
+        "}",
+        "var dnsResolve, isResolvable, isInNet, myIpAddress;",
+        "(function (pac) {",
+        "  dnsResolve = function (host) { var ip = pac.dnsResolve(host); return ip == null ? null : '' + ip; };",
+        "  isResolvable = function (host) { return pac.dnsResolve(host) != null; };",
+        "  isInNet = function (host, pattern, mask) { return pac.isInNet(host, pattern, mask); };",
+        "  myIpAddress = function () { return '' + pac.myIpAddress(); };",
+        "})(__pac);",
+        "function weekdayRange(wd1, wd2, gmt) {",
+        "  var days = ['SUN', 'MON', 'TUE', 'WED', 'THU', 'FRI', 'SAT'];",
+        "  if (wd2 == 'GMT') { gmt = wd2; wd2 = undefined; }",
+        "  var now = new Date(), today = gmt == 'GMT' ? now.getUTCDay() : now.getDay();",
+        "  var from = days.indexOf(wd1), to = wd2 === undefined ? from : days.indexOf(wd2);",
+        "  return from <= to ? today >= from && today <= to : today >= from || today <= to;",
+        "}",
+        "function timeRange() {",
+        "  var args = Array.prototype.slice.call(arguments), gmt = args[args.length - 1] == 'GMT';",
+        "  if (gmt) { args.pop(); }",
+        "  var now = new Date(), hour = gmt ? now.getUTCHours() : now.getHours();",
+        "  if (args.length == 1) { return hour == args[0]; }",
+        "  if (args.length == 2) { return args[0] <= args[1] ? hour >= args[0] && hour < args[1] : hour >= args[0] || hour < args[1]; }",
+        "  var seconds = hour * 3600 + (gmt ? now.getUTCMinutes() : now.getMinutes()) * 60 + (gmt ? now.getUTCSeconds() : now.getSeconds());",
+        "  var half = args.length / 2;",
+        "  var from = args[0] * 3600 + args[1] * 60 + (half == 3 ? args[2] : 0);",
+        "  var to = args[half] * 3600 + args[half + 1] * 60 + (half == 3 ? args[half + 2] : 0);",
+        "  return from <= to ? seconds >= from && seconds < to : seconds >= from || seconds < to;",
+        "}",
+        "function dateRange() {",
+        "  var args = Array.prototype.slice.call(arguments), gmt = args[args.length - 1] == 'GMT';",
+        "  if (gmt) { args.pop(); }",
+        "  var months = ['JAN', 'FEB', 'MAR', 'APR', 'MAY', 'JUN', 'JUL', 'AUG', 'SEP', 'OCT', 'NOV', 'DEC'];",
+        "  var now = new Date(), today = { d: gmt ? now.getUTCDate() : now.getDate(),",
+        "    m: gmt ? now.getUTCMonth() : now.getMonth(), y: gmt ? now.getUTCFullYear() : now.getFullYear() };",
+        "  function date(values) {",
+        "    var parts = {};",
+        "    for (var i = 0; i < values.length; i++) {",
+        "      var month = months.indexOf(values[i]);",
+        "      if (month >= 0) { parts.m = month; } else if (values[i] > 31) { parts.y = +values[i]; } else { parts.d = +values[i]; }",
+        "    }",
+        "    return parts;",
+        "  }",
+        "  var from = date(args.length == 1 ? args : args.slice(0, args.length / 2));",
+        "  var to = date(args.length == 1 ? args : args.slice(args.length / 2));",
+        "  function key(parts) {",
+        "    return (from.y !== undefined ? parts.y * 10000 : 0) + (from.m !== undefined ? parts.m * 100 : 0) + (from.d !== undefined ? parts.d : 0);",
+        "  }",
+        "  var lo = key(from), hi = key(to), current = key(today);",
+        "  return lo <= hi ? current >= lo && current <= hi : current >= lo || current <= hi;",
+        "}",
+        "");
+
+    private final String source;
+    private final ScriptEngine engine;
+    private final Map<String, Decision> decisions;
+    private final long ttlMillis;
+    private final Set<HttpHost> credentialProxies;
+    private final List<Proxy> fallback;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder scriptErrors = new LongAdder();
+    private final LongAdder evaluationNanos = new LongAdder();
+
+    PacProxySelector(String source, String script, PacConfig config, List<HttpHost> configuredProxies)
+        throws ScriptException {
+        this.source = source;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(config.getCacheTtlSeconds());
+        int maxEntries = Math.max(1, config.getCacheMaxEntries());
+        this.decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.credentialProxies = new HashSet<>();
+        for (String proxy : config.getCredentialProxies().split(",")) {
+            if (!proxy.trim().isEmpty()) {
+                credentialProxies.add(HttpHost.create(proxy.trim().toLowerCase(Locale.ROOT)));
+            }
+        }
+
+        this.fallback = configuredProxies.isEmpty()
+            ? Collections.singletonList(Proxy.NO_PROXY) : Collections.unmodifiableList(toProxies(configuredProxies));
+
+        this.engine = sandboxedEngine();
+        engine.put("__pac", new PacFunctions());
+        eval(PAC_FUNCTIONS);
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).remove("__pac");
+        eval(script);
+        if (engine.get("FindProxyForURL") == null) {
+            throw new ScriptException("Script does not define FindProxyForURL");
+        }
+    }
+
+    private void eval(String program) throws ScriptException {
+        if (engine instanceof Compilable) {
+            ((Compilable) engine).compile(program).eval();
+        } else {
+            engine.eval(program);
+        }
+    }
+
+    /**
+     * Nashorn without Java access: {@code --no-java} removes {@code Java}, {@code Packages} and the
+     * package globals, and a deny-all ClassFilter stops any class lookup from script code. PAC files
+     * usually arrive over plain http, so the script must not be able to reach the JVM. The engine is
+     * looked up reflectively because it lives in {@code jdk.nashorn} on Java 8-14 and in the
+     * standalone {@code org.openjdk.nashorn} (the {@code pac} profile) on Java 15+.
+     */
+    private static ScriptEngine sandboxedEngine() throws ScriptException {
+        for (String api : new String[] {"org.openjdk.nashorn.api.scripting", "jdk.nashorn.api.scripting"}) {
+            Class<?> factoryClass;
+            Class<?> filterClass;
+            try {
+                factoryClass = Class.forName(api + ".NashornScriptEngineFactory");
+                filterClass = Class.forName(api + ".ClassFilter");
+            } catch (ClassNotFoundException | LinkageError e) {
+                continue;
+            }
+            Object denyAll = java.lang.reflect.Proxy.newProxyInstance(
+                filterClass.getClassLoader(), new Class<?>[] {filterClass}, (filter, method, args) -> {
+                    switch (method.getName()) {
+                        case "exposeToScripts":
+                            return Boolean.FALSE;
+                        case "hashCode":
+                            return System.identityHashCode(filter);
+                        case "equals":
+                            return filter == args[0];
+                        default:
+                            return "deny-all";
+                    }
+                });
+            try {
+                Object factory = factoryClass.getConstructor().newInstance();
+                return (ScriptEngine) factoryClass
+                    .getMethod("getScriptEngine", String[].class, ClassLoader.class, filterClass)
+                    .invoke(factory, new String[] {"--no-java", "--no-syntax-extensions"},
+                            PacProxySelector.class.getClassLoader(), denyAll);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new ScriptException("Cannot create a sandboxed JavaScript engine: " + e);
+            }
+        }
+        throw new ScriptException("No JavaScript engine available; run on Java 8-14 or build with -Ppac (Nashorn)");
+    }
+
+    /**
+     * Returns the process-wide selector, or null when no PAC script is configured or it could not be loaded.
+     */
+    public static PacProxySelector getDefault() {
+        return defaultSelector;
+    }
+
+    /**
+     * @param configuredProxies the proxies to use when the script fails, as {@link #select} answers
+     */
+    public static synchronized PacProxySelector configure(PacConfig config, List<HttpHost> configuredProxies) {
+        defaultSelector = null;
+        String source = config.getUrl();
+        if (source == null || source.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            long start = System.nanoTime();
+            String script = load(source.trim(), config.getFetchTimeoutMs());
+            defaultSelector = new PacProxySelector(source, script, config, configuredProxies);
+            logger.info("PAC script {} loaded and compiled in {} ms; decisions cached for up to {} hosts for {}s",
+                        source, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        config.getCacheMaxEntries(), config.getCacheTtlSeconds());
+        } catch (IOException | ScriptException e) {
+            logger.warn("PAC script {} not used, requests go through the configured proxy: {}", source, e.getMessage());
+        }
+        return defaultSelector;
+    }
+
+    private static String load(String source, int timeoutMs) throws IOException {
+        if (!source.contains("://")) {
+            return new String(Files.readAllBytes(Paths.get(source)), StandardCharsets.UTF_8);
+        }
+        // The PAC file itself is always fetched directly
+        URLConnection connection = new URL(source).openConnection(Proxy.NO_PROXY);
+        connection.setConnectTimeout(timeoutMs);
+        connection.setReadTimeout(timeoutMs);
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status != 200) {
+                throw new IOException("HTTP " + status + " fetching " + source);
+            }
+        }
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Proxies the script chose for this URL, in order of preference. An empty list means connect
+     * directly; null means the script failed and the configured proxy should be used.
+     */
+    public List<HttpHost> proxiesFor(URI uri) {
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "http";
+        String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : "";
+        String key = scheme + "://" + host + (uri.getPort() >= 0 ? ":" + uri.getPort() : "");
+        long now = System.currentTimeMillis();
+
+        Decision cached = cached(key, now);
+        if (cached != null) {
+            return cached.proxies;
+        }
+        // Script engines are not safe for concurrent calls; threads that queued up behind the
+        // evaluation for the same host find its answer once they get the engine
+        synchronized (engine) {
+            cached = cached(key, now);
+            if (cached != null) {
+                return cached.proxies;
+            }
+            misses.increment();
+            List<HttpHost> proxies = evaluate(key + "/", host);
+            // Failures are remembered too, so a broken script is not rerun and logged for every request
+            long ttl = proxies != null ? ttlMillis : Math.min(ttlMillis, FAILURE_TTL_MILLIS);
+            synchronized (decisions) {
+                decisions.put(key, new Decision(proxies, now + ttl));
+            }
+            return proxies;
+        }
+    }
+
+    private Decision cached(String key, long now) {
+        synchronized (decisions) {
+            Decision decision = decisions.get(key);
+            if (decision != null && now < decision.expiresAt) {
+                hits.increment();
+                return decision;
+            }
+            return null;
+        }
+    }
+
+    private List<HttpHost> evaluate(String url, String host) {
+        long start = System.nanoTime();
+        try {
+            Object result = ((Invocable) engine).invokeFunction("FindProxyForURL", url, host);
+            List<HttpHost> proxies = parse(result != null ? result.toString() : "");
+            logger.debug("PAC {} -> {}", url, result);
+            if (proxies == null) {
+                scriptErrors.increment();
+                logger.warn("PAC returned no usable proxy for {}: {}", url, result);
+            }
+            return proxies;
+        } catch (ScriptException | NoSuchMethodException | RuntimeException e) {
+            scriptErrors.increment();
+            logger.warn("PAC evaluation failed for {}: {}", url, e.getMessage());
+            return null;
+        } finally {
+            evaluationNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Parses a result such as {@code "PROXY a:8080; PROXY b:8080; DIRECT"}. Entries after DIRECT are
+     * never used; SOCKS and other types are skipped because only HTTP proxies are supported.
+     */
+    static List<HttpHost> parse(String result) {
+        List<HttpHost> proxies = new ArrayList<>();
+        for (String element : result.split(";")) {
+            String[] parts = element.trim().split("\\s+");
+            String type = parts[0].toUpperCase(Locale.ROOT);
+            if (type.isEmpty() || "DIRECT".equals(type)) {
+                return proxies;
+            }
+            if (("PROXY".equals(type) || "HTTP".equals(type)) && parts.length == 2) {
+                proxies.add(HttpHost.create(parts[1]));
+            }
+        }
+        return proxies.isEmpty() ? null : proxies;
+    }
+
+    /**
+     * The script's proxies, {@link Proxy#NO_PROXY} for DIRECT, or the configured proxies when the
+     * script failed.
+     */
+    @Override
+    public List<Proxy> select(URI uri) {
+        List<HttpHost> proxies = proxiesFor(uri);
+        if (proxies == null) {
+            return fallback;
+        }
+        if (proxies.isEmpty()) {
+            return Collections.singletonList(Proxy.NO_PROXY);
+        }
+        return toProxies(proxies);
+    }
+
+    private static List<Proxy> toProxies(List<HttpHost> proxies) {
+        List<Proxy> selected = new ArrayList<>();
+        for (HttpHost proxy : proxies) {
+            selected.add(new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved(
+                proxy.getHostName(), proxy.getPort() >= 0 ? proxy.getPort() : 80)));
+        }
+        return selected;
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress address, IOException e) {
+        // Failover between proxies is handled by ProxyBalancer
+    }
+
+    /**
+     * Whether NTLM credentials may be offered to a proxy named by the script; the configured
+     * proxies are always trusted by the client, others only when listed in
+     * {@code app.pac.credential-proxies}.
+     */
+    public boolean mayAuthenticate(HttpHost proxy) {
+        return credentialProxies.contains(
+            new HttpHost(proxy.getHostName().toLowerCase(Locale.ROOT), proxy.getPort(), proxy.getSchemeName()));
+    }
+
+    public String describeStats() {
+        int cached;
+        synchronized (decisions) {
+            cached = decisions.size();
+        }
+        long evaluations = misses.sum();
+        return "script=" + source +
+               ", hosts cached=" + cached +
+               ", hits=" + hits.sum() +
+               ", evaluations=" + evaluations +
+               ", errors=" + scriptErrors.sum() +
+               ", mean evaluation=" + (evaluations > 0 ? evaluationNanos.sum() / evaluations / 1000 : 0) + " us";
+    }
+
+    private static final class Decision {
+        final List<HttpHost> proxies;
+        final long expiresAt;
+
+        /** Null proxies record a failed evaluation */
+        Decision(List<HttpHost> proxies, long expiresAt) {
+            this.proxies = proxies != null ? Collections.unmodifiableList(proxies) : null;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * DNS helpers called from the script; public so the script engine can reach them.
+     */
+    public static final class PacFunctions {
+
+        public String dnsResolve(String host) {
+            try {
+                for (InetAddress address : CachingDnsResolver.getDefault().resolve(host)) {
+                    if (address instanceof Inet4Address) {
+                        return address.getHostAddress();
+                    }
+                }
+            } catch (UnknownHostException e) {
+                // Unresolvable hosts are null to the script
+            }
+            return null;
+        }
+
+        public boolean isInNet(String host, String pattern, String mask) {
+            String ip = dnsResolve(host);
+            if (ip == null) {
+                return false;
+            }
+            long address = ipv4(ip);
+            long netmask = ipv4(mask);
+            return address >= 0 && netmask >= 0 && (address & netmask) == (ipv4(pattern) & netmask);
+        }
+
+        public String myIpAddress() {
+            try {
+                return InetAddress.getLocalHost().getHostAddress();
+            } catch (UnknownHostException e) {
+                return "127.0.0.1";
+            }
+        }
+
+        private static long ipv4(String dotted) {
+            String[] octets = dotted.trim().split("\\.");
+            if (octets.length != 4) {
+                return -1;
+            }
+            long value = 0;
+            for (String octet : octets) {
+                try {
+                    value = value << 8 | (Integer.parseInt(octet) & 0xff);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            return value;
+        }
+    }
+}
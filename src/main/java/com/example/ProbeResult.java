@@ -0,0 +1,124 @@
+package com.example;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one diagnostic probe (DNS lookup, TCP connect, TLS handshake, truststore check),
+ * shared by the diagnostic tools and serialized into the JSON report.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProbeResult {
+
+    public enum Status { OK, FAILED, SKIPPED, TIMEOUT }
+
+    private final String probe;
+    private final String target;
+    private final String variant;
+    private Status status;
+    private long durationMs;
+    private String detail;
+    private String error;
+    private String errorType;
+    private InetAddress[] addresses;
+
+    public ProbeResult(String probe, String target, String variant) {
+        this.probe = probe;
+        this.target = target;
+        this.variant = variant;
+    }
+
+    ProbeResult ok(String detail, long startNanos) {
+        return finish(Status.OK, detail, null, startNanos);
+    }
+
+    ProbeResult failed(Throwable e, long startNanos) {
+        this.errorType = e.getClass().getSimpleName();
+        return finish(Status.FAILED, null, e.getMessage(), startNanos);
+    }
+
+    ProbeResult skipped(String reason) {
+        return finish(Status.SKIPPED, null, reason, 0);
+    }
+
+    ProbeResult timedOut(long deadlineMs) {
+        return finish(Status.TIMEOUT, null, "Not finished within the " + deadlineMs + " ms deadline", 0);
+    }
+
+    private ProbeResult finish(Status status, String detail, String error, long startNanos) {
+        this.status = status;
+        this.detail = detail;
+        this.error = error;
+        this.durationMs = startNanos > 0 ? (System.nanoTime() - startNanos) / 1_000_000 : 0;
+        return this;
+    }
+
+    ProbeResult withAddresses(InetAddress[] addresses) {
+        this.addresses = addresses;
+        return this;
+    }
+
+    public String getProbe() {
+        return probe;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getErrorType() {
+        return errorType;
+    }
+
+    public List<String> getAddresses() {
+        if (addresses == null) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            values.add(address.getHostAddress());
+        }
+        return values;
+    }
+
+    /** Resolved addresses, handed to the probes that depend on this lookup */
+    @JsonIgnore
+    public InetAddress[] getResolvedAddresses() {
+        return addresses;
+    }
+
+    @JsonIgnore
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    @Override
+    public String toString() {
+        return probe + " " + target + (variant != null ? " " + variant : "") + ": " + status +
+               (detail != null ? " - " + detail : "") + (errorType != null ? " - " + errorType : "") + (error != null ? ": " + error : "");
+    }
+}
@@ -16,20 +16,18 @@ public class ProxyArgumentParser {
     public void parseProxyArguments(String[] args) {
         logger.info("Checking proxy configuration from application.properties and command line arguments");
         logCurrentConfig();
+        boolean hostFromCommandLine = false;
         
         for (int i = 0; i < args.length; i++) {
             if ("-proxyHost".equals(args[i]) && i + 1 < args.length) {
-                if (proxyConfig.isHostEmpty()) {
-                    String host = args[i + 1];
-                    if (host.startsWith("http://")) {
-                        host = host.substring(7);
-                    } else if (host.startsWith("https://")) {
-                        host = host.substring(8);
-                    }
+                if (proxyConfig.isHostEmpty() || hostFromCommandLine) {
+                    // -proxyHost may be repeated, or given a comma-separated list, to configure several proxies
+                    String host = hostFromCommandLine ? proxyConfig.getHosts() + "," + args[i + 1] : args[i + 1];
                     proxyConfig.setHost(host);
-                    logger.info("Proxy host set from command line to: {}", host);
+                    hostFromCommandLine = true;
+                    logger.info("Proxy host set from command line to: {}", proxyConfig.getHosts());
                 } else {
-                    logger.info("Proxy host already configured in application.properties: {}", proxyConfig.getHost());
+                    logger.info("Proxy host already configured in application.properties: {}", proxyConfig.getHosts());
                 }
             } else if ("-proxyPort".equals(args[i]) && i + 1 < args.length) {
                 if (proxyConfig.isPortEmpty()) {
@@ -55,6 +53,20 @@ public class ProxyArgumentParser {
                     logger.info("Proxy password already configured in application.properties (length: {})", 
                                proxyConfig.getPassword() != null ? proxyConfig.getPassword().length() : 0);
                 }
+            } else if ("-warmPoolSize".equals(args[i]) && i + 1 < args.length) {
+                if (proxyConfig.getWarmPoolSize() == 0) {
+                    proxyConfig.setWarmPoolSize(Integer.parseInt(args[i + 1]));
+                    logger.info("Warm pool size set from command line to: {}", args[i + 1]);
+                } else {
+                    logger.info("Warm pool size already configured in application.properties: {}", proxyConfig.getWarmPoolSize());
+                }
+            } else if ("-warmTargets".equals(args[i]) && i + 1 < args.length) {
+                if (proxyConfig.isEmpty(proxyConfig.getWarmTargets())) {
+                    proxyConfig.setWarmTargets(args[i + 1]);
+                    logger.info("Warm targets set from command line to: {}", args[i + 1]);
+                } else {
+                    logger.info("Warm targets already configured in application.properties: {}", proxyConfig.getWarmTargets());
+                }
             } else if ("-proxyDomain".equals(args[i]) && i + 1 < args.length) {
                 if (proxyConfig.isDomainEmpty()) {
                     proxyConfig.setDomain(args[i + 1]);
@@ -70,10 +82,13 @@ public class ProxyArgumentParser {
     }
     
     private void logCurrentConfig() {
-        logger.info("  Host: {}", proxyConfig.isEmpty(proxyConfig.getHost()) ? "<empty>" : proxyConfig.getHost());
+        logger.info("  Host: {}", proxyConfig.isHostEmpty() ? "<empty>" : proxyConfig.getHosts());
         logger.info("  Port: {}", proxyConfig.isEmpty(proxyConfig.getPort()) ? "<empty>" : proxyConfig.getPort());
         logger.info("  Username: {}", proxyConfig.isEmpty(proxyConfig.getUsername()) ? "<empty>" : proxyConfig.getUsername());
         logger.info("  Password: {}", proxyConfig.isEmpty(proxyConfig.getPassword()) ? "<empty>" : "<configured>");
         logger.info("  Domain: {}", proxyConfig.isEmpty(proxyConfig.getDomain()) ? "<empty>" : proxyConfig.getDomain());
+        if (proxyConfig.getWarmPoolSize() > 0) {
+            logger.info("  Warm pool: {} per target for {}", proxyConfig.getWarmPoolSize(), proxyConfig.getWarmTargets());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+package com.example;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.DnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Picks one of several upstream proxies per request.
+ *
+ * <p>Each proxy keeps a peak-sensitive EWMA of its response latency (a slower sample replaces the
+ * average at once, faster samples decay it over {@code ewmaDecaySeconds}) and a count of requests
+ * in flight. A request goes to the proxy with the lowest {@code ewma * (outstanding + 1)}, so a node
+ * that is slow or already busy gets less traffic. After {@code failureThreshold} consecutive
+ * failures a proxy is drained, and a background probe reinstates it once a TCP connect succeeds
+ * again. If every proxy is drained, the one drained longest ago is used rather than failing.
+ */
+public class ProxyBalancer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProxyBalancer.class);
+
+    private final List<ProxyState> states;
+    private final ProxySelectionConfig config;
+    private final DnsResolver dnsResolver;
+    private final ScheduledExecutorService prober;
+
+    public ProxyBalancer(List<HttpHost> proxies, ProxySelectionConfig config, DnsResolver dnsResolver) {
+        List<ProxyState> created = new ArrayList<>();
+        for (HttpHost proxy : proxies) {
+            created.add(new ProxyState(proxy));
+        }
+        this.states = Collections.unmodifiableList(created);
+        this.config = config;
+        this.dnsResolver = dnsResolver;
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "proxy-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probeDrained, config.getProbeIntervalSeconds(),
+                                      config.getProbeIntervalSeconds(), TimeUnit.SECONDS);
+        logger.info("Balancing requests across {} proxies: {}", proxies.size(), proxies);
+    }
+
+    /**
+     * Chooses a proxy for one request. The caller must report the outcome on the returned selection.
+     */
+    public Selection select() {
+        ProxyState chosen = choose();
+        chosen.outstanding.incrementAndGet();
+        chosen.selected.increment();
+        return new Selection(chosen);
+    }
+
+    /**
+     * Returns the proxy {@link #select()} would choose, without counting a request against it.
+     */
+    public HttpHost peek() {
+        return choose().proxy;
+    }
+
+    public List<HttpHost> getProxies() {
+        List<HttpHost> proxies = new ArrayList<>();
+        for (ProxyState state : states) {
+            proxies.add(state.proxy);
+        }
+        return proxies;
+    }
+
+    private ProxyState choose() {
+        ProxyState best = null;
+        double bestCost = Double.MAX_VALUE;
+        ProxyState longestDrained = null;
+        long now = System.nanoTime();
+        for (ProxyState state : states) {
+            if (state.drained) {
+                if (longestDrained == null || state.drainedAt < longestDrained.drainedAt) {
+                    longestDrained = state;
+                }
+                continue;
+            }
+            // +1 ms keeps proxies without samples comparable by their outstanding count
+            double cost = (state.currentEwma(now, decayNanos()) + 1.0) * (state.outstanding.get() + 1);
+            // Random tie-break so equal proxies share the load
+            if (cost < bestCost || (cost == bestCost && ThreadLocalRandom.current().nextBoolean())) {
+                best = state;
+                bestCost = cost;
+            }
+        }
+        return best != null ? best : longestDrained;
+    }
+
+    private long decayNanos() {
+        return TimeUnit.SECONDS.toNanos(Math.max(1, config.getEwmaDecaySeconds()));
+    }
+
+    private void probeDrained() {
+        for (ProxyState state : states) {
+            if (!state.drained) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                InetSocketAddress address = new InetSocketAddress(
+                    dnsResolver.resolve(state.proxy.getHostName())[0], state.proxy.getPort());
+                socket.connect(address, config.getProbeTimeoutMs());
+                reinstate(state, (System.nanoTime() - start) / 1_000_000.0);
+            } catch (Exception e) {
+                logger.debug("Probe of drained proxy {} failed: {}", state.proxy, e.getMessage());
+            }
+        }
+    }
+
+    private void reinstate(ProxyState state, double probeMs) {
+        // Start from the healthy proxies' average so the returning node is not flooded by a low score
+        double sum = 0;
+        int healthy = 0;
+        long now = System.nanoTime();
+        for (ProxyState other : states) {
+            if (!other.drained && other.samples.sum() > 0) {
+                sum += other.currentEwma(now, decayNanos());
+                healthy++;
+            }
+        }
+        synchronized (state) {
+            state.ewmaMs = healthy > 0 ? Math.max(probeMs, sum / healthy) : probeMs;
+            state.updatedAt = now;
+            state.consecutiveFailures = 0;
+            state.drained = false;
+        }
+        logger.info("Proxy {} answered a probe in {} ms, back in rotation", state.proxy, String.format(Locale.ROOT, "%.1f", probeMs));
+    }
+
+    private void recordSuccess(ProxyState state, double latencyMs) {
+        long now = System.nanoTime();
+        synchronized (state) {
+            double weight = Math.exp(-Math.max(0, now - state.updatedAt) / (double) decayNanos());
+            state.ewmaMs = state.samples.sum() == 0 || latencyMs > state.ewmaMs
+                ? latencyMs
+                : state.ewmaMs * weight + latencyMs * (1 - weight);
+            state.updatedAt = now;
+            state.consecutiveFailures = 0;
+        }
+        state.samples.increment();
+    }
+
+    private void recordFailure(ProxyState state, String reason) {
+        state.failures.increment();
+        synchronized (state) {
+            state.consecutiveFailures++;
+            if (!state.drained && state.consecutiveFailures >= config.getFailureThreshold()) {
+                state.drained = true;
+                state.drainedAt = System.nanoTime();
+                logger.warn("Draining proxy {} after {} consecutive failures (last: {})",
+                            state.proxy, state.consecutiveFailures, reason);
+            }
+        }
+    }
+
+    /**
+     * One line per proxy with its state, latency estimate and counters.
+     */
+    public String describeStats() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.nanoTime();
+        for (ProxyState state : states) {
+            if (sb.length() > 0) {
+                sb.append(System.lineSeparator());
+            }
+            sb.append(String.format(Locale.ROOT, "%s %s ewma=%.1fms outstanding=%d selected=%d failures=%d",
+                state.proxy.toHostString(), state.drained ? "DRAINED" : "healthy",
+                state.currentEwma(now, decayNanos()), state.outstanding.get(),
+                state.selected.sum(), state.failures.sum()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        prober.shutdownNow();
+    }
+
+    /**
+     * A request routed to one proxy. Report exactly one outcome.
+     */
+    public final class Selection {
+
+        private final ProxyState state;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Selection(ProxyState state) {
+            this.state = state;
+        }
+
+        public HttpHost getProxy() {
+            return state.proxy;
+        }
+
+        /** The proxy answered; latency is measured from selection to now. */
+        public void success() {
+            if (done.compareAndSet(false, true)) {
+                state.outstanding.decrementAndGet();
+                recordSuccess(state, (System.nanoTime() - startNanos) / 1_000_000.0);
+            }
+        }
+
+        public void failure(String reason) {
+            if (done.compareAndSet(false, true)) {
+                state.outstanding.decrementAndGet();
+                recordFailure(state, reason);
+            }
+        }
+
+        /** The request never got an answer that says anything about the proxy (aborted or not sent). */
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                state.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class ProxyState {
+        final HttpHost proxy;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final LongAdder selected = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder samples = new LongAdder();
+        volatile double ewmaMs;
+        volatile long updatedAt = System.nanoTime();
+        volatile boolean drained;
+        volatile long drainedAt;
+        int consecutiveFailures;
+
+        ProxyState(HttpHost proxy) {
+            this.proxy = proxy;
+        }
+
+        /** EWMA decayed toward zero for the time since the last sample, so idle proxies get retried */
+        double currentEwma(long now, long decayNanos) {
+            double elapsed = Math.max(0, now - updatedAt);
+            return ewmaMs * Math.exp(-elapsed / decayNanos);
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.example;
 
+import org.apache.http.HttpHost;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Component
 @ConfigurationProperties(prefix = "app.proxy")
 public class ProxyConfig {
@@ -12,27 +16,83 @@ public class ProxyConfig {
     private String username;
     private String password;
     private String domain;
+    private int warmPoolSize = 0;
+    private String warmTargets = "";
+    private int warmTopUpSeconds = 10;
 
     public ProxyConfig() {
         // Configuration will be automatically injected by Spring from application.properties
     }
 
+    /**
+     * Host name of the first (primary) proxy. With several proxies configured, use {@link #getProxies()}.
+     */
     public String getHost() {
+        if (host == null || !host.contains(",") && !host.contains(":")) {
+            return host;
+        }
+        List<HttpHost> proxies = getProxies();
+        return proxies.isEmpty() ? host : proxies.get(0).getHostName();
+    }
+
+    /**
+     * The host setting as configured: one proxy, or a comma-separated list of {@code host[:port]} entries.
+     */
+    public String getHosts() {
         return host;
     }
 
     public void setHost(String host) {
         if (host != null) {
-            // Clean up hostname - remove http:// or https:// prefix if present
-            if (host.startsWith("http://")) {
-                host = host.substring(7);
-            } else if (host.startsWith("https://")) {
-                host = host.substring(8);
+            // Clean up hostnames - remove http:// or https:// prefix if present
+            StringBuilder cleaned = new StringBuilder();
+            for (String entry : host.split(",")) {
+                entry = entry.trim();
+                if (entry.startsWith("http://")) {
+                    entry = entry.substring(7);
+                } else if (entry.startsWith("https://")) {
+                    entry = entry.substring(8);
+                }
+                if (entry.endsWith("/")) {
+                    entry = entry.substring(0, entry.length() - 1);
+                }
+                if (cleaned.length() > 0) {
+                    cleaned.append(',');
+                }
+                cleaned.append(entry);
             }
+            host = cleaned.toString();
         }
         this.host = host;
     }
 
+    /**
+     * All configured proxies. Entries without an explicit port use the configured port.
+     */
+    public List<HttpHost> getProxies() {
+        List<HttpHost> proxies = new ArrayList<>();
+        if (isHostEmpty()) {
+            return proxies;
+        }
+        for (String entry : host.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon > 0 && entry.indexOf(':') == colon) {
+                try {
+                    proxies.add(new HttpHost(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1))));
+                    continue;
+                } catch (NumberFormatException e) {
+                    // Not a port, treat the whole entry as a host name
+                }
+            }
+            proxies.add(new HttpHost(entry, defaultPort()));
+        }
+        return proxies;
+    }
+
     public String getPort() {
         return port;
     }
@@ -59,7 +119,16 @@ public class ProxyConfig {
 
     public boolean isProxyEnabled() {
         return host != null && !host.trim().isEmpty() && 
-               port != null && !port.trim().isEmpty();
+               (port != null && !port.trim().isEmpty() || hasPortPerHost());
+    }
+
+    private boolean hasPortPerHost() {
+        for (String entry : host.split(",")) {
+            if (!entry.trim().matches(".+:\\d+")) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public boolean hasCredentials() {
@@ -75,7 +144,15 @@ public class ProxyConfig {
         this.domain = domain;
     }
 
+    /**
+     * Port of the first (primary) proxy.
+     */
     public int getPortAsInt() {
+        List<HttpHost> proxies = getProxies();
+        return proxies.isEmpty() ? defaultPort() : proxies.get(0).getPort();
+    }
+
+    private int defaultPort() {
         try {
             return Integer.parseInt(port);
         } catch (NumberFormatException e) {
@@ -83,6 +160,76 @@ public class ProxyConfig {
         }
     }
     
+    /**
+     * Connections to open ahead of the workload for each warm target (0 = no pre-warming).
+     */
+    public int getWarmPoolSize() {
+        return warmPoolSize;
+    }
+
+    public void setWarmPoolSize(int warmPoolSize) {
+        this.warmPoolSize = warmPoolSize;
+    }
+
+    /**
+     * Comma-separated targets to pre-warm, as URLs or {@code host:port} (port 443 means https).
+     */
+    public String getWarmTargets() {
+        return warmTargets;
+    }
+
+    public void setWarmTargets(String warmTargets) {
+        this.warmTargets = warmTargets;
+    }
+
+    public int getWarmTopUpSeconds() {
+        return warmTopUpSeconds;
+    }
+
+    public void setWarmTopUpSeconds(int warmTopUpSeconds) {
+        this.warmTopUpSeconds = warmTopUpSeconds;
+    }
+
+    /**
+     * The warm targets with scheme and port filled in, as the client's routes use them.
+     */
+    public List<HttpHost> getWarmTargetHosts() {
+        List<HttpHost> targets = new ArrayList<>();
+        if (isEmpty(warmTargets)) {
+            return targets;
+        }
+        for (String entry : warmTargets.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String scheme = null;
+            int separator = entry.indexOf("://");
+            if (separator > 0) {
+                scheme = entry.substring(0, separator).toLowerCase();
+                entry = entry.substring(separator + 3);
+            }
+            int slash = entry.indexOf('/');
+            if (slash >= 0) {
+                entry = entry.substring(0, slash);
+            }
+            int colon = entry.lastIndexOf(':');
+            int port = -1;
+            if (colon > 0) {
+                port = Integer.parseInt(entry.substring(colon + 1));
+                entry = entry.substring(0, colon);
+            }
+            if (scheme == null) {
+                scheme = port == 443 || port == -1 ? "https" : "http";
+            }
+            if (port == -1) {
+                port = "https".equals(scheme) ? 443 : 80;
+            }
+            targets.add(new HttpHost(entry, port, scheme));
+        }
+        return targets;
+    }
+    
     public boolean isEmpty(String value) {
         return value == null || value.trim().isEmpty();
     }
@@ -0,0 +1,52 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Latency tracking, draining and probing settings used when several proxies are configured
+ */
+@Component
+@ConfigurationProperties(prefix = "app.proxy.selection")
+public class ProxySelectionConfig {
+    private int ewmaDecaySeconds = 10;
+    private int failureThreshold = 3;
+    private int probeIntervalSeconds = 5;
+    private int probeTimeoutMs = 2000;
+
+    public ProxySelectionConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public int getEwmaDecaySeconds() {
+        return ewmaDecaySeconds;
+    }
+
+    public void setEwmaDecaySeconds(int ewmaDecaySeconds) {
+        this.ewmaDecaySeconds = ewmaDecaySeconds;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public int getProbeIntervalSeconds() {
+        return probeIntervalSeconds;
+    }
+
+    public void setProbeIntervalSeconds(int probeIntervalSeconds) {
+        this.probeIntervalSeconds = probeIntervalSeconds;
+    }
+
+    public int getProbeTimeoutMs() {
+        return probeTimeoutMs;
+    }
+
+    public void setProbeTimeoutMs(int probeTimeoutMs) {
+        this.probeTimeoutMs = probeTimeoutMs;
+    }
+}
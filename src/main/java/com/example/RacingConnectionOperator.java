@@ -0,0 +1,112 @@
+package com.example;
+
+import org.apache.http.HttpHost;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.SchemePortResolver;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.DefaultHttpClientConnectionOperator;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Connection operator for the pooled client that opens the first hop (usually the proxy) through
+ * {@link ConnectionRacer} when its name resolves to several addresses, instead of trying them one
+ * after the other with the full connect timeout each. Single-address hosts (with the address
+ * already resolved, so it is looked up once) and TLS upgrades inside CONNECT tunnels go through
+ * the default operator.
+ */
+final class RacingConnectionOperator extends DefaultHttpClientConnectionOperator {
+
+    private static final String SOCKET_FACTORY_REGISTRY = "http.socket-factory-registry";
+
+    private final Lookup<ConnectionSocketFactory> socketFactoryRegistry;
+    private final DnsResolver dnsResolver;
+    private final SchemePortResolver schemePortResolver = DefaultSchemePortResolver.INSTANCE;
+
+    RacingConnectionOperator(Lookup<ConnectionSocketFactory> socketFactoryRegistry, DnsResolver dnsResolver) {
+        super(socketFactoryRegistry, null, dnsResolver);
+        this.socketFactoryRegistry = socketFactoryRegistry;
+        this.dnsResolver = dnsResolver;
+    }
+
+    @Override
+    public void connect(ManagedHttpClientConnection conn, HttpHost host, InetSocketAddress localAddress,
+                        int connectTimeout, SocketConfig socketConfig, HttpContext context) throws IOException {
+        InetAddress[] addresses = host.getAddress() != null
+            ? new InetAddress[] {host.getAddress()}
+            : dnsResolver.resolve(host.getHostName());
+        if (addresses.length < 2) {
+            // Hand the resolved address over so the default operator does not resolve (and time) it again
+            HttpHost resolved = addresses.length == 1 && host.getAddress() == null
+                ? new HttpHost(addresses[0], host.getHostName(), host.getPort(), host.getSchemeName())
+                : host;
+            super.connect(conn, resolved, localAddress, connectTimeout, socketConfig, context);
+            return;
+        }
+
+        ConnectionSocketFactory socketFactory = socketFactory(host, context);
+        ConnectionRacer.Connector connector = new ConnectionRacer.Connector() {
+            @Override
+            public Socket createSocket() throws IOException {
+                Socket socket = socketFactory.createSocket(context);
+                configure(socket, socketConfig);
+                return socket;
+            }
+
+            @Override
+            public Socket connect(Socket socket, InetSocketAddress remote, int timeoutMs) throws IOException {
+                return socketFactory.connectSocket(timeoutMs, socket, host, remote, localAddress, context);
+            }
+        };
+        try {
+            conn.bind(ConnectionRacer.getDefault().connect(host.getHostName(), addresses, schemePortResolver.resolve(host),
+                                                           connectTimeout, connector));
+        } catch (SocketTimeoutException e) {
+            throw new ConnectTimeoutException(e, host, addresses);
+        } catch (ConnectException e) {
+            throw new HttpHostConnectException(e, host, addresses);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConnectionSocketFactory socketFactory(HttpHost host, HttpContext context) throws UnsupportedSchemeException {
+        Lookup<ConnectionSocketFactory> registry =
+            (Lookup<ConnectionSocketFactory>) context.getAttribute(SOCKET_FACTORY_REGISTRY);
+        ConnectionSocketFactory socketFactory = (registry != null ? registry : socketFactoryRegistry)
+            .lookup(host.getSchemeName());
+        if (socketFactory == null) {
+            throw new UnsupportedSchemeException(host.getSchemeName() + " protocol is not supported");
+        }
+        return socketFactory;
+    }
+
+    /** Same socket options as the default operator applies */
+    private static void configure(Socket socket, SocketConfig socketConfig) throws IOException {
+        socket.setSoTimeout(socketConfig.getSoTimeout());
+        socket.setReuseAddress(socketConfig.isSoReuseAddress());
+        socket.setTcpNoDelay(socketConfig.isTcpNoDelay());
+        socket.setKeepAlive(socketConfig.isSoKeepAlive());
+        if (socketConfig.getRcvBufSize() > 0) {
+            socket.setReceiveBufferSize(socketConfig.getRcvBufSize());
+        }
+        if (socketConfig.getSndBufSize() > 0) {
+            socket.setSendBufferSize(socketConfig.getSndBufSize());
+        }
+        if (socketConfig.getSoLinger() >= 0) {
+            socket.setSoLinger(true, socketConfig.getSoLinger());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.example;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends a second copy of an idempotent request when the first has not answered within the hedge
+ * delay, and returns whichever response arrives first. The copy leases its own pooled connection
+ * (with several proxies, usually through another proxy), and the slower attempt is aborted.
+ *
+ * <p>Hedges are paid for from a budget: every request earns {@code budgetPercent / 100} of a hedge,
+ * up to a burst of ten, so a slow route cannot double the load on the proxies.
+ */
+final class RequestHedger implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestHedger.class);
+
+    private static final double MAX_BURST = 10;
+
+    /**
+     * One attempt of a request; the same request object is never executed twice.
+     */
+    interface Attempt {
+        CloseableHttpResponse execute(HttpUriRequest request) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final double earnedPerRequest;
+    private double tokens = MAX_BURST;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+
+    RequestHedger(int budgetPercent) {
+        this.earnedPerRequest = Math.max(0, budgetPercent) / 100.0;
+        AtomicInteger threadIds = new AtomicInteger();
+        // Unbounded: every attempt blocks a thread for as long as the request takes
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "request-hedge-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Only requests that are safe to send twice and can be aborted are hedged.
+     */
+    static boolean isHedgeable(HttpUriRequest request) {
+        String method = request.getMethod();
+        return request instanceof HttpRequestBase
+            && ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method));
+    }
+
+    /**
+     * Runs {@code request}, hedging it after {@code hedgeDelayMicros} if the budget allows.
+     * The first response wins; a failure only counts once every attempt has failed.
+     */
+    CloseableHttpResponse execute(HttpUriRequest request, long hedgeDelayMicros, Attempt attempt) throws IOException {
+        earn();
+        CompletionService<CloseableHttpResponse> completion = new ExecutorCompletionService<>(executor);
+        List<HttpUriRequest> attempts = new ArrayList<>(2);
+        List<Future<CloseableHttpResponse>> futures = new ArrayList<>(2);
+        attempts.add(request);
+        futures.add(completion.submit(() -> attempt.execute(request)));
+
+        try {
+            Future<CloseableHttpResponse> done = completion.poll(hedgeDelayMicros, TimeUnit.MICROSECONDS);
+            if (done == null) {
+                if (spend()) {
+                    HttpUriRequest copy = RequestBuilder.copy(request).build();
+                    attempts.add(copy);
+                    futures.add(completion.submit(() -> attempt.execute(copy)));
+                    hedged.increment();
+                    logger.debug("Hedging {} {} after {} ms", request.getMethod(), request.getURI(),
+                                 TimeUnit.MICROSECONDS.toMillis(hedgeDelayMicros));
+                } else {
+                    overBudget.increment();
+                }
+            }
+
+            Throwable failure = null;
+            for (int pending = futures.size(); pending > 0; pending--) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                try {
+                    CloseableHttpResponse response = done.get();
+                    int winner = futures.indexOf(done);
+                    if (winner > 0) {
+                        hedgeWins.increment();
+                    }
+                    abortOthers(attempts, futures, winner);
+                    return response;
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    done = null;
+                }
+            }
+            throw rethrow(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortOthers(attempts, futures, -1);
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getURI());
+        }
+    }
+
+    /**
+     * Aborts the attempts other than {@code winner}. One that already got its response has that
+     * response closed, which gives up its connection rather than reading the body.
+     */
+    private void abortOthers(List<HttpUriRequest> attempts, List<Future<CloseableHttpResponse>> futures, int winner) {
+        for (int i = 0; i < attempts.size(); i++) {
+            if (i == winner) {
+                continue;
+            }
+            ((HttpRequestBase) attempts.get(i)).abort();
+            Future<CloseableHttpResponse> loser = futures.get(i);
+            executor.execute(() -> {
+                try {
+                    loser.get().close();
+                } catch (Exception e) {
+                    // Aborted attempts fail; nothing to clean up
+                }
+            });
+        }
+    }
+
+    private static IOException rethrow(Throwable failure) {
+        if (failure instanceof IOException) {
+            return (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new IOException(failure);
+    }
+
+    private synchronized void earn() {
+        requests.increment();
+        tokens = Math.min(MAX_BURST, tokens + earnedPerRequest);
+    }
+
+    private synchronized boolean spend() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    String describeStats() {
+        return "requests=" + requests.sum() +
+               ", hedged=" + hedged.sum() +
+               ", hedge wins=" + hedgeWins.sum() +
+               ", over budget=" + overBudget.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,378 @@
+package com.example;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-phase timings of proxied requests, recorded as Micrometer timers with percentile histograms.
+ *
+ * <p>Phases: DNS lookup ({@code proxy.client.dns}), TCP connect to the proxy
+ * ({@code proxy.client.connect}), the CONNECT round trip that opened a tunnel
+ * ({@code proxy.client.tunnel}), each NTLM round trip ({@code proxy.client.ntlm.leg}, tagged
+ * challenge/negotiate/authenticate), TLS handshake ({@code proxy.client.tls.handshake}, tagged
+ * resumed), time to the response head ({@code proxy.client.ttfb}) and reading the response body
+ * ({@code proxy.client.body}). The hooks are a DNS resolver wrapper, a socket factory, and an
+ * {@link HttpRequestExecutor} that sees every exchange, including the CONNECT and 407 legs.
+ */
+public final class RequestMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestMetrics.class);
+
+    private static volatile RequestMetrics defaultMetrics;
+
+    private final MeterRegistry registry;
+    private final Timer dns;
+    private final Timer connect;
+    private final Timer tunnel;
+    private final Timer ttfb;
+    private final Timer body;
+    private ScheduledExecutorService dumper;
+
+    public RequestMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.dns = timer("proxy.client.dns", "DNS lookup of the proxy or target host").register(registry);
+        this.connect = timer("proxy.client.connect", "TCP connect to the proxy").register(registry);
+        this.tunnel = timer("proxy.client.tunnel", "CONNECT round trip that established a tunnel").register(registry);
+        this.ttfb = timer("proxy.client.ttfb", "Request sent until the response head was received").register(registry);
+        this.body = timer("proxy.client.body", "Response body transfer").register(registry);
+    }
+
+    /**
+     * Returns the process-wide metrics, recording into a Prometheus registry unless
+     * {@link #configure(MetricsConfig)} disabled them.
+     */
+    public static RequestMetrics getDefault() {
+        RequestMetrics metrics = defaultMetrics;
+        if (metrics == null) {
+            synchronized (RequestMetrics.class) {
+                if (defaultMetrics == null) {
+                    defaultMetrics = new RequestMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+                }
+                metrics = defaultMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Replaces the process-wide metrics. Clients created afterwards record into the new registry.
+     */
+    public static synchronized RequestMetrics configure(MetricsConfig config) {
+        if (defaultMetrics != null) {
+            defaultMetrics.stopDumping();
+        }
+        // An empty composite registry hands out no-op meters
+        defaultMetrics = new RequestMetrics(config.isEnabled()
+            ? new PrometheusMeterRegistry(PrometheusConfig.DEFAULT)
+            : new CompositeMeterRegistry());
+        return defaultMetrics;
+    }
+
+    private static Timer.Builder timer(String name, String description) {
+        return Timer.builder(name)
+            .description(description)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofMillis(1))
+            .maximumExpectedValue(Duration.ofSeconds(60));
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    public void recordConnect(long nanos) {
+        connect.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTunnel(long nanos) {
+        tunnel.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param leg "challenge" (no credentials sent), "negotiate" (type 1) or "authenticate" (type 3)
+     */
+    public void recordNtlmLeg(String leg, long nanos) {
+        timer("proxy.client.ntlm.leg", "One NTLM round trip with the proxy")
+            .tag("leg", leg)
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTlsHandshake(long nanos, boolean resumed) {
+        timer("proxy.client.tls.handshake", "TLS handshake with the target")
+            .tag("resumed", String.valueOf(resumed))
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Wraps a resolver so every lookup (cache hits included) is timed.
+     */
+    public DnsResolver timed(DnsResolver delegate) {
+        return host -> {
+            long start = System.nanoTime();
+            try {
+                return delegate.resolve(host);
+            } finally {
+                dns.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    /**
+     * Plain socket factory that times the TCP connect; proxied routes connect to the proxy through it.
+     */
+    public PlainConnectionSocketFactory timedPlainSocketFactory() {
+        return new PlainConnectionSocketFactory() {
+            @Override
+            public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                        InetSocketAddress localAddress, HttpContext context) throws IOException {
+                long start = System.nanoTime();
+                Socket connected = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+                recordConnect(System.nanoTime() - start);
+                return connected;
+            }
+        };
+    }
+
+    /**
+     * Request executor that times each exchange by phase and wraps response bodies to time their transfer.
+     */
+    public HttpRequestExecutor requestExecutor() {
+        return new HttpRequestExecutor() {
+            @Override
+            public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                    throws IOException, HttpException {
+                Object authEvent = FlightEvents.beginProxyAuth();
+                long start = System.nanoTime();
+                HttpResponse response = super.execute(request, conn, context);
+                long elapsed = System.nanoTime() - start;
+
+                int status = response.getStatusLine().getStatusCode();
+                boolean connectRequest = "CONNECT".equalsIgnoreCase(request.getRequestLine().getMethod());
+                String leg = ntlmLeg(request.getFirstHeader("Proxy-Authorization"), status);
+                if (leg != null) {
+                    recordNtlmLeg(leg, elapsed);
+                    FlightEvents.commitProxyAuth(authEvent, proxyOf(context), leg, status);
+                }
+                if (connectRequest) {
+                    if (status >= 200 && status < 300) {
+                        recordTunnel(elapsed);
+                    }
+                } else if (status != 407) {
+                    ttfb.record(elapsed, TimeUnit.NANOSECONDS);
+                    HttpEntity entity = response.getEntity();
+                    if (entity != null) {
+                        response.setEntity(new TimedEntity(entity));
+                    }
+                }
+                return response;
+            }
+        };
+    }
+
+    private static String proxyOf(HttpContext context) {
+        RouteInfo route = HttpClientContext.adapt(context).getHttpRoute();
+        return route != null && route.getProxyHost() != null ? route.getProxyHost().toHostString() : null;
+    }
+
+    /**
+     * Names the NTLM leg of an exchange from the message type in its Proxy-Authorization header,
+     * or returns null when the exchange had nothing to do with NTLM.
+     */
+    static String ntlmLeg(Header authorization, int status) {
+        if (authorization == null) {
+            return status == 407 ? "challenge" : null;
+        }
+        String value = authorization.getValue();
+        if (value == null || !value.regionMatches(true, 0, "NTLM ", 0, 5)) {
+            return null;
+        }
+        try {
+            byte[] message = Base64.getDecoder().decode(value.substring(5).trim());
+            if (message.length > 8) {
+                if (message[8] == 1) {
+                    return "negotiate";
+                }
+                if (message[8] == 3) {
+                    return "authenticate";
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Not base64, fall through
+        }
+        return "other";
+    }
+
+    /**
+     * Prometheus text exposition of all meters (empty when metrics are disabled).
+     */
+    public String scrape() {
+        return registry instanceof PrometheusMeterRegistry ? ((PrometheusMeterRegistry) registry).scrape() : "";
+    }
+
+    /**
+     * Writes the Prometheus text to a file, replacing it atomically so readers never see a partial dump.
+     */
+    public void writePrometheus(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.write(temp, scrape().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Rewrites the Prometheus file every {@code intervalSeconds} until {@link #stopDumping()}.
+     */
+    public synchronized void startDumping(Path file, int intervalSeconds) {
+        stopDumping();
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                writePrometheus(file);
+            } catch (IOException e) {
+                logger.warn("Could not write metrics to {}: {}", file, e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopDumping() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * One line per recorded phase with count, mean and max in milliseconds.
+     */
+    public String describePhases() {
+        StringBuilder sb = new StringBuilder();
+        for (Timer timer : registry.find("proxy.client.dns").timers()) {
+            appendPhase(sb, timer);
+        }
+        for (String name : new String[] {"proxy.client.connect", "proxy.client.tunnel", "proxy.client.ntlm.leg",
+                                         "proxy.client.tls.handshake", "proxy.client.ttfb", "proxy.client.body"}) {
+            for (Timer timer : registry.find(name).timers()) {
+                appendPhase(sb, timer);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendPhase(StringBuilder sb, Timer timer) {
+        if (timer.count() == 0) {
+            return;
+        }
+        StringBuilder tags = new StringBuilder();
+        for (Tag tag : timer.getId().getTags()) {
+            tags.append(tags.length() == 0 ? "{" : ",").append(tag.getKey()).append('=').append(tag.getValue());
+        }
+        if (tags.length() > 0) {
+            tags.append('}');
+        }
+        sb.append(String.format(Locale.ROOT, "%n  %-32s count=%d mean=%.2fms max=%.2fms",
+            timer.getId().getName().substring("proxy.client.".length()) + tags, timer.count(),
+            timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * Entity whose content stream records the body transfer time once it is read to the end or closed.
+     */
+    private final class TimedEntity extends HttpEntityWrapper {
+
+        TimedEntity(HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            // Timed from when the caller starts consuming; closing drains the rest, so consume() counts too
+            long start = System.nanoTime();
+            return new FilterInputStream(super.getContent()) {
+                private final AtomicBoolean recorded = new AtomicBoolean();
+
+                private int finished(int read) {
+                    if (read < 0) {
+                        record();
+                    }
+                    return read;
+                }
+
+                private void record() {
+                    if (recorded.compareAndSet(false, true)) {
+                        body.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                }
+
+                @Override
+                public int read() throws IOException {
+                    return finished(super.read());
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return finished(super.read(b, off, len));
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        record();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            long start = System.nanoTime();
+            super.writeTo(outStream);
+            body.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
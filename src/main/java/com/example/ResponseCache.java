@@ -0,0 +1,773 @@
+package com.example;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Private HTTP cache (RFC 7234) in front of {@link NtlmProxyClient}, so repeated fetches of
+ * unchanged resources do not pay for proxy bandwidth and latency.
+ *
+ * <p>GET responses are stored when {@code Cache-Control}, {@code Expires} and the status allow it,
+ * and served without a request while fresh (explicit {@code max-age} or {@code Expires}, otherwise
+ * a share of the time since {@code Last-Modified}). Stale entries with an {@code ETag} or
+ * {@code Last-Modified} are revalidated with {@code If-None-Match} / {@code If-Modified-Since}, and a
+ * 304 answer is served from the stored body. {@code no-store}, {@code no-cache}, request
+ * {@code max-age}/{@code min-fresh} and {@code Vary} are honoured; unsafe methods invalidate the
+ * entry for their URI.
+ *
+ * <p>Entries live in a byte-bounded LRU memory tier and, when a directory is configured, are also
+ * written to a byte-bounded disk tier that outlives the process.
+ */
+public final class ResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCache.class);
+
+    private static volatile ResponseCache defaultCache;
+
+    /**
+     * The rest of the client: sends a request through the proxy.
+     */
+    interface Origin {
+        CloseableHttpResponse execute(HttpUriRequest request) throws IOException;
+    }
+
+    // Final statuses that may be stored without explicit freshness (RFC 7231 section 6.1)
+    private static final Set<Integer> CACHEABLE_STATUSES = new HashSet<>(Arrays.asList(200, 203, 300, 301, 404, 410));
+    private static final Set<String> HOP_BY_HOP = new HashSet<>(Arrays.asList(
+        "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer",
+        "transfer-encoding", "upgrade", "content-length"));
+    // Heuristic freshness is capped, as RFC 7234 section 4.2.2 suggests
+    private static final long MAX_HEURISTIC_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final long maxEntryBytes;
+    private final int heuristicPercent;
+    private final MemoryTier memory;
+    private final DiskTier disk;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder modified = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+
+    public ResponseCache(CacheConfig config) {
+        this.maxEntryBytes = config.getMaxEntryBytes();
+        this.heuristicPercent = config.getHeuristicPercent();
+        this.memory = new MemoryTier(config.getMaxMemoryBytes());
+        this.disk = config.getDiskDirectory().isEmpty()
+            ? null
+            : new DiskTier(Paths.get(config.getDiskDirectory()), config.getMaxDiskBytes());
+    }
+
+    /**
+     * Returns the process-wide cache, or null when {@link #configure(CacheConfig)} has not enabled one.
+     */
+    public static ResponseCache getDefault() {
+        return defaultCache;
+    }
+
+    public static synchronized ResponseCache configure(CacheConfig config) {
+        defaultCache = config.isEnabled() ? new ResponseCache(config) : null;
+        if (defaultCache != null) {
+            defaultCache.bindTo(RequestMetrics.getDefault().getRegistry());
+            logger.info("Response cache enabled ({} MB in memory{})", config.getMaxMemoryBytes() / (1024 * 1024),
+                        defaultCache.disk != null ? ", " + config.getMaxDiskBytes() / (1024 * 1024) + " MB on disk in "
+                                                    + config.getDiskDirectory() : "");
+        }
+        return defaultCache;
+    }
+
+    private void bindTo(MeterRegistry registry) {
+        counter(registry, "hit", hits, "Served from the cache without a request");
+        counter(registry, "miss", misses, "Nothing usable stored, fetched in full");
+        counter(registry, "revalidated", revalidated, "Stale entry confirmed by a 304 and served from the cache");
+        counter(registry, "modified", modified, "Stale entry replaced by a full response to the revalidation");
+        counter(registry, "uncacheable", uncacheable, "Response could not be stored");
+        Gauge.builder("proxy.client.cache.memory.bytes", memory, MemoryTier::bytes)
+            .description("Bytes held by the memory tier of the response cache")
+            .register(registry);
+    }
+
+    private static void counter(MeterRegistry registry, String result, LongAdder count, String description) {
+        FunctionCounter.builder("proxy.client.cache.requests", count, LongAdder::sum)
+            .description(description)
+            .tag("result", result)
+            .register(registry);
+    }
+
+    /**
+     * Answers {@code request} from the cache where allowed, otherwise through {@code origin},
+     * storing or revalidating on the way.
+     */
+    CloseableHttpResponse execute(HttpUriRequest request, Origin origin) throws IOException {
+        String method = request.getMethod();
+        String key = request.getURI().toString();
+        if (!"GET".equals(method)) {
+            CloseableHttpResponse response = origin.execute(request);
+            if (!"HEAD".equals(method) && !"OPTIONS".equals(method) && !"TRACE".equals(method)
+                && response.getStatusLine().getStatusCode() < 400) {
+                // RFC 7234 section 4.4
+                invalidate(key);
+            }
+            return response;
+        }
+
+        Directives requested = Directives.of(request);
+        // Partial content is neither stored nor served from a stored full response
+        if (requested.noStore || request.containsHeader(HttpHeaders.RANGE)) {
+            uncacheable.increment();
+            return origin.execute(request);
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry = lookup(key);
+        if (entry != null && !entry.matchesVary(request)) {
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return fetch(request, key, origin);
+        }
+        if (!requested.noCache && isFresh(entry, now, requested)) {
+            hits.increment();
+            return entry.toResponse(now);
+        }
+        if (entry.etag == null && entry.lastModified == null) {
+            misses.increment();
+            return fetch(request, key, origin);
+        }
+
+        RequestBuilder conditional = RequestBuilder.copy(request);
+        if (entry.etag != null) {
+            conditional.setHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            conditional.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+        }
+        long requestTime = System.currentTimeMillis();
+        CloseableHttpResponse response = origin.execute(conditional.build());
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            long responseTime = System.currentTimeMillis();
+            try {
+                consume(response.getEntity());
+            } finally {
+                response.close();
+            }
+            Entry updated = entry.revalidated(response, requestTime, responseTime);
+            store(updated);
+            revalidated.increment();
+            return updated.toResponse(responseTime);
+        }
+        modified.increment();
+        return store(request, key, response, requestTime);
+    }
+
+    private CloseableHttpResponse fetch(HttpUriRequest request, String key, Origin origin) throws IOException {
+        long requestTime = System.currentTimeMillis();
+        return store(request, key, origin.execute(request), requestTime);
+    }
+
+    /**
+     * Buffers and stores a storable response and serves it from the stored copy; anything else is
+     * passed through untouched, as is a body that turns out to be larger than {@code maxEntryBytes}.
+     */
+    private CloseableHttpResponse store(HttpUriRequest request, String key, CloseableHttpResponse response,
+                                        long requestTime) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        Directives directives = Directives.of(response);
+        HttpEntity entity = response.getEntity();
+        boolean storable = CACHEABLE_STATUSES.contains(status)
+            && !directives.noStore
+            && !"*".equals(headerValue(response, HttpHeaders.VARY))
+            && (entity == null || entity.getContentLength() <= maxEntryBytes)
+            && (directives.maxAgeSeconds >= 0 || response.containsHeader(HttpHeaders.EXPIRES)
+                || response.containsHeader(HttpHeaders.ETAG) || response.containsHeader(HttpHeaders.LAST_MODIFIED));
+        if (!storable) {
+            uncacheable.increment();
+            if (status < 400 || status == 404 || status == 410) {
+                invalidate(key);
+            }
+            return response;
+        }
+
+        byte[] body;
+        if (entity == null) {
+            body = new byte[0];
+        } else {
+            InputStream content = entity.getContent();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                entity.getContentLength() > 0 ? (int) entity.getContentLength() : 8192);
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = content.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+                if (buffer.size() > maxEntryBytes) {
+                    // Too large after all: hand back what was read followed by the rest of the stream
+                    uncacheable.increment();
+                    InputStreamEntity passThrough = new InputStreamEntity(
+                        new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), content),
+                        entity.getContentLength(), null);
+                    passThrough.setContentType(entity.getContentType());
+                    passThrough.setContentEncoding(entity.getContentEncoding());
+                    response.setEntity(passThrough);
+                    return response;
+                }
+            }
+            body = buffer.toByteArray();
+        }
+        long responseTime = System.currentTimeMillis();
+        response.close();
+
+        Entry entry = new Entry(key, response.getStatusLine().getProtocolVersion(), status,
+                                response.getStatusLine().getReasonPhrase(), storedHeaders(response.getAllHeaders()),
+                                body, requestTime, responseTime, varyValues(response, request));
+        store(entry);
+        stored.increment();
+        return entry.toResponse(responseTime);
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = memory.get(key);
+        if (entry == null && disk != null) {
+            entry = disk.get(key);
+            if (entry != null) {
+                memory.put(entry);
+            }
+        }
+        return entry;
+    }
+
+    private void store(Entry entry) {
+        memory.put(entry);
+        if (disk != null) {
+            disk.put(entry);
+        }
+    }
+
+    private void invalidate(String key) {
+        memory.remove(key);
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * Freshness lifetime against current age (RFC 7234 sections 4.2.1 and 4.2.3), narrowed by the
+     * request's {@code max-age} and {@code min-fresh}.
+     */
+    private boolean isFresh(Entry entry, long now, Directives requested) {
+        Directives directives = entry.directives();
+        if (directives.noCache) {
+            return false;
+        }
+        long age = entry.currentAgeMillis(now);
+        long lifetime = freshnessLifetimeMillis(entry, directives);
+        if (requested.maxAgeSeconds >= 0) {
+            lifetime = Math.min(lifetime, TimeUnit.SECONDS.toMillis(requested.maxAgeSeconds));
+        }
+        if (requested.minFreshSeconds > 0) {
+            age += TimeUnit.SECONDS.toMillis(requested.minFreshSeconds);
+        }
+        return lifetime > age;
+    }
+
+    private long freshnessLifetimeMillis(Entry entry, Directives directives) {
+        if (directives.maxAgeSeconds >= 0) {
+            return TimeUnit.SECONDS.toMillis(directives.maxAgeSeconds);
+        }
+        long date = entry.dateMillis();
+        String expires = entry.header(HttpHeaders.EXPIRES);
+        if (expires != null) {
+            Date parsed = DateUtils.parseDate(expires);
+            // An invalid Expires, such as "0", means already expired
+            return parsed != null ? Math.max(0, parsed.getTime() - date) : 0;
+        }
+        Date lastModified = entry.lastModified != null ? DateUtils.parseDate(entry.lastModified) : null;
+        if (lastModified != null && date > lastModified.getTime()) {
+            return Math.min(MAX_HEURISTIC_MILLIS, (date - lastModified.getTime()) * heuristicPercent / 100);
+        }
+        return 0;
+    }
+
+    private static Header[] storedHeaders(Header[] headers) {
+        List<Header> kept = new ArrayList<>(headers.length);
+        for (Header header : headers) {
+            if (!HOP_BY_HOP.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                kept.add(header);
+            }
+        }
+        return kept.toArray(new Header[0]);
+    }
+
+    private static Map<String, String> varyValues(HttpResponse response, HttpUriRequest request) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Header vary : response.getHeaders(HttpHeaders.VARY)) {
+            for (HeaderElement element : vary.getElements()) {
+                String name = element.getName().toLowerCase(Locale.ROOT);
+                values.put(name, joinedValues(request, name));
+            }
+        }
+        return values;
+    }
+
+    private static String joinedValues(HttpMessage message, String name) {
+        StringBuilder sb = new StringBuilder();
+        for (Header header : message.getHeaders(name)) {
+            sb.append(sb.length() > 0 ? "," : "").append(header.getValue().trim());
+        }
+        return sb.toString();
+    }
+
+    private static String headerValue(HttpMessage message, String name) {
+        Header header = message.getFirstHeader(name);
+        return header != null ? header.getValue().trim() : null;
+    }
+
+    private static void consume(HttpEntity entity) throws IOException {
+        if (entity != null && entity.isStreaming()) {
+            entity.getContent().close();
+        }
+    }
+
+    public String describeStats() {
+        return "hits=" + hits.sum() +
+               ", misses=" + misses.sum() +
+               ", revalidated (304)=" + revalidated.sum() +
+               ", modified=" + modified.sum() +
+               ", stored=" + stored.sum() +
+               ", uncacheable=" + uncacheable.sum() +
+               ", " + memory.describe() +
+               (disk != null ? ", " + disk.describe() : "");
+    }
+
+    /**
+     * Cache-Control directives this cache acts on, from a request or response (plus
+     * {@code Pragma: no-cache}).
+     */
+    private static final class Directives {
+        boolean noStore;
+        boolean noCache;
+        long maxAgeSeconds = -1;
+        long minFreshSeconds;
+
+        static Directives of(HttpMessage message) {
+            Directives directives = new Directives();
+            for (Header header : message.getHeaders(HttpHeaders.CACHE_CONTROL)) {
+                for (HeaderElement element : header.getElements()) {
+                    String name = element.getName().toLowerCase(Locale.ROOT);
+                    if ("no-store".equals(name)) {
+                        directives.noStore = true;
+                    } else if ("no-cache".equals(name)) {
+                        directives.noCache = true;
+                    } else if ("max-age".equals(name)) {
+                        directives.maxAgeSeconds = seconds(element.getValue());
+                    } else if ("min-fresh".equals(name)) {
+                        directives.minFreshSeconds = Math.max(0, seconds(element.getValue()));
+                    }
+                }
+            }
+            for (Header pragma : message.getHeaders("Pragma")) {
+                if (pragma.getValue().toLowerCase(Locale.ROOT).contains("no-cache")) {
+                    directives.noCache = true;
+                }
+            }
+            return directives;
+        }
+
+        /** A malformed delta-seconds counts as 0, which makes the entry stale */
+        private static long seconds(String value) {
+            try {
+                return value != null ? Math.max(0, Long.parseLong(value.trim())) : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A stored response: status, end-to-end headers, body and the times of the exchange that
+     * produced it.
+     */
+    private static final class Entry {
+        final String key;
+        final ProtocolVersion version;
+        final int status;
+        final String reason;
+        final Header[] headers;
+        final byte[] body;
+        final long requestTime;
+        final long responseTime;
+        final Map<String, String> vary;
+        final String etag;
+        final String lastModified;
+
+        Entry(String key, ProtocolVersion version, int status, String reason, Header[] headers, byte[] body,
+              long requestTime, long responseTime, Map<String, String> vary) {
+            this.key = key;
+            this.version = version;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+            this.vary = vary;
+            this.etag = header(HttpHeaders.ETAG);
+            this.lastModified = header(HttpHeaders.LAST_MODIFIED);
+        }
+
+        String header(String name) {
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+            return null;
+        }
+
+        Directives directives() {
+            BasicHttpResponse holder = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, reason);
+            holder.setHeaders(headers);
+            return Directives.of(holder);
+        }
+
+        long dateMillis() {
+            String date = header(HttpHeaders.DATE);
+            Date parsed = date != null ? DateUtils.parseDate(date) : null;
+            return parsed != null ? parsed.getTime() : responseTime;
+        }
+
+        /** RFC 7234 section 4.2.3 */
+        long currentAgeMillis(long now) {
+            long apparentAge = Math.max(0, responseTime - dateMillis());
+            long responseDelay = responseTime - requestTime;
+            long ageValue = 0;
+            String age = header(HttpHeaders.AGE);
+            if (age != null) {
+                try {
+                    ageValue = TimeUnit.SECONDS.toMillis(Long.parseLong(age.trim()));
+                } catch (NumberFormatException e) {
+                    // Ignored, as the RFC asks for an invalid Age
+                }
+            }
+            long correctedInitialAge = Math.max(apparentAge, ageValue + responseDelay);
+            return correctedInitialAge + (now - responseTime);
+        }
+
+        boolean matchesVary(HttpUriRequest request) {
+            for (Map.Entry<String, String> selecting : vary.entrySet()) {
+                if (!selecting.getValue().equals(joinedValues(request, selecting.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The entry with the headers of a 304 applied (RFC 7234 section 4.3.4) and the times of the
+         * revalidation.
+         */
+        Entry revalidated(HttpResponse notModified, long newRequestTime, long newResponseTime) {
+            List<Header> merged = new ArrayList<>();
+            Set<String> replaced = new HashSet<>();
+            // The stored Age belongs to the old response times; only the 304's own Age applies now
+            replaced.add("age");
+            for (Header header : storedHeaders(notModified.getAllHeaders())) {
+                replaced.add(header.getName().toLowerCase(Locale.ROOT));
+            }
+            for (Header header : headers) {
+                if (!replaced.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                    merged.add(header);
+                }
+            }
+            merged.addAll(Arrays.asList(storedHeaders(notModified.getAllHeaders())));
+            return new Entry(key, version, status, reason, merged.toArray(new Header[0]), body,
+                             newRequestTime, newResponseTime, vary);
+        }
+
+        CloseableHttpResponse toResponse(long now) {
+            CachedResponse response = new CachedResponse(version, status, reason);
+            response.setHeaders(headers);
+            response.setHeader(HttpHeaders.AGE, Long.toString(TimeUnit.MILLISECONDS.toSeconds(currentAgeMillis(now))));
+            ByteArrayEntity entity = new ByteArrayEntity(body);
+            Header contentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+            entity.setContentType(contentType);
+            Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            entity.setContentEncoding(contentEncoding);
+            response.setEntity(entity);
+            return response;
+        }
+
+        long size() {
+            long size = body.length + key.length();
+            for (Header header : headers) {
+                size += header.getName().length() + header.getValue().length() + 4;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Response served from the cache; there is no connection to give back.
+     */
+    private static final class CachedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        CachedResponse(ProtocolVersion version, int status, String reason) {
+            super(version, status, reason);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+
+    /**
+     * Least recently used entries in memory, bounded by their total size.
+     */
+    private static final class MemoryTier {
+        private final long maxBytes;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+        private long evictions;
+
+        MemoryTier(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Entry get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(Entry entry) {
+            Entry previous = entries.put(entry.key, entry);
+            if (previous != null) {
+                bytes -= previous.size();
+            }
+            bytes += entry.size();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().size();
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        synchronized void remove(String key) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.size();
+            }
+        }
+
+        synchronized double bytes() {
+            return bytes;
+        }
+
+        synchronized String describe() {
+            return "memory=" + entries.size() + " entries/" + bytes + " bytes (" + evictions + " evicted)";
+        }
+    }
+
+    /**
+     * One file per entry, named after the SHA-256 of its key, least recently used files removed
+     * once the directory holds more than {@code maxBytes}. Files are replaced atomically; unreadable
+     * ones are dropped.
+     */
+    private static final class DiskTier {
+        private static final int FORMAT = 1;
+
+        private final Path directory;
+        private final long maxBytes;
+        private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+
+        DiskTier(Path directory, long maxBytes) {
+            this.directory = directory;
+            this.maxBytes = maxBytes;
+            try {
+                Files.createDirectories(directory);
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.entry")) {
+                    for (Path file : stream) {
+                        files.add(file);
+                    }
+                }
+                // Oldest first, so they are the first to go
+                files.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+                for (Path file : files) {
+                    long size = Files.size(file);
+                    sizes.put(file.getFileName().toString(), size);
+                    bytes += size;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read the response cache directory {}: {}", directory, e.getMessage());
+            }
+        }
+
+        synchronized Entry get(String key) {
+            String name = fileName(key);
+            if (!sizes.containsKey(name)) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(directory.resolve(name)))) {
+                if (in.readInt() != FORMAT || !key.equals(in.readUTF())) {
+                    return null;
+                }
+                ProtocolVersion version = new ProtocolVersion(in.readUTF(), in.readInt(), in.readInt());
+                int status = in.readInt();
+                String reason = in.readUTF();
+                long requestTime = in.readLong();
+                long responseTime = in.readLong();
+                Map<String, String> vary = new LinkedHashMap<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    vary.put(in.readUTF(), in.readUTF());
+                }
+                Header[] headers = new Header[in.readInt()];
+                for (int i = 0; i < headers.length; i++) {
+                    headers[i] = new BasicHeader(in.readUTF(), in.readUTF());
+                }
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                return new Entry(key, version, status, reason, headers, body, requestTime, responseTime, vary);
+            } catch (IOException e) {
+                logger.debug("Dropping unreadable cache file {}: {}", name, e.getMessage());
+                removeFile(name);
+                return null;
+            }
+        }
+
+        synchronized void put(Entry entry) {
+            String name = fileName(entry.key);
+            Path file = directory.resolve(name);
+            Path temp = directory.resolve(name + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                    out.writeInt(FORMAT);
+                    out.writeUTF(entry.key);
+                    out.writeUTF(entry.version.getProtocol());
+                    out.writeInt(entry.version.getMajor());
+                    out.writeInt(entry.version.getMinor());
+                    out.writeInt(entry.status);
+                    out.writeUTF(entry.reason != null ? entry.reason : "");
+                    out.writeLong(entry.requestTime);
+                    out.writeLong(entry.responseTime);
+                    out.writeInt(entry.vary.size());
+                    for (Map.Entry<String, String> selecting : entry.vary.entrySet()) {
+                        out.writeUTF(selecting.getKey());
+                        out.writeUTF(selecting.getValue());
+                    }
+                    out.writeInt(entry.headers.length);
+                    for (Header header : entry.headers) {
+                        out.writeUTF(header.getName());
+                        out.writeUTF(header.getValue());
+                    }
+                    out.writeInt(entry.body.length);
+                    out.write(entry.body);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long previous = sizes.put(name, Files.size(file));
+                bytes += sizes.get(name) - (previous != null ? previous : 0);
+            } catch (IOException e) {
+                logger.warn("Could not write {} to the response cache directory: {}", entry.key, e.getMessage());
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Left for the next write to replace
+                }
+                return;
+            }
+            Iterator<String> eldest = new ArrayList<>(sizes.keySet()).iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                String victim = eldest.next();
+                if (!victim.equals(name)) {
+                    removeFile(victim);
+                }
+            }
+        }
+
+        synchronized void remove(String key) {
+            String name = fileName(key);
+            if (sizes.containsKey(name)) {
+                removeFile(name);
+            }
+        }
+
+        private void removeFile(String name) {
+            Long size = sizes.remove(name);
+            if (size != null) {
+                bytes -= size;
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(name));
+            } catch (IOException e) {
+                logger.debug("Could not delete cache file {}: {}", name, e.getMessage());
+            }
+        }
+
+        synchronized String describe() {
+            return "disk=" + sizes.size() + " entries/" + bytes + " bytes";
+        }
+
+        private static String fileName(String key) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+                StringBuilder sb = new StringBuilder(digest.length * 2 + 6);
+                for (byte b : digest) {
+                    sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return sb.append(".entry").toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+    }
+}
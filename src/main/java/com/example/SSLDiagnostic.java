@@ -20,6 +20,8 @@ public class SSLDiagnostic {
         testSSLContext();
         testDirectSSLSocket();
         testWithDifferentProtocols();
+        
+        System.out.println("TLS handshakes: " + SslContextFactory.getDefault().describeStats());
     }
     
     private static void testSSLContext() {
@@ -68,7 +70,7 @@ public class SSLDiagnostic {
             sslSocket.setEnabledProtocols(new String[]{"TLSv1.2", "TLSv1.1", "TLSv1"});
             
             // Perform handshake
-            sslSocket.startHandshake();
+            SslContextFactory.getDefault().startHandshake(sslSocket, "diagnostic");
             
             SSLSession session = sslSocket.getSession();
             System.out.println("     SUCCESS - Protocol: " + session.getProtocol());
@@ -96,19 +98,17 @@ public class SSLDiagnostic {
         try {
             System.out.println("   Testing " + protocol + " with " + hostname);
             
-            SSLContext context = SSLContext.getInstance(protocol);
-            context.init(null, null, null);
-            
-            SSLSocketFactory factory = context.getSocketFactory();
+            // Shared context: repeated runs against the same host can resume the TLS session
+            SslContextFactory sslContextFactory = SslContextFactory.getDefault();
             Socket socket = new Socket();
             socket.connect(new java.net.InetSocketAddress(hostname, port), 10000);
             
-            SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, hostname, port, true);
+            SSLSocket sslSocket = sslContextFactory.createSocket(socket, hostname, port, protocol);
             sslSocket.setEnabledProtocols(new String[]{protocol});
             
-            sslSocket.startHandshake();
+            boolean resumed = sslContextFactory.startHandshake(sslSocket, "diagnostic");
             
-            System.out.println("     " + protocol + ": SUCCESS");
+            System.out.println("     " + protocol + ": SUCCESS" + (resumed ? " (resumed)" : " (full handshake)"));
             sslSocket.close();
             
         } catch (Exception e) {
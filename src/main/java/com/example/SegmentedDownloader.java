@@ -0,0 +1,517 @@
+package com.example;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads one URL through the shared proxy client straight into a file, without holding the
+ * body in memory.
+ *
+ * <p>The entity stream is handed to {@link FileChannel#transferFrom} at the segment's offset, so
+ * bytes go from the socket to the file without intermediate strings or per-request buffers. When
+ * the server answers a {@code Range} probe with 206, files of at least two
+ * {@code app.download.min-segment-bytes} are split into up to {@code app.download.segments}
+ * ranges fetched in parallel over separate pooled connections; otherwise the body is streamed in
+ * one piece.
+ *
+ * <p>Data goes to {@code <file>.part}, with progress per segment checkpointed to
+ * {@code <file>.part.state} after the written data is forced to disk. A failed segment is retried
+ * from where it stopped, and a later run against the same file resumes the remaining ranges as
+ * long as the length and validator ({@code ETag} or {@code Last-Modified}, sent as
+ * {@code If-Range}) are unchanged. The finished file is hashed and compared with the expected
+ * checksum, or with the server's {@code Digest} header, before it is moved into place.
+ */
+public class SegmentedDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedDownloader.class);
+
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+    // Progress is saved after this much data per segment
+    private static final long CHECKPOINT_BYTES = 8L * 1024 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final NtlmProxyClient client;
+    private final DownloadConfig config;
+
+    public SegmentedDownloader(NtlmProxyClient client, DownloadConfig config) {
+        this.client = client;
+        this.config = config;
+    }
+
+    /**
+     * Downloads {@code url} to {@code target}.
+     *
+     * @param expectedChecksum hex digest with {@code app.download.checksum-algorithm}, or null to
+     *                         check against the server's {@code Digest} header when it sends one
+     * @return the hex digest of the downloaded file
+     */
+    public String download(String url, Path target, String expectedChecksum) throws IOException {
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        Path statePath = target.resolveSibling(target.getFileName() + ".part.state");
+        long start = System.nanoTime();
+
+        // A one-byte range tells whether ranges are supported and how long the file is
+        HttpGet probe = get(url);
+        probe.setHeader(HttpHeaders.RANGE, "bytes=0-0");
+        Plan plan = null;
+        String serverChecksum;
+        try (CloseableHttpResponse response = client.execute(probe)) {
+            int status = response.getStatusLine().getStatusCode();
+            serverChecksum = serverChecksum(response.getHeaders("Digest"));
+            if (status == HttpStatus.SC_OK) {
+                logger.info("Downloading {} in one stream (no byte ranges)", url);
+                Files.deleteIfExists(statePath);
+                return finish(url, part, statePath, target, streamWhole(response, part), 1, 0, start,
+                              expectedChecksum, serverChecksum);
+            }
+            if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new IOException("Download of " + url + " failed: " + response.getStatusLine());
+            }
+            Matcher range = matchContentRange(response);
+            if (range != null && !"*".equals(range.group(3))) {
+                plan = new Plan(url, Long.parseLong(range.group(3)), validator(response));
+            }
+            EntityUtils.consume(response.getEntity());
+        }
+        if (plan == null) {
+            // 206 without a usable Content-Range: the length is unknown, so fetch the whole file again
+            logger.info("Downloading {} in one stream (no byte ranges)", url);
+            Files.deleteIfExists(statePath);
+            return finish(url, part, statePath, target, streamWhole(url, part), 1, 0, start,
+                          expectedChecksum, serverChecksum);
+        }
+
+        Plan resumed = Plan.load(statePath);
+        if (resumed != null && resumed.matches(plan) && Files.exists(part)) {
+            plan = resumed;
+            logger.info("Resuming {}: {} of {} bytes already downloaded", url, plan.done(), plan.length);
+        } else {
+            Files.deleteIfExists(part);
+            plan.split(config.getSegments(), config.getMinSegmentBytes());
+        }
+        long alreadyDone = plan.done();
+        logger.info("Downloading {} ({} bytes) in {} segment(s)", url, plan.length, plan.segments.size());
+
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // transferFrom writes nothing past the end of the file, so it is extended (sparsely) up front
+            if (plan.length > 0 && channel.size() < plan.length) {
+                channel.write(ByteBuffer.allocate(1), plan.length - 1);
+            }
+            fetchSegments(plan, channel, statePath);
+        }
+        return finish(url, part, statePath, target, plan.length, plan.segments.size(), alreadyDone, start,
+                      expectedChecksum, serverChecksum);
+    }
+
+    private void fetchSegments(Plan plan, FileChannel channel, Path statePath) throws IOException {
+        int count = plan.segments.size();
+        AtomicInteger threadIds = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(count, runnable -> {
+            Thread thread = new Thread(runnable, "download-segment-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(count);
+            for (Segment segment : plan.segments) {
+                futures.add(executor.submit(() -> {
+                    fetchWithRetries(plan, segment, channel, statePath);
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (failure == null) {
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            checkpoint(plan, channel, statePath);
+            if (failure != null) {
+                throw new IOException("Download of " + plan.url + " incomplete (" + plan.done() + " of " + plan.length
+                                      + " bytes); run again to resume", failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            checkpoint(plan, channel, statePath);
+            throw new InterruptedIOException("Interrupted while downloading " + plan.url);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void fetchWithRetries(Plan plan, Segment segment, FileChannel channel, Path statePath)
+            throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                fetchSegment(plan, segment, channel, statePath);
+                return;
+            } catch (ResourceChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= config.getRetries()) {
+                    throw e;
+                }
+                logger.warn("Segment {}-{} of {} failed at {} bytes ({}), retrying", segment.start, segment.end,
+                            plan.url, segment.done.get(), e.getMessage());
+                checkpoint(plan, channel, statePath);
+                Thread.sleep(500L * (attempt + 1));
+            }
+        }
+    }
+
+    private void fetchSegment(Plan plan, Segment segment, FileChannel channel, Path statePath) throws IOException {
+        if (segment.remaining() == 0) {
+            return;
+        }
+        long from = segment.start + segment.done.get();
+        HttpGet get = get(plan.url);
+        get.setHeader(HttpHeaders.RANGE, "bytes=" + from + "-" + segment.end);
+        if (plan.validator != null) {
+            // Without this, a file replaced on the server would be stitched together from two versions
+            get.setHeader(HttpHeaders.IF_RANGE, plan.validator);
+        }
+        try (CloseableHttpResponse response = client.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_OK) {
+                throw new ResourceChangedException(plan.url + " changed on the server; delete "
+                                                   + statePath.getFileName() + " to start over");
+            }
+            if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new IOException("Range " + from + "-" + segment.end + " of " + plan.url + " failed: "
+                                      + response.getStatusLine());
+            }
+            Matcher range = matchContentRange(response);
+            if (range == null || Long.parseLong(range.group(1)) != from
+                || !range.group(3).equals(Long.toString(plan.length))) {
+                throw new ResourceChangedException("Unexpected Content-Range for " + plan.url + ": "
+                                                   + response.getFirstHeader(HttpHeaders.CONTENT_RANGE));
+            }
+            long sinceCheckpoint = 0;
+            try (ReadableByteChannel source = Channels.newChannel(response.getEntity().getContent())) {
+                while (segment.remaining() > 0) {
+                    long written = channel.transferFrom(source, segment.start + segment.done.get(),
+                                                        Math.min(TRANSFER_CHUNK, segment.remaining()));
+                    if (written == 0) {
+                        throw new EOFException("Range " + from + "-" + segment.end + " of " + plan.url + " ended after "
+                                               + (segment.start + segment.done.get() - from) + " bytes");
+                    }
+                    segment.done.addAndGet(written);
+                    sinceCheckpoint += written;
+                    if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                        checkpoint(plan, channel, statePath);
+                        sinceCheckpoint = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves progress; data is forced to disk first so the state never claims bytes that were lost.
+     */
+    private static void checkpoint(Plan plan, FileChannel channel, Path statePath) throws IOException {
+        synchronized (plan) {
+            long[] done = plan.progress();
+            if (channel.isOpen()) {
+                channel.force(false);
+            }
+            plan.save(statePath, done);
+        }
+    }
+
+    /**
+     * GET without {@code Accept-Encoding}: ranges and lengths refer to the bytes as stored, and a
+     * {@code Content-Encoding: gzip} file must be saved as is rather than decoded.
+     */
+    private HttpGet get(String url) {
+        HttpGet get = new HttpGet(url);
+        get.setConfig(RequestConfig.copy(client.getRequestConfig()).setContentCompressionEnabled(false).build());
+        return get;
+    }
+
+    private long streamWhole(String url, Path part) throws IOException {
+        try (CloseableHttpResponse response = client.execute(get(url))) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new IOException("Download of " + url + " failed: " + response.getStatusLine());
+            }
+            return streamWhole(response, part);
+        }
+    }
+
+    private static long streamWhole(CloseableHttpResponse response, Path part) throws IOException {
+        HttpEntity entity = response.getEntity();
+        long length = entity != null ? entity.getContentLength() : 0;
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (entity != null) {
+                try (ReadableByteChannel source = Channels.newChannel(entity.getContent())) {
+                    long written;
+                    while ((written = channel.transferFrom(source, position, TRANSFER_CHUNK)) > 0) {
+                        position += written;
+                    }
+                }
+            }
+            channel.force(false);
+        }
+        if (length >= 0 && position != length) {
+            throw new EOFException("Received " + position + " of " + length + " bytes");
+        }
+        return position;
+    }
+
+    private String finish(String url, Path part, Path statePath, Path target, long bytes, int segments,
+                          long resumedBytes, long startNanos, String expectedChecksum, String serverChecksum)
+            throws IOException {
+        String checksum = checksum(part);
+        String expected = expectedChecksum != null ? expectedChecksum : serverChecksum;
+        if (expected != null && !expected.equalsIgnoreCase(checksum)) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(statePath);
+            throw new IOException(config.getChecksumAlgorithm() + " of " + url + " is " + checksum + ", expected "
+                                  + expected + (expectedChecksum != null ? "" : " (Digest header)"));
+        }
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(statePath);
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        logger.info("Downloaded {} to {}: {} bytes ({} resumed) in {} segment(s), {} s, {} MB/s, {}={}{}",
+                    url, target, bytes, resumedBytes, segments, String.format(Locale.ROOT, "%.2f", seconds),
+                    String.format(Locale.ROOT, "%.1f", (bytes - resumedBytes) / 1e6 / Math.max(seconds, 1e-3)),
+                    config.getChecksumAlgorithm(), checksum, expected != null ? " (verified)" : "");
+        return checksum;
+    }
+
+    private String checksum(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) TRANSFER_CHUNK);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * RFC 3230 {@code Digest} value for the configured algorithm, as hex, or null.
+     */
+    private String serverChecksum(Header[] digestHeaders) {
+        for (Header header : digestHeaders) {
+            for (String instance : header.getValue().split(",")) {
+                int eq = instance.indexOf('=');
+                if (eq > 0 && instance.substring(0, eq).trim().equalsIgnoreCase(config.getChecksumAlgorithm())) {
+                    try {
+                        return hex(Base64.getDecoder().decode(instance.substring(eq + 1).trim()));
+                    } catch (IllegalArgumentException e) {
+                        logger.debug("Ignoring malformed Digest header: {}", header.getValue());
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(config.getChecksumAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown app.download.checksum-algorithm: "
+                                               + config.getChecksumAlgorithm(), e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static Matcher matchContentRange(CloseableHttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        if (header == null) {
+            return null;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(header.getValue().trim());
+        return matcher.matches() ? matcher : null;
+    }
+
+    /**
+     * A strong ETag, or else Last-Modified; weak ETags cannot be used with If-Range.
+     */
+    private static String validator(CloseableHttpResponse response) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            return etag.getValue();
+        }
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified != null ? lastModified.getValue() : null;
+    }
+
+    private static final class Segment {
+        final long start;
+        final long end;
+        final AtomicLong done = new AtomicLong();
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done.set(done);
+        }
+
+        long remaining() {
+            return end - start + 1 - done.get();
+        }
+    }
+
+    /**
+     * Segments of one download and their progress, stored as a properties file next to the data.
+     */
+    private static final class Plan {
+        final String url;
+        final long length;
+        final String validator;
+        final List<Segment> segments = new ArrayList<>();
+
+        Plan(String url, long length, String validator) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+        }
+
+        void split(int maxSegments, long minSegmentBytes) {
+            long count = Math.max(1, Math.min(maxSegments, length / Math.max(1, minSegmentBytes)));
+            long size = (length + count - 1) / count;
+            for (long start = 0; start < length; start += size) {
+                segments.add(new Segment(start, Math.min(length, start + size) - 1, 0));
+            }
+        }
+
+        long done() {
+            long done = 0;
+            for (Segment segment : segments) {
+                done += segment.done.get();
+            }
+            return done;
+        }
+
+        long[] progress() {
+            long[] done = new long[segments.size()];
+            for (int i = 0; i < done.length; i++) {
+                done[i] = segments.get(i).done.get();
+            }
+            return done;
+        }
+
+        boolean matches(Plan probed) {
+            return url.equals(probed.url) && length == probed.length && validator != null
+                && validator.equals(probed.validator);
+        }
+
+        void save(Path path, long[] done) throws IOException {
+            Properties state = new Properties();
+            state.setProperty("url", url);
+            state.setProperty("length", Long.toString(length));
+            if (validator != null) {
+                state.setProperty("validator", validator);
+            }
+            state.setProperty("segments", Integer.toString(segments.size()));
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                state.setProperty("segment." + i, segment.start + "," + segment.end + "," + done[i]);
+            }
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                state.store(out, "Download progress");
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        static Plan load(Path path) {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            Properties state = new Properties();
+            try (InputStream in = Files.newInputStream(path)) {
+                state.load(in);
+                Plan plan = new Plan(state.getProperty("url"), Long.parseLong(state.getProperty("length")),
+                                     state.getProperty("validator"));
+                int count = Integer.parseInt(state.getProperty("segments"));
+                for (int i = 0; i < count; i++) {
+                    String[] fields = state.getProperty("segment." + i).split(",");
+                    plan.segments.add(new Segment(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                                                  Long.parseLong(fields[2])));
+                }
+                return plan;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Ignoring unreadable download state {}: {}", path, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The file on the server is no longer the one the download started with; retrying cannot help.
+     */
+    static final class ResourceChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResourceChangedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listener and upstream pool settings for the local NTLM sidecar proxy ({@code -mode sidecar})
+ */
+@Component
+@ConfigurationProperties(prefix = "app.sidecar")
+public class SidecarConfig {
+    private String listenHost = "127.0.0.1";
+    private int listenPort = 3128;
+    private int workerThreads = 64;
+    private int acceptBacklog = 128;
+    private int clientIdleTimeoutSeconds = 30;
+    private int upstreamPoolSize = 16;
+    private int upstreamIdleTimeoutSeconds = 60;
+    private int maxBufferedBodyBytes = 10485760;
+
+    public SidecarConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public String getListenHost() {
+        return listenHost;
+    }
+
+    public void setListenHost(String listenHost) {
+        this.listenHost = listenHost;
+    }
+
+    public int getListenPort() {
+        return listenPort;
+    }
+
+    public void setListenPort(int listenPort) {
+        this.listenPort = listenPort;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public void setAcceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    public int getClientIdleTimeoutSeconds() {
+        return clientIdleTimeoutSeconds;
+    }
+
+    public void setClientIdleTimeoutSeconds(int clientIdleTimeoutSeconds) {
+        this.clientIdleTimeoutSeconds = clientIdleTimeoutSeconds;
+    }
+
+    public int getUpstreamPoolSize() {
+        return upstreamPoolSize;
+    }
+
+    public void setUpstreamPoolSize(int upstreamPoolSize) {
+        this.upstreamPoolSize = upstreamPoolSize;
+    }
+
+    public int getUpstreamIdleTimeoutSeconds() {
+        return upstreamIdleTimeoutSeconds;
+    }
+
+    public void setUpstreamIdleTimeoutSeconds(int upstreamIdleTimeoutSeconds) {
+        this.upstreamIdleTimeoutSeconds = upstreamIdleTimeoutSeconds;
+    }
+
+    public int getMaxBufferedBodyBytes() {
+        return maxBufferedBodyBytes;
+    }
+
+    public void setMaxBufferedBodyBytes(int maxBufferedBodyBytes) {
+        this.maxBufferedBodyBytes = maxBufferedBodyBytes;
+    }
+}
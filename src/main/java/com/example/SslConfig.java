@@ -0,0 +1,53 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * TLS session cache, resumption and trust anchor settings for the shared SSL context factory
+ */
+@Component
+@ConfigurationProperties(prefix = "app.ssl")
+public class SslConfig {
+
+    private int sessionCacheSize = 1000;
+    private int sessionTimeoutSeconds = 86400;
+    private boolean sessionTickets = true;
+    private String trustSnapshotDir = "";
+
+    public SslConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public int getSessionTimeoutSeconds() {
+        return sessionTimeoutSeconds;
+    }
+
+    public void setSessionTimeoutSeconds(int sessionTimeoutSeconds) {
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+
+    public boolean isSessionTickets() {
+        return sessionTickets;
+    }
+
+    public void setSessionTickets(boolean sessionTickets) {
+        this.sessionTickets = sessionTickets;
+    }
+
+    public String getTrustSnapshotDir() {
+        return trustSnapshotDir;
+    }
+
+    public void setTrustSnapshotDir(String trustSnapshotDir) {
+        this.trustSnapshotDir = trustSnapshotDir;
+    }
+}
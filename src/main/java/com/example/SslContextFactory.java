@@ -0,0 +1,263 @@
+package com.example;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single source of SSLContexts for the client and the diagnostic tools.
+ *
+ * <p>Contexts are created once per protocol and reused, so their client session caches survive
+ * between connections and later handshakes to the same host:port can be resumed (TLS 1.2 session
+ * IDs or tickets, TLS 1.3 PSK). Every handshake made through this factory is counted as either
+ * full or resumed. All contexts share the trust managers of the {@link TrustAnchorIndex}.
+ */
+public final class SslContextFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(SslContextFactory.class);
+
+    private static final String DEFAULT_PROTOCOL = "TLS";
+    private static final int REMEMBERED_SESSION_IDS = 10000;
+
+    private static volatile SslContextFactory defaultFactory;
+
+    private final SslConfig config;
+    private final ConcurrentMap<String, SSLContext> contexts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SSLContext> probeContexts = new ConcurrentHashMap<>();
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+
+    // Session IDs already seen; a handshake that ends with a known ID was resumed
+    private final Set<String> knownSessionIds = Collections.newSetFromMap(Collections.synchronizedMap(
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > REMEMBERED_SESSION_IDS;
+            }
+        }));
+
+    public SslContextFactory(SslConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Returns the process-wide factory, created with default settings unless
+     * {@link #configure(SslConfig)} was called first.
+     */
+    public static SslContextFactory getDefault() {
+        SslContextFactory factory = defaultFactory;
+        if (factory == null) {
+            synchronized (SslContextFactory.class) {
+                if (defaultFactory == null) {
+                    defaultFactory = create(new SslConfig());
+                }
+                factory = defaultFactory;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Replaces the process-wide factory. Should be called before the first TLS connection,
+     * because JSSE reads the session ticket property only once.
+     */
+    public static synchronized SslContextFactory configure(SslConfig config) {
+        defaultFactory = create(config);
+        return defaultFactory;
+    }
+
+    private static SslContextFactory create(SslConfig config) {
+        // TLS 1.2 session tickets on the client (JDK 13+; TLS 1.3 PSK resumption is always on)
+        if (System.getProperty("jdk.tls.client.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.client.enableSessionTicketExtension", String.valueOf(config.isSessionTickets()));
+        }
+        TrustAnchorIndex.configure(config);
+        logger.info("SSL context factory: session cache size={}, timeout={}s, tickets={}",
+                    config.getSessionCacheSize(), config.getSessionTimeoutSeconds(), config.isSessionTickets());
+        return new SslContextFactory(config);
+    }
+
+    public SSLContext getContext() {
+        return getContext(DEFAULT_PROTOCOL);
+    }
+
+    /**
+     * Returns the shared context for a protocol ("TLS", "TLSv1.2", ...), creating it on first use.
+     */
+    public SSLContext getContext(String protocol) {
+        SSLContext context = contexts.get(protocol);
+        if (context != null) {
+            return context;
+        }
+        return contexts.computeIfAbsent(protocol,
+            p -> newContext(p, config.getSessionCacheSize(), config.getSessionTimeoutSeconds()));
+    }
+
+    private static SSLContext newContext(String protocol, int sessionCacheSize, int sessionTimeoutSeconds) {
+        try {
+            SSLContext created = SSLContext.getInstance(protocol);
+            created.init(null, trustManagers(), null);
+            SSLSessionContext sessionContext = created.getClientSessionContext();
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+            return created;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create SSLContext for " + protocol, e);
+        }
+    }
+
+    /**
+     * Trust managers over the default truststore, loaded once and shared by every context, or
+     * null to let JSSE load its default if the store cannot be indexed.
+     */
+    private static TrustManager[] trustManagers() {
+        try {
+            return TrustAnchorIndex.getDefault().getTrustManagers();
+        } catch (IOException | GeneralSecurityException e) {
+            logger.warn("Could not index the default truststore, using the JSSE default: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Layers TLS over an already connected socket using the shared context for {@code protocol}.
+     * The host and port identify the session cache entry used for resumption.
+     */
+    public SSLSocket createSocket(Socket socket, String host, int port, String protocol) throws IOException {
+        return (SSLSocket) getContext(protocol).getSocketFactory().createSocket(socket, host, port, true);
+    }
+
+    /**
+     * Like {@link #createSocket(Socket, String, int, String)}, but on a context of its own that the
+     * client never resumes from. Monitoring probes use it so the server certificate chain is
+     * validated on every check; the caller invalidates the session after the handshake.
+     */
+    public SSLSocket createProbeSocket(Socket socket, String host, int port, String protocol) throws IOException {
+        SSLContext context = probeContexts.computeIfAbsent(protocol, p -> newContext(p, 1, 1));
+        return (SSLSocket) context.getSocketFactory().createSocket(socket, host, port, true);
+    }
+
+    /**
+     * Runs the handshake, records whether it was full or resumed, and emits the flight recorder
+     * event for {@code source} ("client", "diagnostic", ...).
+     *
+     * @return true if the session was resumed
+     */
+    public boolean startHandshake(SSLSocket socket, String source) throws IOException {
+        Object event = FlightEvents.beginTlsHandshake();
+        long start = System.currentTimeMillis();
+        try {
+            socket.startHandshake();
+        } catch (IOException e) {
+            FlightEvents.commitTlsHandshake(event, socket.getInetAddress().getHostAddress(), socket.getPort(), null, false,
+                                             source, e);
+            throw e;
+        }
+        SSLSession session = socket.getSession();
+        boolean resumed = recordHandshake(session, start);
+        FlightEvents.commitTlsHandshake(event, session.getPeerHost(), session.getPeerPort(), session, resumed, source, null);
+        return resumed;
+    }
+
+    /**
+     * Classifies a completed handshake. A resumed session was created before this handshake
+     * started, or carries a session ID that an earlier handshake already produced. Pass 0 as
+     * the start time when it is unknown to rely on the session ID alone.
+     */
+    public boolean recordHandshake(SSLSession session, long handshakeStartMillis) {
+        boolean resumed = handshakeStartMillis > 0 && session.getCreationTime() < handshakeStartMillis;
+        byte[] id = session.getId();
+        if (id != null && id.length > 0) {
+            resumed |= !knownSessionIds.add(session.getProtocol() + ":" + toHex(id));
+        }
+        if (resumed) {
+            resumedHandshakes.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+        return resumed;
+    }
+
+    /**
+     * Socket factory for the blocking HttpClient that uses the shared context and counts handshakes.
+     */
+    public SSLConnectionSocketFactory httpClientSocketFactory() {
+        return new SSLConnectionSocketFactory(getContext(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()) {
+            @Override
+            public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+                Object event = FlightEvents.beginTlsHandshake();
+                long start = System.currentTimeMillis();
+                long startNanos = System.nanoTime();
+                Socket layered;
+                try {
+                    layered = super.createLayeredSocket(socket, target, port, context);
+                } catch (IOException e) {
+                    FlightEvents.commitTlsHandshake(event, target, port, null, false, "client", e);
+                    throw e;
+                }
+                if (layered instanceof SSLSocket) {
+                    SSLSession session = ((SSLSocket) layered).getSession();
+                    boolean resumed = recordHandshake(session, start);
+                    RequestMetrics.getDefault().recordTlsHandshake(System.nanoTime() - startNanos, resumed);
+                    FlightEvents.commitTlsHandshake(event, target, port, session, resumed, "client", null);
+                }
+                return layered;
+            }
+        };
+    }
+
+    /**
+     * TLS strategy for the async HttpClient that uses the shared context and counts handshakes.
+     */
+    public SSLIOSessionStrategy asyncSessionStrategy() {
+        return new SSLIOSessionStrategy(getContext(), null, null, SSLIOSessionStrategy.getDefaultHostnameVerifier()) {
+            @Override
+            protected void verifySession(HttpHost host, IOSession iosession, SSLSession session) throws SSLException {
+                super.verifySession(host, iosession, session);
+                // The async strategy has no hook before the handshake, so only session reuse is detected
+                recordHandshake(session, 0);
+            }
+        };
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+
+    public String describeStats() {
+        return "full=" + fullHandshakes.sum() + ", resumed=" + resumedHandshakes.sum();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
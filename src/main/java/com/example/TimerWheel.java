@@ -0,0 +1,112 @@
+package com.example;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel: one thread advances a ring of buckets every tick and hands due tasks to an
+ * executor. Scheduling is a lock-free enqueue and a tick costs only the tasks in one bucket, so
+ * thousands of periodic checks need a single timer thread however many are pending; the price is
+ * that a task runs up to one tick late.
+ */
+final class TimerWheel implements Closeable {
+
+    private final long tickNanos;
+    private final List<List<Timeout>> buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    private final Thread worker;
+    private final long startNanos = System.nanoTime();
+    private long tick;
+    private volatile boolean closed;
+
+    TimerWheel(long tickMillis, int wheelSize, Executor executor, String threadName) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.executor = executor;
+        this.worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs {@code task} on the executor after at least {@code delayMillis}.
+     */
+    void schedule(Runnable task, long delayMillis) {
+        if (!closed) {
+            pending.add(new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis))));
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            long due = startNanos + (tick + 1) * tickNanos;
+            long sleep = due - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            transferPending();
+            expire(buckets.get((int) (tick % buckets.size())));
+            tick++;
+        }
+    }
+
+    /**
+     * Places newly scheduled tasks in the bucket of their deadline; a task further away than one
+     * turn of the wheel waits there for its remaining rounds.
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            long deadlineTick = Math.max(tick, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1);
+            timeout.rounds = (deadlineTick - tick) / buckets.size();
+            buckets.get((int) (deadlineTick % buckets.size())).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            it.remove();
+            try {
+                executor.execute(timeout.task);
+            } catch (RuntimeException e) {
+                // Rejected after the executor was shut down
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private static final class Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        long rounds;
+
+        Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Trust anchors of one truststore, loaded once per process and indexed by subject, issuer and
+ * subject key identifier, with a trust manager shared by every SSL context built on them.
+ *
+ * <p>File-based stores can be persisted as a snapshot in {@code app.ssl.trust-snapshot-dir}. The
+ * snapshot records a SHA-256 fingerprint of the store type, path and file contents, and is only
+ * used while the fingerprint still matches, so a changed truststore is picked up on the next run.
+ * It caches only the store read: the snapshot holds the DER certificates, which are parsed and
+ * indexed again on every start.
+ * The fingerprint only tells which store a snapshot claims to come from, so snapshots are written
+ * owner-only and ignored when the directory or file can be written by other users.
+ * Windows stores have no file to fingerprint and are always read from the OS.
+ */
+public final class TrustAnchorIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrustAnchorIndex.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x54414958; // "TAIX"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+    // Far above any real truststore; a larger count or length means the snapshot is corrupt
+    private static final int MAX_SNAPSHOT_ANCHORS = 100_000;
+    private static final int MAX_CERTIFICATE_BYTES = 64 * 1024;
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private static final ConcurrentMap<String, TrustAnchorIndex> INDEXES = new ConcurrentHashMap<>();
+    private static volatile Path snapshotDir;
+
+    private final String storeType;
+    private final String source;
+    private final KeyStore keyStore;
+    private final List<X509Certificate> anchors;
+    private final List<String> lowerCaseIssuers;
+    private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+    private final Map<X500Principal, List<X509Certificate>> byIssuer = new HashMap<>();
+    private final Map<String, List<X509Certificate>> byKeyIdentifier = new HashMap<>();
+    private final TrustManager[] trustManagers;
+    private final long loadMillis;
+    private final boolean fromSnapshot;
+
+    private TrustAnchorIndex(String storeType, String source, KeyStore keyStore, long loadStartNanos,
+                             boolean fromSnapshot) throws GeneralSecurityException {
+        this.storeType = storeType;
+        this.source = source;
+        this.keyStore = keyStore;
+        this.fromSnapshot = fromSnapshot;
+
+        List<X509Certificate> certificates = new ArrayList<>();
+        List<String> issuers = new ArrayList<>();
+        for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
+            String alias = aliases.nextElement();
+            if (!keyStore.isCertificateEntry(alias)) {
+                continue;
+            }
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate instanceof X509Certificate) {
+                X509Certificate x509 = (X509Certificate) certificate;
+                certificates.add(x509);
+                issuers.add(x509.getIssuerX500Principal().getName().toLowerCase(Locale.ROOT));
+                bySubject.computeIfAbsent(x509.getSubjectX500Principal(), k -> new ArrayList<>()).add(x509);
+                byIssuer.computeIfAbsent(x509.getIssuerX500Principal(), k -> new ArrayList<>()).add(x509);
+                byte[] keyIdentifier = subjectKeyIdentifier(x509);
+                if (keyIdentifier != null) {
+                    byKeyIdentifier.computeIfAbsent(toHex(keyIdentifier), k -> new ArrayList<>()).add(x509);
+                }
+            }
+        }
+        this.anchors = Collections.unmodifiableList(certificates);
+        this.lowerCaseIssuers = issuers;
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        this.trustManagers = tmf.getTrustManagers();
+        this.loadMillis = (System.nanoTime() - loadStartNanos) / 1_000_000;
+    }
+
+    /**
+     * Sets where snapshots of file-based stores are kept; empty disables them. Applies to stores
+     * loaded afterwards.
+     */
+    public static void configure(SslConfig config) {
+        String dir = config.getTrustSnapshotDir();
+        snapshotDir = dir == null || dir.isEmpty() ? null : Paths.get(dir);
+    }
+
+    /**
+     * The JSSE default truststore: {@code javax.net.ssl.trustStore}, else jssecacerts, else cacerts.
+     */
+    public static TrustAnchorIndex getDefault() throws IOException, GeneralSecurityException {
+        return forStoreType(System.getProperty("javax.net.ssl.trustStoreType", KeyStore.getDefaultType()));
+    }
+
+    /**
+     * Anchors of one store type, loaded on first use. Windows-* types come from the OS store,
+     * other types from the default truststore file read as that type.
+     */
+    public static TrustAnchorIndex forStoreType(String storeType) throws IOException, GeneralSecurityException {
+        TrustAnchorIndex index = INDEXES.get(storeType);
+        if (index != null) {
+            return index;
+        }
+        synchronized (INDEXES) {
+            index = INDEXES.get(storeType);
+            if (index == null) {
+                index = load(storeType);
+                INDEXES.put(storeType, index);
+                logger.info("Trust anchors: {}", index.describe());
+            }
+            return index;
+        }
+    }
+
+    private static TrustAnchorIndex load(String storeType) throws IOException, GeneralSecurityException {
+        long start = System.nanoTime();
+        KeyStore keyStore = KeyStore.getInstance(storeType);
+        if (storeType.startsWith("Windows-")) {
+            keyStore.load(null, null);
+            return new TrustAnchorIndex(storeType, storeType + " system store", keyStore, start, false);
+        }
+
+        Path path = defaultTrustStorePath();
+        String password = System.getProperty("javax.net.ssl.trustStorePassword");
+        byte[] content = Files.readAllBytes(path);
+        Path snapshot = snapshotDir != null && privateSnapshotDir(snapshotDir)
+            ? snapshotDir.resolve("trust-anchors-" + storeType + ".snapshot")
+            : null;
+        String fingerprint = snapshot != null ? fingerprint(storeType, path, content) : null;
+
+        if (snapshot != null && Files.isRegularFile(snapshot, LinkOption.NOFOLLOW_LINKS) && !ownerOnly(snapshot)) {
+            logger.warn("Ignoring trust anchor snapshot {}: other users can write to it", snapshot);
+        } else if (snapshot != null && Files.isRegularFile(snapshot, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                KeyStore restored = readSnapshot(snapshot, fingerprint);
+                if (restored != null) {
+                    return new TrustAnchorIndex(storeType, path.toString(), restored, start, true);
+                }
+                logger.info("Trust anchor snapshot {} is out of date, reloading {}", snapshot, path);
+            } catch (IOException | GeneralSecurityException e) {
+                logger.warn("Ignoring unreadable trust anchor snapshot {}: {}", snapshot, e.getMessage());
+            }
+        }
+
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            keyStore.load(in, password != null ? password.toCharArray() : null);
+        }
+        TrustAnchorIndex index = new TrustAnchorIndex(storeType, path.toString(), keyStore, start, false);
+        if (snapshot != null) {
+            try {
+                index.writeSnapshot(snapshot, fingerprint);
+            } catch (IOException | GeneralSecurityException e) {
+                logger.warn("Could not write trust anchor snapshot {}: {}", snapshot, e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Creates the snapshot directory owner-only if needed, and tells whether it is safe to use:
+     * a directory other users can write to would let them plant a snapshot.
+     */
+    private static boolean privateSnapshotDir(Path dir) {
+        try {
+            if (!Files.isDirectory(dir)) {
+                if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                    Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+                } else {
+                    Files.createDirectories(dir);
+                }
+            }
+            if (ownerOnly(dir)) {
+                return true;
+            }
+            logger.warn("Not using trust anchor snapshots: other users can write to {}", dir);
+        } catch (IOException e) {
+            logger.warn("Not using trust anchor snapshots in {}: {}", dir, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Whether only the current user can change this path: the user owns it and, on POSIX file
+     * systems, neither group nor others have write permission.
+     */
+    private static boolean ownerOnly(Path path) throws IOException {
+        String owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName();
+        String user = System.getProperty("user.name");
+        // Windows reports owners as DOMAIN followed by a backslash and the user name
+        if (!owner.equals(user) && !owner.endsWith("\\" + user)) {
+            return false;
+        }
+        PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class,
+                                                                  LinkOption.NOFOLLOW_LINKS);
+        if (posix == null) {
+            return true;
+        }
+        Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+        return !permissions.contains(PosixFilePermission.GROUP_WRITE)
+            && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+    }
+
+    static Path defaultTrustStorePath() {
+        String configured = System.getProperty("javax.net.ssl.trustStore");
+        if (configured != null && !configured.isEmpty() && !"NONE".equals(configured)) {
+            return Paths.get(configured);
+        }
+        Path security = Paths.get(System.getProperty("java.home"), "lib", "security");
+        Path jssecacerts = security.resolve("jssecacerts");
+        return Files.isRegularFile(jssecacerts) ? jssecacerts : security.resolve("cacerts");
+    }
+
+    private static String fingerprint(String storeType, Path path, byte[] content) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((storeType + File.pathSeparator + path.toAbsolutePath()).getBytes(StandardCharsets.UTF_8));
+        digest.update(content);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Reads the anchors of a snapshot into an in-memory store, or returns null if the
+     * snapshot was taken from a different store.
+     */
+    private static KeyStore readSnapshot(Path snapshot, String fingerprint) throws IOException, GeneralSecurityException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || !fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
+            int count = in.readInt();
+            if (count < 0 || count > MAX_SNAPSHOT_ANCHORS) {
+                throw new IOException("corrupt anchor count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                String alias = in.readUTF();
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_CERTIFICATE_BYTES) {
+                    throw new IOException("corrupt certificate length " + length);
+                }
+                byte[] encoded = new byte[length];
+                in.readFully(encoded);
+                keyStore.setCertificateEntry(alias,
+                    certificateFactory.generateCertificate(new ByteArrayInputStream(encoded)));
+            }
+            return keyStore;
+        }
+    }
+
+    private void writeSnapshot(Path snapshot, String fingerprint) throws IOException, GeneralSecurityException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
+            String alias = aliases.nextElement();
+            if (keyStore.isCertificateEntry(alias)) {
+                entries.put(alias, keyStore.getCertificate(alias).getEncoded());
+            }
+        }
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        if (temp.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE));
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Wrote trust anchor snapshot {} ({} anchors)", snapshot, entries.size());
+    }
+
+    /**
+     * Key identifier bytes from the subject key identifier extension, or null if absent.
+     * The extension value is an OCTET STRING wrapping the DER OCTET STRING of the identifier.
+     */
+    private static byte[] subjectKeyIdentifier(X509Certificate certificate) {
+        byte[] extension = certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER);
+        if (extension == null) {
+            return null;
+        }
+        byte[] inner = octetStringContent(extension);
+        return inner != null ? octetStringContent(inner) : null;
+    }
+
+    private static byte[] octetStringContent(byte[] der) {
+        if (der.length < 2 || der[0] != 0x04) {
+            return null;
+        }
+        int length = der[1] & 0xff;
+        int offset = 2;
+        if (length > 0x7f) {
+            int lengthBytes = length & 0x7f;
+            if (lengthBytes > 3 || der.length < 2 + lengthBytes) {
+                return null;
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (der[2 + i] & 0xff);
+            }
+            offset += lengthBytes;
+        }
+        if (offset + length > der.length) {
+            return null;
+        }
+        byte[] content = new byte[length];
+        System.arraycopy(der, offset, content, 0, length);
+        return content;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public String getStoreType() {
+        return storeType;
+    }
+
+    public List<X509Certificate> getAnchors() {
+        return anchors;
+    }
+
+    /**
+     * Trust managers over these anchors; the same instances are handed to every SSL context.
+     */
+    public TrustManager[] getTrustManagers() {
+        return trustManagers;
+    }
+
+    public X509TrustManager getTrustManager() {
+        for (TrustManager trustManager : trustManagers) {
+            if (trustManager instanceof X509TrustManager) {
+                return (X509TrustManager) trustManager;
+            }
+        }
+        throw new IllegalStateException("No X509TrustManager for " + storeType);
+    }
+
+    public List<X509Certificate> findBySubject(X500Principal subject) {
+        return bySubject.getOrDefault(subject, Collections.emptyList());
+    }
+
+    public List<X509Certificate> findByIssuer(X500Principal issuer) {
+        return byIssuer.getOrDefault(issuer, Collections.emptyList());
+    }
+
+    public List<X509Certificate> findByKeyIdentifier(byte[] keyIdentifier) {
+        return byKeyIdentifier.getOrDefault(toHex(keyIdentifier), Collections.emptyList());
+    }
+
+    /**
+     * Counts anchors whose issuer name contains any of the keywords, ignoring case.
+     */
+    public int countIssuersContaining(String... keywords) {
+        int count = 0;
+        for (String issuer : lowerCaseIssuers) {
+            for (String keyword : keywords) {
+                if (issuer.contains(keyword.toLowerCase(Locale.ROOT))) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    public String describe() {
+        return anchors.size() + " anchors from " + source + " (" + storeType + ", " +
+               (fromSnapshot ? "snapshot" : "store") + ", " + loadMillis + " ms)";
+    }
+}
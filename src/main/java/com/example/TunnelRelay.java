@@ -0,0 +1,193 @@
+package com.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays established CONNECT tunnels on a single selector thread, so open tunnels do not hold
+ * a worker thread each.
+ *
+ * <p>Each side of a tunnel has a buffer for the bytes read from it. When the other side cannot
+ * take them all, reading from this side pauses until the buffer drains (back pressure), and an
+ * end of stream is propagated as a half-close once the buffer is empty.
+ */
+final class TunnelRelay implements Runnable, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TunnelRelay.class);
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final Selector selector;
+    private final Queue<Side[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeTunnels = new AtomicInteger();
+    private final LongAdder totalTunnels = new LongAdder();
+    private final LongAdder bytesRelayed = new LongAdder();
+    private volatile boolean running = true;
+
+    TunnelRelay() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Hands a pair of connected channels to the relay. Both must be in blocking mode and idle.
+     */
+    void register(SocketChannel client, SocketChannel upstream) {
+        Side clientSide = new Side(client);
+        Side upstreamSide = new Side(upstream);
+        clientSide.peer = upstreamSide;
+        upstreamSide.peer = clientSide;
+        pending.add(new Side[] {clientSide, upstreamSide});
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                registerPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Side side = (Side) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            readFrom(side);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            writeTo(side);
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Tunnel closed: {}", e.getMessage());
+                        closeTunnel(side);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.error("Tunnel relay stopped", e);
+            }
+        }
+    }
+
+    private void registerPending() {
+        Side[] tunnel;
+        while ((tunnel = pending.poll()) != null) {
+            try {
+                for (Side side : tunnel) {
+                    side.channel.configureBlocking(false);
+                    side.key = side.channel.register(selector, SelectionKey.OP_READ, side);
+                }
+                activeTunnels.incrementAndGet();
+                totalTunnels.increment();
+            } catch (IOException e) {
+                logger.debug("Could not register tunnel: {}", e.getMessage());
+                closeQuietly(tunnel[0].channel);
+                closeQuietly(tunnel[1].channel);
+            }
+        }
+    }
+
+    private void readFrom(Side side) throws IOException {
+        int read = side.channel.read(side.inbound);
+        if (read < 0) {
+            side.inputClosed = true;
+            side.key.interestOps(side.key.interestOps() & ~SelectionKey.OP_READ);
+        } else {
+            bytesRelayed.add(read);
+        }
+        writeTo(side.peer);
+    }
+
+    /**
+     * Writes bytes read from the peer into this side's channel.
+     */
+    private void writeTo(Side side) throws IOException {
+        Side source = side.peer;
+        source.inbound.flip();
+        side.channel.write(source.inbound);
+        boolean drained = !source.inbound.hasRemaining();
+        source.inbound.compact();
+
+        if (drained) {
+            side.key.interestOps(side.key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (source.inputClosed) {
+                if (!side.outputClosed) {
+                    side.outputClosed = true;
+                    side.channel.shutdownOutput();
+                }
+                if (side.inputClosed && source.outputClosed) {
+                    closeTunnel(side);
+                }
+            } else {
+                source.key.interestOps(source.key.interestOps() | SelectionKey.OP_READ);
+            }
+        } else {
+            // Peer is slower than the source: stop reading until the buffer drains
+            side.key.interestOps(side.key.interestOps() | SelectionKey.OP_WRITE);
+            source.key.interestOps(source.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void closeTunnel(Side side) {
+        if (side.channel.isOpen() || side.peer.channel.isOpen()) {
+            activeTunnels.decrementAndGet();
+        }
+        closeQuietly(side.channel);
+        closeQuietly(side.peer.channel);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore cleanup errors
+        }
+    }
+
+    int getActiveTunnels() {
+        return activeTunnels.get();
+    }
+
+    String describeStats() {
+        return "active=" + activeTunnels.get() +
+               ", total=" + totalTunnels.sum() +
+               ", bytes=" + bytesRelayed.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly((SocketChannel) key.channel());
+        }
+        selector.close();
+    }
+
+    private static final class Side {
+        final SocketChannel channel;
+        final ByteBuffer inbound = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        Side peer;
+        SelectionKey key;
+        boolean inputClosed;
+        boolean outputClosed;
+
+        Side(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example;
+
+import org.apache.http.conn.DnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keep-alive connections from the sidecar to the upstream proxy. A connection remembers whether
+ * it already completed the NTLM handshake, so requests leased onto it skip authentication.
+ *
+ * <p>Idle connections are reused most-recently-released first and closed after the idle timeout.
+ * Only {@code maxIdle} connections are kept; connections handed over to CONNECT tunnels are not
+ * counted, since they never come back to the pool.
+ */
+final class UpstreamConnectionPool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamConnectionPool.class);
+
+    private final String proxyHost;
+    private final int proxyPort;
+    private final DnsResolver dnsResolver;
+    private final int maxIdle;
+    private final long idleTimeoutMs;
+    private final int connectTimeoutMs;
+    private final int socketTimeoutMs;
+    private final BlockingDeque<UpstreamConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    UpstreamConnectionPool(String proxyHost, int proxyPort, DnsResolver dnsResolver, int maxIdle,
+                           int idleTimeoutSeconds, int connectTimeoutMs, int socketTimeoutMs) {
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+        this.dnsResolver = dnsResolver;
+        this.maxIdle = maxIdle;
+        this.idleTimeoutMs = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.socketTimeoutMs = socketTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sidecar-upstream-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, 5, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns a pooled connection, preferring the most recently used one, or opens a new one.
+     */
+    UpstreamConnection lease() throws IOException {
+        UpstreamConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            if (!connection.isExpired(idleTimeoutMs) && connection.getChannel().isOpen()) {
+                reused.increment();
+                connection.reused = true;
+                return connection;
+            }
+            connection.close();
+        }
+        return connect();
+    }
+
+    /**
+     * Opens a connection that is not taken from the pool, used to retry after a stale pooled one.
+     */
+    UpstreamConnection connect() throws IOException {
+        // Every resolved proxy address is raced, so one that blackholes does not stall the tunnel
+        Socket socket = ConnectionRacer.getDefault().connect(proxyHost, dnsResolver.resolve(proxyHost), proxyPort,
+                                                             connectTimeoutMs, new ConnectionRacer.Connector() {
+            @Override
+            public Socket createSocket() throws IOException {
+                Socket created = SocketChannel.open().socket();
+                created.setTcpNoDelay(true);
+                created.setKeepAlive(true);
+                return created;
+            }
+
+            @Override
+            public Socket connect(Socket created, InetSocketAddress remote, int timeoutMs) throws IOException {
+                long start = System.nanoTime();
+                created.connect(remote, timeoutMs);
+                RequestMetrics.getDefault().recordConnect(System.nanoTime() - start);
+                return created;
+            }
+        });
+        SocketChannel channel = socket.getChannel();
+        try {
+            socket.setSoTimeout(socketTimeoutMs);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        created.increment();
+        return new UpstreamConnection(new HttpStream(channel), proxyHost + ":" + proxyPort);
+    }
+
+    /**
+     * Returns a connection after a complete exchange; it is closed if it cannot carry another request.
+     */
+    void release(UpstreamConnection connection, boolean reusable) {
+        if (reusable && connection.getChannel().isOpen()) {
+            connection.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(connection);
+            // Trim from the cold end so the hottest connections stay
+            while (idle.size() > maxIdle) {
+                UpstreamConnection surplus = idle.pollLast();
+                if (surplus == null) {
+                    break;
+                }
+                surplus.close();
+            }
+        } else {
+            connection.close();
+        }
+    }
+
+    private void evictIdle() {
+        Iterator<UpstreamConnection> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            UpstreamConnection connection = iterator.next();
+            if (connection.isExpired(idleTimeoutMs) && idle.remove(connection)) {
+                connection.close();
+            }
+        }
+    }
+
+    String describeStats() {
+        return "idle=" + idle.size() +
+               ", created=" + created.sum() +
+               ", reused=" + reused.sum();
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        UpstreamConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+        logger.debug("Upstream pool to {}:{} closed", proxyHost, proxyPort);
+    }
+
+    /**
+     * Connection to the upstream proxy and its NTLM state
+     */
+    static final class UpstreamConnection implements Closeable {
+
+        private final HttpStream stream;
+        private final String proxy;
+        volatile boolean authenticated;
+        volatile boolean reused;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        UpstreamConnection(HttpStream stream, String proxy) {
+            this.stream = stream;
+            this.proxy = proxy;
+        }
+
+        HttpStream getStream() {
+            return stream;
+        }
+
+        SocketChannel getChannel() {
+            return stream.getChannel();
+        }
+
+        /** The upstream proxy as host:port */
+        String getProxy() {
+            return proxy;
+        }
+
+        boolean isExpired(long idleTimeoutMs) {
+            return System.currentTimeMillis() - lastUsed > idleTimeoutMs;
+        }
+
+        @Override
+        public void close() {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watch mode: endpoints to probe continuously, their scheduling and the rolling result windows
+ */
+@Component
+@ConfigurationProperties(prefix = "app.watch")
+public class WatchConfig {
+    private String endpoints = "";
+    private String endpointsFile = "";
+    private int defaultIntervalSeconds = 30;
+    private int jitterPercent = 10;
+    private int threads = 4;
+    private int tickMs = 100;
+    private int timeoutMs = 5000;
+    private String tlsProtocol = "TLSv1.2";
+    private int windowSeconds = 300;
+    private int summaryIntervalSeconds = 60;
+    private int summaryLines = 20;
+
+    public WatchConfig() {
+        // Defaults are used when the properties are not set in application.properties
+    }
+
+    public String getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(String endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public String getEndpointsFile() {
+        return endpointsFile;
+    }
+
+    public void setEndpointsFile(String endpointsFile) {
+        this.endpointsFile = endpointsFile;
+    }
+
+    public int getDefaultIntervalSeconds() {
+        return defaultIntervalSeconds;
+    }
+
+    public void setDefaultIntervalSeconds(int defaultIntervalSeconds) {
+        this.defaultIntervalSeconds = defaultIntervalSeconds;
+    }
+
+    public int getJitterPercent() {
+        return jitterPercent;
+    }
+
+    public void setJitterPercent(int jitterPercent) {
+        this.jitterPercent = jitterPercent;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getTickMs() {
+        return tickMs;
+    }
+
+    public void setTickMs(int tickMs) {
+        this.tickMs = tickMs;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public String getTlsProtocol() {
+        return tlsProtocol;
+    }
+
+    public void setTlsProtocol(String tlsProtocol) {
+        this.tlsProtocol = tlsProtocol;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public int getSummaryIntervalSeconds() {
+        return summaryIntervalSeconds;
+    }
+
+    public void setSummaryIntervalSeconds(int summaryIntervalSeconds) {
+        this.summaryIntervalSeconds = summaryIntervalSeconds;
+    }
+
+    public int getSummaryLines() {
+        return summaryLines;
+    }
+
+    public void setSummaryLines(int summaryLines) {
+        this.summaryLines = summaryLines;
+    }
+}
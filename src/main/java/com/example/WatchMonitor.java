@@ -0,0 +1,379 @@
+package com.example;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running synthetic monitoring: probes a set of endpoints, each on its own interval, and
+ * logs a compact summary of the results at a fixed period.
+ *
+ * <p>Endpoints are written {@code kind:target[@seconds]}:
+ * <ul>
+ *   <li>{@code http:https://example.com/health} (or just the URL) - GET through the proxy client,
+ *       reusing its pooled, already authenticated connections; 4xx and 5xx count as failures</li>
+ *   <li>{@code tcp:host:port} - TCP connect</li>
+ *   <li>{@code tls:host:port} - TCP connect and TLS handshake with {@code app.watch.tls-protocol}</li>
+ * </ul>
+ *
+ * <p>Checks are due on a {@link TimerWheel} and run on {@code app.watch.threads} workers. Each
+ * check is rescheduled when it finishes, one interval (plus or minus {@code jitter-percent}) after
+ * it started, so a slow endpoint never has two checks in flight. Outcomes and latencies are kept
+ * for the last {@code app.watch.window-seconds}.
+ */
+public class WatchMonitor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatchMonitor.class);
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int SLOTS = 6;
+
+    enum Kind { HTTP, TCP, TLS }
+
+    private final NtlmProxyClient client;
+    private final WatchConfig config;
+    private final List<Endpoint> endpoints;
+    private final ExecutorService workers;
+    private final TimerWheel wheel;
+    private final LatencyTracker latency;
+    private final long slotMillis;
+    private final Map<Kind, Counter> okCounters = new EnumMap<>(Kind.class);
+    private final Map<Kind, Counter> failedCounters = new EnumMap<>(Kind.class);
+    private final AtomicLong checks = new AtomicLong();
+    private long checksAtLastSummary;
+    private long lastSummaryNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * @param client proxy client for http endpoints; may be null when there are none
+     */
+    public WatchMonitor(NtlmProxyClient client, WatchConfig config, List<Endpoint> endpoints) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.kind == Kind.HTTP && client == null) {
+                throw new IllegalArgumentException("http endpoint " + endpoint.target + " needs a proxy configuration");
+            }
+        }
+        this.client = client;
+        this.config = config;
+        this.endpoints = endpoints;
+        this.latency = new LatencyTracker(config.getWindowSeconds(), 1);
+        this.slotMillis = Math.max(1, TimeUnit.SECONDS.toMillis(config.getWindowSeconds()) / SLOTS);
+
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, config.getThreads()), runnable -> {
+            Thread thread = new Thread(runnable, "watch-check-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.wheel = new TimerWheel(config.getTickMs(), WHEEL_SIZE, workers, "watch-timer");
+
+        MeterRegistry registry = RequestMetrics.getDefault().getRegistry();
+        for (Kind kind : Kind.values()) {
+            String tag = kind.name().toLowerCase(Locale.ROOT);
+            okCounters.put(kind, Counter.builder("watch.checks").description("Synthetic monitoring checks")
+                .tag("kind", tag).tag("result", "ok").register(registry));
+            failedCounters.put(kind, Counter.builder("watch.checks").description("Synthetic monitoring checks")
+                .tag("kind", tag).tag("result", "failed").register(registry));
+        }
+    }
+
+    /**
+     * Reads endpoints from {@code app.watch.endpoints} (comma separated) and
+     * {@code app.watch.endpoints-file} (one per line, '#' comments).
+     */
+    public static List<Endpoint> endpoints(WatchConfig config) throws IOException {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String spec : config.getEndpoints().split(",")) {
+            if (!spec.trim().isEmpty()) {
+                endpoints.add(Endpoint.parse(spec, config.getDefaultIntervalSeconds()));
+            }
+        }
+        if (!config.getEndpointsFile().isEmpty()) {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(config.getEndpointsFile()),
+                                                                 StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        endpoints.add(Endpoint.parse(line, config.getDefaultIntervalSeconds()));
+                    }
+                }
+            }
+        }
+        // An endpoint listed twice is checked once, on its first interval
+        Map<String, Endpoint> unique = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            unique.putIfAbsent(endpoint.kind + " " + endpoint.name, endpoint);
+        }
+        return new ArrayList<>(unique.values());
+    }
+
+    /**
+     * Starts the checks, spread over their first interval so they do not all fire at once, and
+     * the periodic summary.
+     */
+    public void start() {
+        for (Endpoint endpoint : endpoints) {
+            wheel.schedule(() -> check(endpoint), ThreadLocalRandom.current().nextLong(endpoint.intervalMillis));
+        }
+        scheduleSummary();
+        logger.info("Watching {} endpoints with {} check threads, summary every {} s", endpoints.size(),
+                    config.getThreads(), config.getSummaryIntervalSeconds());
+    }
+
+    private void scheduleSummary() {
+        wheel.schedule(() -> {
+            if (!closed) {
+                logger.info("{}", summarize());
+                scheduleSummary();
+            }
+        }, TimeUnit.SECONDS.toMillis(Math.max(1, config.getSummaryIntervalSeconds())));
+    }
+
+    private void check(Endpoint endpoint) {
+        if (closed) {
+            return;
+        }
+        long start = System.nanoTime();
+        String error;
+        try {
+            error = probe(endpoint);
+        } catch (Exception e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        endpoint.record(error, slotMillis);
+        checks.incrementAndGet();
+        if (error == null) {
+            latency.recordResponse(endpoint.name, elapsedNanos);
+            okCounters.get(endpoint.kind).increment();
+        } else {
+            failedCounters.get(endpoint.kind).increment();
+            logger.debug("Check of {} failed: {}", endpoint.name, error);
+        }
+
+        long jitter = endpoint.intervalMillis * config.getJitterPercent() / 100;
+        long delay = endpoint.intervalMillis - TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                     + (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0);
+        wheel.schedule(() -> check(endpoint), delay);
+    }
+
+    /**
+     * @return null when the endpoint is healthy, otherwise why it is not
+     */
+    private String probe(Endpoint endpoint) throws IOException {
+        int timeoutMs = config.getTimeoutMs();
+        if (endpoint.kind == Kind.HTTP) {
+            HttpGet get = new HttpGet(endpoint.target);
+            get.setConfig(RequestConfig.copy(client.getRequestConfig())
+                .setConnectTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .setConnectionRequestTimeout(timeoutMs)
+                .build());
+            // A probe must reach the origin, never an answer held by app.cache
+            get.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+            try (CloseableHttpResponse response = client.execute(get)) {
+                // Read to the end so the connection goes back to the pool
+                EntityUtils.consume(response.getEntity());
+                int status = response.getStatusLine().getStatusCode();
+                return status < 400 ? null : "HTTP " + status;
+            }
+        }
+        InetAddress[] addresses = CachingDnsResolver.getDefault().resolve(endpoint.target);
+        ProbeResult result = endpoint.kind == Kind.TCP
+            ? NetworkDiagnostic.probeTCP(endpoint.target, addresses, endpoint.port, timeoutMs)
+            : DeepSSLDiagnostic.probeRawSSL(endpoint.target, ConnectionRacer.getDefault().order(addresses)[0],
+                                            endpoint.port, config.getTlsProtocol(), timeoutMs, timeoutMs, false);
+        return result.isOk() ? null : result.getErrorType() + ": " + result.getError();
+    }
+
+    /**
+     * One line for the whole watch, then the endpoints with the most failures (slowest first among
+     * equals), up to {@code app.watch.summary-lines}.
+     */
+    public synchronized String summarize() {
+        long now = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        long total = checks.get();
+        double rate = (total - checksAtLastSummary) / Math.max(1e-3, (nowNanos - lastSummaryNanos) / 1e9);
+        checksAtLastSummary = total;
+        lastSummaryNanos = nowNanos;
+
+        List<Row> rows = new ArrayList<>(endpoints.size());
+        long ok = 0;
+        long failed = 0;
+        int failing = 0;
+        for (Endpoint endpoint : endpoints) {
+            long[] counts = endpoint.counts(now, slotMillis);
+            ok += counts[0];
+            failed += counts[1];
+            if (counts[1] > 0) {
+                failing++;
+            }
+            rows.add(new Row(endpoint, counts[0], counts[1],
+                             latency.responsePercentileMicros(endpoint.name, 50),
+                             latency.responsePercentileMicros(endpoint.name, 99)));
+        }
+        rows.sort(Comparator.comparingLong((Row row) -> row.failed).reversed()
+                      .thenComparing(Comparator.comparingLong((Row row) -> row.p99Micros).reversed()));
+
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+            "Watch: %d endpoints, %.1f checks/s, %.2f%% ok over the last %d s, %d failing",
+            endpoints.size(), rate, ok + failed > 0 ? 100.0 * ok / (ok + failed) : 100.0,
+            config.getWindowSeconds(), failing));
+        for (int i = 0; i < Math.min(config.getSummaryLines(), rows.size()); i++) {
+            Row row = rows.get(i);
+            sb.append(String.format(Locale.ROOT, "%n  %-4s %-4s %-48s %4d/%-4d p50=%s p99=%s%s",
+                                    row.failed > 0 ? "FAIL" : "ok", row.endpoint.kind.name().toLowerCase(Locale.ROOT),
+                                    row.endpoint.name, row.ok, row.ok + row.failed, millis(row.p50Micros),
+                                    millis(row.p99Micros),
+                                    row.failed > 0 ? "  last error: " + row.endpoint.lastError : ""));
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long micros) {
+        return micros < 0 ? "-" : String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        wheel.close();
+        workers.shutdownNow();
+    }
+
+    /**
+     * One monitored endpoint and its outcomes per slot of the window.
+     */
+    static final class Endpoint {
+        final Kind kind;
+        final String target;
+        final int port;
+        final String name;
+        final long intervalMillis;
+        private final long[] okSlots = new long[SLOTS];
+        private final long[] failedSlots = new long[SLOTS];
+        private final long[] slotStarts = new long[SLOTS];
+        private volatile String lastError;
+
+        Endpoint(Kind kind, String target, int port, long intervalMillis) {
+            this.kind = kind;
+            this.target = target;
+            this.port = port;
+            this.name = kind == Kind.HTTP ? target : target + ":" + port;
+            this.intervalMillis = Math.max(1, intervalMillis);
+        }
+
+        /**
+         * Parses {@code kind:target[@seconds]}; a bare http(s) URL is an http endpoint.
+         */
+        static Endpoint parse(String spec, int defaultIntervalSeconds) {
+            String entry = spec.trim();
+            long intervalSeconds = defaultIntervalSeconds;
+            int at = entry.lastIndexOf('@');
+            if (at > 0 && entry.substring(at + 1).matches("\\d+")) {
+                intervalSeconds = Long.parseLong(entry.substring(at + 1));
+                entry = entry.substring(0, at);
+            }
+            long intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+            String lower = entry.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("http://") || lower.startsWith("https://")) {
+                return new Endpoint(Kind.HTTP, entry, -1, intervalMillis);
+            }
+            int colon = entry.indexOf(':');
+            String kind = colon > 0 ? lower.substring(0, colon) : "";
+            String target = colon > 0 ? entry.substring(colon + 1) : entry;
+            if ("http".equals(kind)) {
+                return new Endpoint(Kind.HTTP, target, -1, intervalMillis);
+            }
+            if ("tcp".equals(kind) || "tls".equals(kind)) {
+                int portSeparator = target.lastIndexOf(':');
+                if (portSeparator > 0) {
+                    return new Endpoint("tcp".equals(kind) ? Kind.TCP : Kind.TLS, target.substring(0, portSeparator),
+                                        Integer.parseInt(target.substring(portSeparator + 1)), intervalMillis);
+                }
+                if ("tls".equals(kind)) {
+                    return new Endpoint(Kind.TLS, target, 443, intervalMillis);
+                }
+            }
+            throw new IllegalArgumentException("Unrecognized watch endpoint '" + spec
+                                               + "', expected http:<url>, tcp:<host>:<port> or tls:<host>[:<port>]");
+        }
+
+        synchronized void record(String error, long slotMillis) {
+            long now = System.currentTimeMillis();
+            long slotStart = now - now % slotMillis;
+            int slot = (int) ((now / slotMillis) % SLOTS);
+            if (slotStarts[slot] != slotStart) {
+                slotStarts[slot] = slotStart;
+                okSlots[slot] = 0;
+                failedSlots[slot] = 0;
+            }
+            if (error == null) {
+                okSlots[slot]++;
+            } else {
+                failedSlots[slot]++;
+                lastError = error;
+            }
+        }
+
+        /**
+         * @return successful and failed checks in the slots still inside the window
+         */
+        synchronized long[] counts(long now, long slotMillis) {
+            long[] counts = new long[2];
+            long oldest = now - now % slotMillis - (SLOTS - 1) * slotMillis;
+            for (int i = 0; i < SLOTS; i++) {
+                if (slotStarts[i] >= oldest) {
+                    counts[0] += okSlots[i];
+                    counts[1] += failedSlots[i];
+                }
+            }
+            return counts;
+        }
+    }
+
+    private static final class Row {
+        final Endpoint endpoint;
+        final long ok;
+        final long failed;
+        final long p50Micros;
+        final long p99Micros;
+
+        Row(Endpoint endpoint, long ok, long failed, long p50Micros, long p99Micros) {
+            this.endpoint = endpoint;
+            this.ok = ok;
+            this.failed = failed;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+        }
+    }
+}
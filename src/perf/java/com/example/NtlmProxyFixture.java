@@ -0,0 +1,459 @@
+package com.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Offline stand-in for the corporate NTLM proxy, for the performance suite and local runs.
+ *
+ * <p>Listens on localhost and answers like an NTLM-only forward proxy: a request without
+ * credentials gets {@code 407 Proxy-Authenticate: NTLM}, a negotiate message gets a challenge
+ * with a random server nonce, and the authenticate message is checked by recomputing the NTLMv2
+ * response from the configured password. NTLM authenticates the connection, so later requests on
+ * it pass without credentials. Authenticated CONNECT requests become tunnels on a
+ * {@link TunnelRelay}; absolute {@code http://} requests are forwarded to the origin.
+ */
+public class NtlmProxyFixture implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NtlmProxyFixture.class);
+
+    private static final byte[] CONNECTION_ESTABLISHED =
+        "HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] SIGNATURE = "NTLMSSP\0".getBytes(StandardCharsets.US_ASCII);
+    private static final String TARGET_NAME = "STANDIN";
+
+    // Unicode, request target, NTLM, always sign, domain target, extended session security,
+    // target info, 128 and 56 bit keys
+    private static final int CHALLENGE_FLAGS = 0x00000001 | 0x00000004 | 0x00000200 | 0x00008000
+        | 0x00010000 | 0x00080000 | 0x00800000 | 0x20000000 | 0x80000000;
+
+    private final String username;
+    private final String password;
+    private final SecureRandom random = new SecureRandom();
+    private final TunnelRelay tunnelRelay;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder challenges = new LongAdder();
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+
+    /**
+     * @param username user accepted by the proxy, compared without case
+     * @param password password the NTLM responses are checked against
+     */
+    public NtlmProxyFixture(String username, String password) throws IOException {
+        this.username = username;
+        this.password = password;
+        this.tunnelRelay = new TunnelRelay();
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "proxy-fixture-" + workerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds an ephemeral port on 127.0.0.1 and starts accepting connections.
+     */
+    public NtlmProxyFixture start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", 0), 512);
+        running = true;
+
+        Thread relayThread = new Thread(tunnelRelay, "proxy-fixture-relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+
+        Thread acceptThread = new Thread(this::acceptLoop, "proxy-fixture-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info("NTLM proxy fixture listening on {} (user {})", serverChannel.getLocalAddress(), username);
+        return this;
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                client.socket().setTcpNoDelay(true);
+                connections.increment();
+                workers.execute(() -> serveClient(client));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Proxy fixture accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves one client connection until it closes or turns into a tunnel.
+     */
+    private void serveClient(SocketChannel channel) {
+        HttpStream client = null;
+        HttpStream origin = null;
+        String originAuthority = null;
+        boolean handedOver = false;
+        try {
+            client = new HttpStream(channel);
+            client.setTimeout(60_000);
+            boolean authenticated = false;
+            byte[] challenge = null;
+            HttpHead request;
+            while (running && (request = client.readHead()) != null) {
+                requests.increment();
+                byte[] body = readBody(client, request);
+                if (!authenticated) {
+                    byte[] message = ntlmMessage(request.header("Proxy-Authorization"));
+                    int type = message != null && message.length > 12 ? message[8] : 0;
+                    if (type == 1) {
+                        challenge = new byte[8];
+                        random.nextBytes(challenge);
+                        challenges.increment();
+                        sendAuthenticationRequired(client, "NTLM " + Base64.getEncoder().encodeToString(challenge(challenge)));
+                        continue;
+                    }
+                    if (type == 3 && challenge != null && verify(message, challenge)) {
+                        authenticated = true;
+                        handshakes.increment();
+                    } else {
+                        if (type == 3) {
+                            rejected.increment();
+                        }
+                        challenge = null;
+                        sendAuthenticationRequired(client, "NTLM");
+                        continue;
+                    }
+                }
+
+                if ("CONNECT".equalsIgnoreCase(request.getMethod())) {
+                    handedOver = openTunnel(client, request.getTarget());
+                    return;
+                }
+                URI target = URI.create(request.getTarget());
+                int port = target.getPort() > 0 ? target.getPort() : 80;
+                String authority = target.getHost() + ":" + port;
+                if (origin == null || !authority.equals(originAuthority)) {
+                    if (origin != null) {
+                        origin.close();
+                    }
+                    origin = new HttpStream(SocketChannel.open(new InetSocketAddress(target.getHost(), port)));
+                    originAuthority = authority;
+                }
+                if (!forward(client, origin, request, target, body)) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Proxy fixture client idle, closing");
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Proxy fixture client connection failed: {}", e.getMessage());
+        } finally {
+            if (origin != null) {
+                origin.close();
+            }
+            if (client != null && !handedOver) {
+                client.close();
+            }
+        }
+    }
+
+    private static byte[] readBody(HttpStream client, HttpHead request) throws IOException {
+        if (request.hasToken("Transfer-Encoding", "chunked")) {
+            return client.readChunked(Integer.MAX_VALUE);
+        }
+        String contentLength = request.header("Content-Length");
+        return contentLength != null ? client.readFixed(Integer.parseInt(contentLength.trim())) : null;
+    }
+
+    private static void sendAuthenticationRequired(HttpStream client, String challenge) throws IOException {
+        client.write(new HttpHead("HTTP/1.1 407 Proxy Authentication Required")
+            .add("Proxy-Authenticate", challenge)
+            .add("Content-Length", "0")
+            .add("Proxy-Connection", "keep-alive"));
+        client.flush();
+    }
+
+    private boolean openTunnel(HttpStream client, String authority) throws IOException {
+        int colon = authority.lastIndexOf(':');
+        SocketChannel upstream;
+        try {
+            upstream = SocketChannel.open(new InetSocketAddress(authority.substring(0, colon),
+                                                                Integer.parseInt(authority.substring(colon + 1))));
+        } catch (IOException e) {
+            client.write(new HttpHead("HTTP/1.1 502 Bad Gateway").add("Content-Length", "0").add("Connection", "close"));
+            client.flush();
+            return false;
+        }
+        upstream.socket().setTcpNoDelay(true);
+        client.write(CONNECTION_ESTABLISHED);
+        client.flush();
+        byte[] leftover = client.takeBuffered();
+        if (leftover.length > 0) {
+            upstream.write(ByteBuffer.wrap(leftover));
+        }
+        tunnelRelay.register(client.getChannel(), upstream);
+        return true;
+    }
+
+    /**
+     * Sends the request to the origin in origin form and relays the response. Returns true if the
+     * client connection stays open.
+     */
+    private boolean forward(HttpStream client, HttpStream origin, HttpHead request, URI target, byte[] body)
+            throws IOException {
+        String path = target.getRawPath() == null || target.getRawPath().isEmpty() ? "/" : target.getRawPath();
+        if (target.getRawQuery() != null) {
+            path += "?" + target.getRawQuery();
+        }
+        HttpHead outgoing = request.withStartLine(request.getMethod() + " " + path + " HTTP/1.1")
+            .remove("Proxy-Authorization")
+            .remove("Proxy-Connection")
+            .remove("Transfer-Encoding");
+        if (body != null) {
+            outgoing.set("Content-Length", String.valueOf(body.length));
+        }
+        origin.write(outgoing);
+        if (body != null) {
+            origin.write(body);
+        }
+        origin.flush();
+        forwarded.increment();
+
+        HttpHead response = origin.readHead();
+        if (response == null) {
+            throw new IOException("Origin closed the connection");
+        }
+        boolean chunked = response.hasToken("Transfer-Encoding", "chunked");
+        String contentLength = response.header("Content-Length");
+        boolean keepAlive = (chunked || contentLength != null) && !response.hasToken("Connection", "close");
+        client.write(response.withStartLine(response.getStartLine())
+            .set("Proxy-Connection", keepAlive ? "keep-alive" : "close"));
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            // No body follows
+        } else if (chunked) {
+            origin.copyChunked(client.output());
+        } else if (contentLength != null) {
+            origin.copyFixed(Long.parseLong(contentLength.trim()), client.output());
+        } else {
+            origin.copyToEnd(client.output());
+        }
+        client.flush();
+        return keepAlive;
+    }
+
+    private static byte[] ntlmMessage(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "NTLM ", 0, 5)) {
+            return null;
+        }
+        try {
+            byte[] message = Base64.getDecoder().decode(authorization.substring(5).trim());
+            return message.length > 12 && Arrays.equals(Arrays.copyOf(message, 8), SIGNATURE) ? message : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Type 2 (challenge) message with the server nonce and a target info block, so the client
+     * answers with an NTLMv2 response.
+     */
+    private static byte[] challenge(byte[] nonce) {
+        byte[] targetName = TARGET_NAME.getBytes(StandardCharsets.UTF_16LE);
+        ByteBuffer targetInfo = ByteBuffer.allocate(4 + targetName.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        targetInfo.putShort((short) 2).putShort((short) targetName.length).put(targetName); // MsvAvNbDomainName
+        targetInfo.putShort((short) 0).putShort((short) 0);                                 // MsvAvEOL
+
+        int payload = 48;
+        ByteBuffer message = ByteBuffer.allocate(payload + targetName.length + targetInfo.capacity())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        message.put(SIGNATURE).putInt(2);
+        message.putShort((short) targetName.length).putShort((short) targetName.length).putInt(payload);
+        message.putInt(CHALLENGE_FLAGS);
+        message.put(nonce).putLong(0);
+        message.putShort((short) targetInfo.capacity()).putShort((short) targetInfo.capacity())
+            .putInt(payload + targetName.length);
+        message.put(targetName).put(targetInfo.array());
+        return message.array();
+    }
+
+    /**
+     * Checks a type 3 (authenticate) message: the user must match and the NTLMv2 proof must be the
+     * HMAC-MD5 of the server nonce and client blob under the key derived from the password.
+     */
+    private boolean verify(byte[] message, byte[] nonce) {
+        try {
+            ByteBuffer fields = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+            boolean unicode = (fields.getInt(60) & 0x00000001) != 0;
+            byte[] ntResponse = field(message, fields, 20);
+            String domain = text(field(message, fields, 28), unicode);
+            String user = text(field(message, fields, 36), unicode);
+            if (!user.equalsIgnoreCase(username) || ntResponse.length <= 24) {
+                logger.debug("NTLM authenticate rejected: user {}, response length {}", user, ntResponse.length);
+                return false;
+            }
+            byte[] ntlmHash = md4(password.getBytes(StandardCharsets.UTF_16LE));
+            byte[] ntlmv2Hash = hmacMd5(ntlmHash, (user.toUpperCase(Locale.ROOT) + domain)
+                .getBytes(StandardCharsets.UTF_16LE));
+            byte[] blob = Arrays.copyOfRange(ntResponse, 16, ntResponse.length);
+            byte[] signed = new byte[nonce.length + blob.length];
+            System.arraycopy(nonce, 0, signed, 0, nonce.length);
+            System.arraycopy(blob, 0, signed, nonce.length, blob.length);
+            return MessageDigest.isEqual(hmacMd5(ntlmv2Hash, signed), Arrays.copyOf(ntResponse, 16));
+        } catch (IndexOutOfBoundsException | GeneralSecurityException e) {
+            logger.debug("Malformed NTLM authenticate message: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] field(byte[] message, ByteBuffer fields, int position) {
+        int length = fields.getShort(position) & 0xFFFF;
+        int offset = fields.getInt(position + 4);
+        return Arrays.copyOfRange(message, offset, offset + length);
+    }
+
+    private static String text(byte[] bytes, boolean unicode) {
+        return new String(bytes, unicode ? StandardCharsets.UTF_16LE : StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] hmacMd5(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacMD5");
+        mac.init(new SecretKeySpec(key, "HmacMD5"));
+        return mac.doFinal(data);
+    }
+
+    /**
+     * MD4 (RFC 1320), which the JDK does not offer as a public MessageDigest.
+     */
+    static byte[] md4(byte[] input) {
+        int blocks = (input.length + 8) / 64 + 1;
+        byte[] padded = Arrays.copyOf(input, blocks * 64);
+        padded[input.length] = (byte) 0x80;
+        long bits = (long) input.length * 8;
+        for (int i = 0; i < 8; i++) {
+            padded[padded.length - 8 + i] = (byte) (bits >>> (8 * i));
+        }
+
+        int a = 0x67452301;
+        int b = 0xefcdab89;
+        int c = 0x98badcfe;
+        int d = 0x10325476;
+        int[] x = new int[16];
+        ByteBuffer words = ByteBuffer.wrap(padded).order(ByteOrder.LITTLE_ENDIAN);
+        for (int block = 0; block < blocks; block++) {
+            for (int i = 0; i < 16; i++) {
+                x[i] = words.getInt(block * 64 + i * 4);
+            }
+            int aa = a;
+            int bb = b;
+            int cc = c;
+            int dd = d;
+            int[] s1 = {3, 7, 11, 19};
+            for (int i = 0; i < 16; i++) {
+                int f = (b & c) | (~b & d);
+                int t = Integer.rotateLeft(a + f + x[i], s1[i % 4]);
+                a = d;
+                d = c;
+                c = b;
+                b = t;
+            }
+            int[] s2 = {3, 5, 9, 13};
+            for (int i = 0; i < 16; i++) {
+                int g = (b & c) | (b & d) | (c & d);
+                int t = Integer.rotateLeft(a + g + x[(i % 4) * 4 + i / 4] + 0x5a827999, s2[i % 4]);
+                a = d;
+                d = c;
+                c = b;
+                b = t;
+            }
+            int[] s3 = {3, 9, 11, 15};
+            int[] order = {0, 8, 4, 12, 2, 10, 6, 14, 1, 9, 5, 13, 3, 11, 7, 15};
+            for (int i = 0; i < 16; i++) {
+                int h = b ^ c ^ d;
+                int t = Integer.rotateLeft(a + h + x[order[i]] + 0x6ed9eba1, s3[i % 4]);
+                a = d;
+                d = c;
+                c = b;
+                b = t;
+            }
+            a += aa;
+            b += bb;
+            c += cc;
+            d += dd;
+        }
+        return ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putInt(a).putInt(b).putInt(c).putInt(d).array();
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /** Completed NTLM handshakes, one per authenticated connection */
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public String describeStats() {
+        return "connections=" + connections.sum() +
+               ", requests=" + requests.sum() +
+               ", challenges=" + challenges.sum() +
+               ", handshakes=" + handshakes.sum() +
+               ", rejected=" + rejected.sum() +
+               ", forwarded=" + forwarded.sum() +
+               ", tunnels[" + tunnelRelay.describeStats() + "]";
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } finally {
+            workers.shutdownNow();
+            tunnelRelay.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ServerSocketFactory;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local keep-alive origin server for the performance suite, over TLS with a throwaway
+ * self-signed certificate for 127.0.0.1 and localhost, or over plain HTTP.
+ *
+ * <p>{@code GET /bytes/<n>} answers with n bytes; any other path answers {@code ok}. The
+ * certificate is created with the JDK's keytool, and {@link #getTrustStore()} is a PKCS12 store
+ * trusting it, for use as {@code javax.net.ssl.trustStore}.
+ */
+public class OriginServerFixture implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OriginServerFixture.class);
+
+    public static final String STORE_PASSWORD = "changeit";
+
+    private static final byte[] OK = "ok\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FILLER = new byte[64 * 1024];
+
+    static {
+        Arrays.fill(FILLER, (byte) 'x');
+    }
+
+    private final boolean tls;
+    private final ExecutorService workers;
+    private ServerSocket server;
+    private Path trustStore;
+    private volatile boolean running;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder handshakes = new LongAdder();
+
+    public OriginServerFixture(boolean tls) {
+        this.tls = tls;
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "origin-fixture-" + workerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds an ephemeral port on 127.0.0.1 and starts accepting connections.
+     */
+    public OriginServerFixture start() throws IOException, GeneralSecurityException {
+        ServerSocketFactory factory = tls ? tlsContext().getServerSocketFactory() : ServerSocketFactory.getDefault();
+        server = factory.createServerSocket(0, 512, InetAddress.getByName("127.0.0.1"));
+        running = true;
+        Thread acceptThread = new Thread(this::acceptLoop, "origin-fixture-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info("{} origin fixture listening on {}", tls ? "TLS" : "HTTP", url("/"));
+        return this;
+    }
+
+    /**
+     * Creates a self-signed key pair in a temporary directory and a trust store for its certificate.
+     */
+    private SSLContext tlsContext() throws IOException, GeneralSecurityException {
+        Path directory = Files.createTempDirectory("origin-fixture");
+        Path keyStoreFile = directory.resolve("origin.p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "origin",
+            "-keyalg", "EC", "-keysize", "256", "-dname", "CN=localhost",
+            "-ext", "san=ip:127.0.0.1,dns:localhost", "-validity", "2",
+            "-storetype", "PKCS12", "-keystore", keyStoreFile.toString(),
+            "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD)
+            .redirectErrorStream(true)
+            .start();
+        try {
+            if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("keytool could not create the origin certificate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating the origin certificate", e);
+        }
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStoreFile)) {
+            keyStore.load(in, STORE_PASSWORD.toCharArray());
+        }
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        trusted.load(null, null);
+        trusted.setCertificateEntry("origin", keyStore.getCertificate("origin"));
+        trustStore = directory.resolve("trust.p12");
+        try (OutputStream out = Files.newOutputStream(trustStore)) {
+            trusted.store(out, STORE_PASSWORD.toCharArray());
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, STORE_PASSWORD.toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public String url(String path) {
+        return (tls ? "https" : "http") + "://127.0.0.1:" + getPort() + path;
+    }
+
+    /**
+     * PKCS12 store (password {@link #STORE_PASSWORD}) trusting this server's certificate, or null without TLS.
+     */
+    public Path getTrustStore() {
+        return trustStore;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.increment();
+                if (socket instanceof SSLSocket) {
+                    ((SSLSocket) socket).addHandshakeCompletedListener(event -> handshakes.increment());
+                }
+                workers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Origin fixture accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(60_000);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 16 * 1024);
+            HttpHead request;
+            while (running && (request = readHead(in)) != null) {
+                requests.increment();
+                String contentLength = request.header("Content-Length");
+                if (contentLength != null) {
+                    skip(in, Long.parseLong(contentLength.trim()));
+                }
+                boolean close = request.hasToken("Connection", "close");
+                respond(out, request, close);
+                out.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Origin fixture connection idle, closing");
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Origin fixture connection failed: {}", e.getMessage());
+        }
+    }
+
+    private static void respond(OutputStream out, HttpHead request, boolean close) throws IOException {
+        String path = request.getTarget();
+        long length = path.startsWith("/bytes/") ? Long.parseLong(path.substring("/bytes/".length())) : OK.length;
+        out.write(new HttpHead("HTTP/1.1 200 OK")
+            .add("Content-Type", "text/plain")
+            .add("Content-Length", String.valueOf(length))
+            .add("Connection", close ? "close" : "keep-alive")
+            .toBytes());
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return;
+        }
+        if (!path.startsWith("/bytes/")) {
+            out.write(OK);
+            return;
+        }
+        for (long remaining = length; remaining > 0; ) {
+            int chunk = (int) Math.min(remaining, FILLER.length);
+            out.write(FILLER, 0, chunk);
+            remaining -= chunk;
+        }
+    }
+
+    private static HttpHead readHead(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = readLine(in)) != null) {
+            if (line.isEmpty()) {
+                if (!lines.isEmpty()) {
+                    return HttpHead.parse(lines);
+                }
+                continue;
+            }
+            lines.add(line);
+        }
+        if (!lines.isEmpty()) {
+            throw new EOFException("Connection closed in the middle of a message head");
+        }
+        return null;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void skip(InputStream in, long length) throws IOException {
+        for (long remaining = length; remaining > 0; ) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Connection closed in the middle of a request body");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public String describeStats() {
+        return "connections=" + connections.sum() +
+               ", requests=" + requests.sum() +
+               (tls ? ", handshakes=" + handshakes.sum() : "");
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+}
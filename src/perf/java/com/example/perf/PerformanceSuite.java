@@ -0,0 +1,200 @@
+package com.example.perf;
+
+import com.example.HttpClientConfig;
+import com.example.LoadGenerator;
+import com.example.NtlmProxyClient;
+import com.example.NtlmProxyFixture;
+import com.example.OriginServerFixture;
+import com.example.SslConfig;
+import com.example.SslContextFactory;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end performance regression suite, run by {@code mvn -Pperf verify}. Sends requests
+ * through {@link NtlmProxyClient} to an {@link NtlmProxyFixture} and on to
+ * {@link OriginServerFixture}s, all on loopback, and checks NTLM handshakes, connection reuse,
+ * TLS handshakes, throughput and tail latency against budgets. Exits with status 1 when any check
+ * fails.
+ */
+public class PerformanceSuite {
+
+    private static final String USER = "perf";
+    private static final String PASSWORD = "secret";
+    private static final String DOMAIN = "CORP";
+
+    private final int concurrency;
+    private final long durationSeconds;
+    private final int sequentialRequests;
+    private final int bodyBytes;
+    private final double minRps;
+    private final double maxP99Ms;
+
+    private final List<String[]> results = new ArrayList<>();
+    private boolean failed;
+
+    PerformanceSuite(String[] args) {
+        this.concurrency = Integer.parseInt(argumentValue(args, "-concurrency", "8"));
+        this.durationSeconds = Long.parseLong(argumentValue(args, "-durationSeconds", "10"));
+        this.sequentialRequests = Integer.parseInt(argumentValue(args, "-sequentialRequests", "200"));
+        this.bodyBytes = Integer.parseInt(argumentValue(args, "-bodyBytes", "4096"));
+        this.minRps = Double.parseDouble(argumentValue(args, "-minRps", "500"));
+        this.maxP99Ms = Double.parseDouble(argumentValue(args, "-maxP99Ms", "100"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = new PerformanceSuite(args).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        try (OriginServerFixture tlsOrigin = new OriginServerFixture(true).start();
+             OriginServerFixture plainOrigin = new OriginServerFixture(false).start();
+             NtlmProxyFixture proxy = new NtlmProxyFixture(USER, PASSWORD).start()) {
+
+            // Trust the throwaway origin certificate before the first TLS context is created
+            System.setProperty("javax.net.ssl.trustStore", tlsOrigin.getTrustStore().toString());
+            System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+            System.setProperty("javax.net.ssl.trustStorePassword", OriginServerFixture.STORE_PASSWORD);
+            SslContextFactory ssl = SslContextFactory.configure(new SslConfig());
+
+            HttpClientConfig config = new HttpClientConfig();
+            config.setMaxTotal(Math.max(config.getMaxTotal(), concurrency * 2));
+            config.setMaxPerRoute(Math.max(config.getMaxPerRoute(), concurrency));
+
+            try (NtlmProxyClient client = new NtlmProxyClient("127.0.0.1", proxy.getPort(), USER, PASSWORD, DOMAIN, config)) {
+                firstRequest(client, proxy, tlsOrigin, ssl);
+                keepAlive(client, proxy, tlsOrigin, ssl);
+                throughput("HTTPS tunnel", client, proxy, tlsOrigin);
+                throughput("HTTP forward", client, proxy, plainOrigin);
+            }
+            wrongPassword(proxy, tlsOrigin);
+
+            System.out.println();
+            System.out.println("Proxy fixture: " + proxy.describeStats());
+            System.out.println("TLS origin: " + tlsOrigin.describeStats());
+            System.out.println("HTTP origin: " + plainOrigin.describeStats());
+            System.out.println("Client TLS handshakes: " + ssl.describeStats());
+        }
+        printResults();
+        return !failed;
+    }
+
+    /** One request costs one proxy connection, one NTLM handshake and one full TLS handshake */
+    private void firstRequest(NtlmProxyClient client, NtlmProxyFixture proxy, OriginServerFixture origin,
+                              SslContextFactory ssl) throws Exception {
+        long start = System.nanoTime();
+        int status = status(client, origin.url("/"));
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+
+        check("first request", "status", "200", status == 200, String.valueOf(status));
+        check("first request", "proxy connections", "1", proxy.getConnections() == 1, String.valueOf(proxy.getConnections()));
+        check("first request", "NTLM handshakes", "1", proxy.getHandshakes() == 1, String.valueOf(proxy.getHandshakes()));
+        check("first request", "full TLS handshakes", "1", ssl.getFullHandshakes() == 1, String.valueOf(ssl.getFullHandshakes()));
+        check("first request", "time (ms)", "<= 2000", elapsedMs <= 2000, String.format("%.1f", elapsedMs));
+    }
+
+    /** Sequential requests reuse the authenticated tunnel: no new connection or handshake of either kind */
+    private void keepAlive(NtlmProxyClient client, NtlmProxyFixture proxy, OriginServerFixture origin,
+                           SslContextFactory ssl) throws Exception {
+        long connections = proxy.getConnections();
+        long handshakes = proxy.getHandshakes();
+        long fullTls = ssl.getFullHandshakes();
+        int ok = 0;
+        for (int i = 0; i < sequentialRequests; i++) {
+            if (status(client, origin.url("/bytes/" + bodyBytes)) == 200) {
+                ok++;
+            }
+        }
+
+        check("keep-alive", "successful requests", String.valueOf(sequentialRequests), ok == sequentialRequests,
+              String.valueOf(ok));
+        check("keep-alive", "new proxy connections", "0", proxy.getConnections() == connections,
+              String.valueOf(proxy.getConnections() - connections));
+        check("keep-alive", "new NTLM handshakes", "0", proxy.getHandshakes() == handshakes,
+              String.valueOf(proxy.getHandshakes() - handshakes));
+        check("keep-alive", "new full TLS handshakes", "0", ssl.getFullHandshakes() == fullTls,
+              String.valueOf(ssl.getFullHandshakes() - fullTls));
+    }
+
+    /**
+     * Closed-model load at the configured concurrency. The pool may open at most one connection,
+     * and one NTLM handshake, per worker.
+     */
+    private void throughput(String name, NtlmProxyClient client, NtlmProxyFixture proxy, OriginServerFixture origin)
+        throws InterruptedException {
+        long connections = proxy.getConnections();
+        long handshakes = proxy.getHandshakes();
+        LoadGenerator load = new LoadGenerator(client, origin.url("/bytes/" + bodyBytes));
+        long start = System.nanoTime();
+        load.runFixedConcurrency(concurrency, durationSeconds);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Histogram latency = load.getLatencyHistogram();
+        double rps = load.getCompleted() / seconds;
+        double p99Ms = latency.getTotalCount() == 0 ? Double.NaN : latency.getValueAtPercentile(99.0) / 1000.0;
+        long errors = load.getCompleted() - load.getSucceeded();
+        long newConnections = proxy.getConnections() - connections;
+        long newHandshakes = proxy.getHandshakes() - handshakes;
+
+        check(name, "requests/s", ">= " + minRps, rps >= minRps, String.format("%.0f", rps));
+        check(name, "p99 latency (ms)", "<= " + maxP99Ms, p99Ms <= maxP99Ms, String.format("%.2f", p99Ms));
+        check(name, "errors", "0", errors == 0, String.valueOf(errors));
+        check(name, "new proxy connections", "<= " + concurrency, newConnections <= concurrency,
+              String.valueOf(newConnections));
+        check(name, "new NTLM handshakes", "<= " + concurrency, newHandshakes <= concurrency,
+              String.valueOf(newHandshakes));
+    }
+
+    /** A wrong password ends in 407 without retry loops */
+    private void wrongPassword(NtlmProxyFixture proxy, OriginServerFixture origin) throws Exception {
+        long rejected = proxy.getRejected();
+        long connections = proxy.getConnections();
+        try (NtlmProxyClient client = new NtlmProxyClient("127.0.0.1", proxy.getPort(), USER, "wrong", DOMAIN,
+                                                          new HttpClientConfig())) {
+            int status = status(client, origin.url("/"));
+            check("wrong password", "status", "407", status == 407, String.valueOf(status));
+        }
+        check("wrong password", "rejected handshakes", "1", proxy.getRejected() - rejected == 1,
+              String.valueOf(proxy.getRejected() - rejected));
+        check("wrong password", "proxy connections", "<= 2", proxy.getConnections() - connections <= 2,
+              String.valueOf(proxy.getConnections() - connections));
+    }
+
+    private static int status(NtlmProxyClient client, String url) throws Exception {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    private void check(String scenario, String metric, String budget, boolean passed, String actual) {
+        results.add(new String[] {scenario, metric, budget, actual, passed ? "PASS" : "FAIL"});
+        failed |= !passed;
+    }
+
+    private void printResults() {
+        String format = "%-16s %-24s %-10s %-10s %s%n";
+        System.out.println();
+        System.out.printf(format, "Scenario", "Check", "Budget", "Actual", "Result");
+        for (String[] result : results) {
+            System.out.printf(format, (Object[]) result);
+        }
+        System.out.println();
+        System.out.println(failed ? "Performance suite FAILED" : "Performance suite passed");
+    }
+
+    private static String argumentValue(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}